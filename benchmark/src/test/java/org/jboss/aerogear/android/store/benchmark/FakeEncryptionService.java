@@ -0,0 +1,73 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.benchmark;
+
+import org.jboss.aerogear.android.security.EncryptionService;
+import org.jboss.aerogear.android.security.InvalidKeyException;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * Stands in for the KeyStore backed service, which needs the platform
+ * KeyStore. Messages are XORed with a key stream and followed by a tag, so
+ * the stores copy and allocate about what they would with AES-GCM without
+ * the cost of the cipher skewing the comparison between stores.
+ */
+public final class FakeEncryptionService implements EncryptionService {
+
+    private static final int TAG_LENGTH = 16;
+
+    private final byte[] key;
+
+    public FakeEncryptionService(byte[] key) {
+        this.key = key.clone();
+    }
+
+    @Override
+    public byte[] encrypt(byte[] iv, byte[] message) {
+        byte[] result = Arrays.copyOf(message, message.length + TAG_LENGTH);
+        apply(iv, result);
+        return result;
+    }
+
+    @Override
+    public byte[] decrypt(byte[] iv, byte[] message) {
+        if (message.length < TAG_LENGTH) {
+            throw new InvalidKeyException(new GeneralSecurityException("Message too short"));
+        }
+        byte[] result = Arrays.copyOf(message, message.length);
+        apply(iv, result);
+        for (int i = message.length - TAG_LENGTH; i < message.length; i++) {
+            if (result[i] != 0) {
+                throw new InvalidKeyException(new GeneralSecurityException("Tag mismatch"));
+            }
+        }
+        return Arrays.copyOf(result, message.length - TAG_LENGTH);
+    }
+
+    /**
+     * XORs the whole buffer, the tag included: a zero tag comes back only
+     * when the key and IV are the ones it was encrypted with.
+     */
+    private void apply(byte[] iv, byte[] data) {
+        for (int i = 0; i < data.length; i++) {
+            data[i] ^= key[i % key.length] ^ iv[i % iv.length];
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.benchmark;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the duration of each call of an operation and summarizes them as
+ * throughput and latency percentiles.
+ */
+final class Latencies {
+
+    private final String operation;
+    private long[] nanos = new long[64];
+    private int count;
+    private long items;
+    private long started;
+
+    Latencies(String operation) {
+        this.operation = operation;
+    }
+
+    void start() {
+        started = System.nanoTime();
+    }
+
+    /**
+     * Ends the call started last.
+     *
+     * @param itemsHandled the number of entities the call saved, read or
+     * removed
+     */
+    void stop(int itemsHandled) {
+        long elapsed = System.nanoTime() - started;
+        if (count == nanos.length) {
+            nanos = Arrays.copyOf(nanos, count * 2);
+        }
+        nanos[count++] = elapsed;
+        items += itemsHandled;
+    }
+
+    /**
+     * @return a line with the entities handled per second and the
+     * percentiles of a call in microseconds
+     */
+    String summary() {
+        if (count == 0) {
+            return String.format(Locale.US, "%-16s unsupported", operation);
+        }
+        long[] sorted = Arrays.copyOf(nanos, count);
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long value : sorted) {
+            total += value;
+        }
+        double perSecond = items / (total / (double) TimeUnit.SECONDS.toNanos(1));
+        return String.format(Locale.US, "%-16s %8d calls %12.0f entities/s  p50 %10.1f us  p99 %10.1f us  max %10.1f us",
+                operation, count, perSecond, micros(sorted, 0.50), micros(sorted, 0.99), sorted[count - 1] / 1000.0);
+    }
+
+    private static double micros(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1000.0;
+    }
+
+}
@@ -0,0 +1,70 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the same records for the same seed. A record depends only on
+ * the seed and its id, so any range of ids can be generated on its own.
+ */
+public final class RecordGenerator {
+
+    static final int CATEGORIES = 100;
+
+    private static final String[] WORDS = {
+        "alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel",
+        "india", "juliett", "kilo", "lima", "mike", "november", "oscar", "papa",
+        "quebec", "romeo", "sierra", "tango", "uniform", "victor", "whiskey", "xray"
+    };
+
+    private final long seed;
+
+    public RecordGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    public Record record(long id) {
+        Random random = new Random(seed ^ (id * 0x9E3779B97F4A7C15L));
+        String name = WORDS[random.nextInt(WORDS.length)] + " " + id;
+        StringBuilder description = new StringBuilder();
+        int words = 3 + random.nextInt(20);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                description.append(' ');
+            }
+            description.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return new Record(id, name, description.toString(), random.nextInt(CATEGORIES),
+                random.nextInt(100000) / 100.0, random.nextBoolean());
+    }
+
+    /**
+     * @return the records of ids <code>first</code> to
+     * <code>first + count - 1</code>
+     */
+    public List<Record> records(long first, int count) {
+        List<Record> records = new ArrayList<Record>(count);
+        for (long id = first; id < first + count; id++) {
+            records.add(record(id));
+        }
+        return records;
+    }
+
+}
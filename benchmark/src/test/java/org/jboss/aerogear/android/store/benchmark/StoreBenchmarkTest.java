@@ -0,0 +1,238 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.benchmark;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import org.jboss.aerogear.android.core.ReadFilter;
+import org.jboss.aerogear.android.store.Store;
+import org.jboss.aerogear.android.store.codec.GsonCodec;
+import org.jboss.aerogear.android.store.generator.DefaultIdGenerator;
+import org.jboss.aerogear.android.store.memory.EncryptedMemoryStore;
+import org.jboss.aerogear.android.store.memory.MemoryStore;
+import org.jboss.aerogear.android.store.sql.EncryptedSQLStore;
+import org.jboss.aerogear.android.store.sql.EncryptedSQLStoreConfiguration;
+import org.jboss.aerogear.android.store.sql.SQLStore;
+import org.jboss.aerogear.android.store.sql.SQLStoreConfiguration;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures save, bulk save, read, readAll, readWithFilter and remove on
+ * every store for each size listed by the <code>benchmark.records</code>
+ * system property. Records come from a {@link RecordGenerator} with a fixed
+ * seed and the ids an operation touches from a {@link Random} with a fixed
+ * seed, so every run does the same work.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class StoreBenchmarkTest {
+
+    private static final long SEED = 20170704L;
+    private static final int BATCH = 1000;
+    private static final int SAMPLES = 1000;
+    private static final int FILTER_SAMPLES = 20;
+    private static final byte[] KEY = "benchmark".getBytes();
+
+    enum StoreKind {
+        MEMORY {
+            @Override
+            Store<Record> create(Context context) {
+                return new MemoryStore<Record>(new DefaultIdGenerator());
+            }
+        },
+        SQL {
+            @Override
+            Store<Record> create(Context context) {
+                SQLStore<Record> store = new SQLStore<Record>(Record.class, new SQLStoreConfiguration()
+                        .withContext(context));
+                store.openSync();
+                return store;
+            }
+        },
+        ENCRYPTED_MEMORY {
+            @Override
+            Store<Record> create(Context context) {
+                return new EncryptedMemoryStore<Record>(new DefaultIdGenerator(), new FakeEncryptionService(KEY),
+                        Record.class, new GsonCodec());
+            }
+        },
+        ENCRYPTED_SQL {
+            @Override
+            Store<Record> create(Context context) {
+                EncryptedSQLStore<Record> store = new EncryptedSQLStore<Record>(Record.class,
+                        new EncryptedSQLStoreConfiguration()
+                                .withContext(context)
+                                .withEncryptionService(new FakeEncryptionService(KEY)));
+                store.openSync();
+                return store;
+            }
+        };
+
+        abstract Store<Record> create(Context context);
+    }
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0} {1}")
+    public static Collection<Object[]> parameters() {
+        List<Object[]> parameters = new ArrayList<Object[]>();
+        for (String records : System.getProperty("benchmark.records", "1000").split(",")) {
+            for (StoreKind kind : StoreKind.values()) {
+                parameters.add(new Object[]{kind, Integer.parseInt(records.trim())});
+            }
+        }
+        return parameters;
+    }
+
+    private final StoreKind kind;
+    private final int records;
+    private final RecordGenerator generator = new RecordGenerator(SEED);
+    private final Random ids = new Random(SEED);
+
+    private Store<Record> store;
+
+    public StoreBenchmarkTest(StoreKind kind, int records) {
+        this.kind = kind;
+        this.records = records;
+    }
+
+    @Before
+    public void setUp() {
+        store = kind.create(RuntimeEnvironment.application);
+    }
+
+    @After
+    public void tearDown() {
+        if (store instanceof SQLiteOpenHelper) {
+            ((SQLiteOpenHelper) store).close();
+        }
+    }
+
+    /**
+     * Runs every operation untimed on one batch and resets the store, so
+     * class loading and the JIT don't land on the measured calls.
+     */
+    private void warmUp() throws Exception {
+        List<Record> batch = generator.records(1, BATCH);
+        store.save(batch);
+        for (Record record : batch) {
+            store.read(record.getId());
+        }
+        store.readAll();
+        try {
+            ReadFilter filter = new ReadFilter();
+            filter.setWhere(new JSONObject().put("category", 0));
+            store.readWithFilter(filter);
+        } catch (UnsupportedOperationException e) {
+            // encrypted stores can't filter
+        }
+        for (Record record : batch) {
+            store.remove(record.getId());
+        }
+        store.reset();
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        warmUp();
+        List<String> results = new ArrayList<String>();
+
+        Latencies bulkSave = new Latencies("bulk save");
+        for (long first = 1; first <= records; first += BATCH) {
+            List<Record> batch = generator.records(first, (int) Math.min(BATCH, records - first + 1));
+            bulkSave.start();
+            store.save(batch);
+            bulkSave.stop(batch.size());
+        }
+        results.add(bulkSave.summary());
+
+        Latencies save = new Latencies("save");
+        for (long id = records + 1; id <= records + SAMPLES; id++) {
+            Record record = generator.record(id);
+            save.start();
+            store.save(record);
+            save.stop(1);
+        }
+        results.add(save.summary());
+        int stored = records + SAMPLES;
+
+        Latencies read = new Latencies("read");
+        for (int i = 0; i < SAMPLES; i++) {
+            long id = 1 + ids.nextInt(stored);
+            read.start();
+            Record record = store.read(id);
+            read.stop(1);
+            Assert.assertEquals(Long.valueOf(id), record.getId());
+        }
+        results.add(read.summary());
+
+        Latencies readAll = new Latencies("readAll");
+        readAll.start();
+        int size = store.readAll().size();
+        readAll.stop(size);
+        Assert.assertEquals(stored, size);
+        results.add(readAll.summary());
+
+        Latencies readWithFilter = new Latencies("readWithFilter");
+        try {
+            for (int i = 0; i < FILTER_SAMPLES; i++) {
+                int category = ids.nextInt(RecordGenerator.CATEGORIES);
+                ReadFilter filter = new ReadFilter();
+                filter.setWhere(new JSONObject().put("category", category));
+                filter.setLimit(50);
+                readWithFilter.start();
+                List<Record> found = store.readWithFilter(filter);
+                readWithFilter.stop(found.size());
+                for (Record record : found) {
+                    Assert.assertEquals(category, record.getCategory());
+                }
+            }
+        } catch (UnsupportedOperationException e) {
+            // encrypted stores can't filter
+        }
+        results.add(readWithFilter.summary());
+
+        Latencies remove = new Latencies("remove");
+        for (int i = 0; i < SAMPLES; i++) {
+            long id = 1 + ids.nextInt(stored);
+            remove.start();
+            store.remove(id);
+            remove.stop(1);
+        }
+        results.add(remove.summary());
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%s, %d records%n", kind, records));
+        for (String result : results) {
+            report.append("  ").append(result).append(String.format("%n"));
+        }
+        System.out.print(report);
+    }
+
+}
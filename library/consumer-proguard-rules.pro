@@ -0,0 +1,4 @@
+# Generated entity accessors are looked up by name, see EntityAccessors
+-keep class * extends org.jboss.aerogear.android.store.accessor.GeneratedEntityAccessor {
+    public <init>();
+}
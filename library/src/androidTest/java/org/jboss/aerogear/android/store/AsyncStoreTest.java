@@ -0,0 +1,220 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.jboss.aerogear.android.core.Callback;
+import org.jboss.aerogear.android.core.ReadFilter;
+import org.jboss.aerogear.android.store.generator.StubIdGenerator;
+import org.jboss.aerogear.android.store.helper.Data;
+import org.jboss.aerogear.android.store.memory.MemoryStore;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+@RunWith(AndroidJUnit4.class)
+public class AsyncStoreTest {
+
+    private static final Executor CALLING_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private ExecutorService executor;
+    private AsyncStore<Data> store;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        store = new AsyncStore<Data>(new MemoryStore<Data>(new StubIdGenerator()), executor, CALLING_THREAD);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testWritesRunInSubmissionOrder() throws InterruptedException {
+        final AtomicInteger lastSaved = new AtomicInteger();
+        final AtomicInteger outOfOrder = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(50);
+
+        for (int i = 1; i <= 50; i++) {
+            store.save(new Data(i, "name " + i, "description"), new Callback<Data>() {
+                @Override
+                public void onSuccess(Data data) {
+                    if (lastSaved.getAndSet(data.getId()) != data.getId() - 1) {
+                        outOfOrder.incrementAndGet();
+                    }
+                    latch.countDown();
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, outOfOrder.get());
+
+        final AtomicReference<Collection<Data>> all = new AtomicReference<Collection<Data>>();
+        final CountDownLatch readLatch = new CountDownLatch(1);
+        store.readAll(new Callback<Collection<Data>>() {
+            @Override
+            public void onSuccess(Collection<Data> data) {
+                all.set(data);
+                readLatch.countDown();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Assert.assertTrue(readLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(50, all.get().size());
+    }
+
+    @Test
+    public void testReadDeliversResult() throws InterruptedException {
+        store.getStore().save(new Data(10, "name", "description"));
+
+        final AtomicReference<Data> read = new AtomicReference<Data>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        store.read(10, new Callback<Data>() {
+            @Override
+            public void onSuccess(Data data) {
+                read.set(data);
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals("name", read.get().getName());
+    }
+
+    @Test
+    public void testIterateClosesIteratorWhenStopped() throws InterruptedException {
+        final AtomicBoolean closed = new AtomicBoolean();
+        store = new AsyncStore<Data>(new MemoryStore<Data>(new StubIdGenerator()) {
+            @Override
+            public CloseableIterator<Data> iterator() {
+                final CloseableIterator<Data> iterator = super.iterator();
+                return new CloseableIterator<Data>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Data next() {
+                        return iterator.next();
+                    }
+
+                    @Override
+                    public void remove() {
+                        iterator.remove();
+                    }
+
+                    @Override
+                    public void close() {
+                        closed.set(true);
+                        iterator.close();
+                    }
+                };
+            }
+        }, executor, CALLING_THREAD);
+        for (int i = 1; i <= 10; i++) {
+            store.getStore().save(new Data(i, "name " + i, "description"));
+        }
+
+        final AtomicInteger visited = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        store.iterate(new AsyncStore.Visitor<Data>() {
+            @Override
+            public boolean visit(Data item) {
+                return visited.incrementAndGet() < 3;
+            }
+        }, new Callback<Integer>() {
+            @Override
+            public void onSuccess(Integer count) {
+                Assert.assertEquals(3, count.intValue());
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, visited.get());
+        Assert.assertTrue(closed.get());
+    }
+
+    @Test
+    public void testFailureIsDelivered() throws InterruptedException, JSONException {
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        ReadFilter filter = new ReadFilter();
+        filter.setWhere(new JSONObject("{\"name\":{\"name\":\"bar\"}}"));
+
+        store.readWithFilter(filter, new Callback<List<Data>>() {
+            @Override
+            public void onSuccess(List<Data> data) {
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                failure.set(e);
+                latch.countDown();
+            }
+        });
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertNotNull(failure.get());
+    }
+
+}
@@ -0,0 +1,234 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.accessor;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import org.jboss.aerogear.android.core.RecordId;
+import org.jboss.aerogear.android.core.reflection.FieldNotFoundException;
+import org.jboss.aerogear.android.core.reflection.PropertyNotFoundException;
+import org.jboss.aerogear.android.store.helper.Data;
+import org.jboss.aerogear.android.store.helper.DataWithNoPropertyId;
+import org.jboss.aerogear.android.store.helper.ExtendsData;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class EntityAccessorsTest {
+
+    public static class Model {
+
+        @RecordId
+        private Long id;
+        @SerializedName(value = "title", alternate = {"heading"})
+        private String name;
+        private int count;
+        private boolean active;
+        private transient String cached;
+        Double score;
+        Data owner;
+        List<Data> items;
+        Object self;
+
+        public Long getId() {
+            return id;
+        }
+
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+
+        public void setActive(boolean active) {
+            this.active = active;
+        }
+
+    }
+
+    public static class FinalFieldModel {
+
+        @RecordId
+        private Integer id;
+        private final String name = "fixed";
+
+        public Integer getId() {
+            return id;
+        }
+
+        public void setId(Integer id) {
+            this.id = id;
+        }
+
+    }
+
+    private Model model() {
+        Model model = new Model();
+        model.setId(7L);
+        model.setName("model");
+        model.setCount(3);
+        model.setActive(true);
+        model.cached = "not serialized";
+        model.score = 0.5;
+        model.owner = new ExtendsData("owner", "a subclass");
+        model.items = Arrays.asList(new Data(1, "first", "one"), new Data(2, "second", null));
+        model.self = model;
+        return model;
+    }
+
+    @Test
+    public void testGeneratedAccessorsAreFound() {
+        Assert.assertTrue(EntityAccessors.of(Data.class) instanceof GeneratedEntityAccessor);
+        Assert.assertTrue(EntityAccessors.of(Model.class) instanceof GeneratedEntityAccessor);
+        Assert.assertTrue(EntityAccessors.of(FinalFieldModel.class) instanceof GeneratedEntityAccessor);
+        Assert.assertSame(EntityAccessors.of(Data.class), EntityAccessors.of(Data.class));
+
+        // Subclasses and models without id accessors keep using reflection
+        Assert.assertFalse(EntityAccessors.of(ExtendsData.class) instanceof GeneratedEntityAccessor);
+        Assert.assertFalse(EntityAccessors.of(DataWithNoPropertyId.class) instanceof GeneratedEntityAccessor);
+    }
+
+    @Test
+    public void testRecordIdAndProperties() {
+        EntityAccessor<Model> accessor = EntityAccessors.of(Model.class);
+        Model model = model();
+
+        Assert.assertEquals("id", accessor.getRecordIdName());
+        Assert.assertEquals(7L, accessor.getRecordId(model));
+        accessor.setRecordId(model, 8L);
+        Assert.assertEquals(Long.valueOf(8), model.getId());
+
+        Assert.assertEquals("model", accessor.getProperty(model, "name"));
+        Assert.assertEquals(3, accessor.getProperty(model, "count"));
+        Assert.assertEquals(true, accessor.getProperty(model, "active"));
+    }
+
+    @Test
+    public void testPropertiesWithoutAccessorsFailLikeReflection() {
+        EntityAccessor<Model> accessor = EntityAccessors.of(Model.class);
+        try {
+            accessor.getProperty(model(), "score");
+            Assert.fail("score has no getter");
+        } catch (PropertyNotFoundException e) {
+            // expected
+        }
+        try {
+            accessor.getProperty(model(), "missing");
+            Assert.fail("there is no such field");
+        } catch (FieldNotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testGeneratedAdapterMatchesReflection() {
+        Gson gson = EntityAccessors.createGson(new GsonBuilder(), true);
+        Assert.assertTrue(gson.getAdapter(Model.class).getClass().getName().endsWith(EntityAccessors.SUFFIX + "$Adapter"));
+
+        Gson reflective = new Gson();
+        Model model = model();
+        String json = gson.toJson(model);
+        Assert.assertEquals(reflective.toJson(model), json);
+        Assert.assertTrue(json.contains("\"description\":\"a subclass\""));
+
+        Model read = gson.fromJson(json, Model.class);
+        Assert.assertEquals(reflective.toJson(reflective.fromJson(json, Model.class)), gson.toJson(read));
+        Assert.assertEquals("model", read.getName());
+        Assert.assertEquals(2, read.items.size());
+        Assert.assertNull(read.cached);
+
+        read = gson.fromJson("{\"heading\":\"alternate\",\"count\":null,\"unknown\":[1]}", Model.class);
+        Assert.assertEquals("alternate", read.getName());
+        Assert.assertEquals(0, read.getCount());
+
+        Gson nulls = EntityAccessors.createGson(new GsonBuilder().serializeNulls(), true);
+        Model empty = new Model();
+        Assert.assertEquals(new GsonBuilder().serializeNulls().create().toJson(empty), nulls.toJson(empty));
+    }
+
+    @Test
+    public void testCustomizedGsonKeepsReflection() {
+        Gson renamed = EntityAccessors.createGson(new GsonBuilder()
+                .setFieldNamingPolicy(FieldNamingPolicy.UPPER_CAMEL_CASE), true);
+        Assert.assertTrue(renamed.toJson(model()).contains("\"Count\":3"));
+
+        TypeAdapter<Model> custom = new TypeAdapter<Model>() {
+            @Override
+            public void write(JsonWriter out, Model value) throws IOException {
+                out.value("custom");
+            }
+
+            @Override
+            public Model read(JsonReader in) throws IOException {
+                in.skipValue();
+                return new Model();
+            }
+        };
+        Gson registered = EntityAccessors.createGson(new GsonBuilder().registerTypeAdapter(Model.class, custom), true);
+        Assert.assertEquals("\"custom\"", registered.toJson(model()));
+
+        // Final fields can only be written through reflection
+        Gson gson = EntityAccessors.createGson(new GsonBuilder(), true);
+        Assert.assertFalse(gson.getAdapter(FinalFieldModel.class).getClass().getName().endsWith(EntityAccessors.SUFFIX + "$Adapter"));
+    }
+
+    @Test
+    public void testBuilderIsLeftAlone() {
+        GsonBuilder builder = new GsonBuilder();
+        Gson first = EntityAccessors.createGson(builder, true);
+        Gson second = EntityAccessors.createGson(builder, true);
+        Assert.assertEquals(first.toJson(model()), second.toJson(model()));
+        Assert.assertFalse(builder.create().getAdapter(Model.class).getClass().getName()
+                .endsWith(EntityAccessors.SUFFIX + "$Adapter"));
+
+        Gson reflective = EntityAccessors.createGson(builder, false);
+        Assert.assertFalse(reflective.getAdapter(Model.class).getClass().getName()
+                .endsWith(EntityAccessors.SUFFIX + "$Adapter"));
+    }
+
+}
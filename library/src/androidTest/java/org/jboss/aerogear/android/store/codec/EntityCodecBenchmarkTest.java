@@ -0,0 +1,120 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.codec;
+
+import android.content.Context;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import com.google.gson.Gson;
+
+import org.jboss.aerogear.android.store.DataManager;
+import org.jboss.aerogear.android.store.helper.Data;
+import org.jboss.aerogear.android.store.sql.EncryptedSQLStore;
+import org.jboss.aerogear.android.store.sql.EncryptedSQLStoreConfiguration;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static android.support.test.InstrumentationRegistry.getContext;
+
+/**
+ * Compares {@link GsonCodec}, {@link BinaryCodec} and the JSON text round
+ * trip the encrypted stores used before codecs, on their own and behind
+ * an {@link EncryptedSQLStore}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EntityCodecBenchmarkTest {
+
+    private static final String TAG = EntityCodecBenchmarkTest.class.getSimpleName();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int RECORDS = 5000;
+
+    private final Gson gson = new Gson();
+
+    private List<Data> items() {
+        List<Data> items = new ArrayList<Data>(RECORDS);
+        for (int i = 1; i <= RECORDS; i++) {
+            items.add(new Data(i, "name " + i, "description of the item number " + i, i % 2 == 0));
+        }
+        return items;
+    }
+
+    @Test
+    public void benchmarkEncodeDecode() {
+        List<Data> items = items();
+
+        long start = System.nanoTime();
+        long bytes = 0;
+        for (Data item : items) {
+            byte[] data = gson.toJson(item, Data.class).getBytes(UTF_8);
+            bytes += data.length;
+            Assert.assertEquals(item.getId(), gson.fromJson(new String(data, UTF_8), Data.class).getId());
+        }
+        Log.i(TAG, String.format("JSON text of %d items: %d ms, %d bytes",
+                RECORDS, (System.nanoTime() - start) / 1000000, bytes));
+
+        for (EntityCodec codec : new EntityCodec[]{new GsonCodec(), new BinaryCodec()}) {
+            start = System.nanoTime();
+            bytes = 0;
+            for (Data item : items) {
+                byte[] data = codec.encode(gson, item, Data.class);
+                bytes += data.length;
+                Assert.assertEquals(item.getId(), codec.decode(gson, data, Data.class).getId());
+            }
+            Log.i(TAG, String.format("%s of %d items: %d ms, %d bytes", codec.getClass().getSimpleName(),
+                    RECORDS, (System.nanoTime() - start) / 1000000, bytes));
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void benchmarkEncryptedStore() {
+        List<Data> items = items();
+        for (EntityCodec codec : new EntityCodec[]{new GsonCodec(), new BinaryCodec()}) {
+            Context context = new RenamingDelegatingContext(getContext(), UUID.randomUUID().toString());
+            EncryptedSQLStore<Data> store = (EncryptedSQLStore<Data>) DataManager
+                    .config("codecBenchmark" + codec.getClass().getSimpleName(), EncryptedSQLStoreConfiguration.class)
+                    .withContext(context)
+                    .usingPassphrase("AeroGear")
+                    .withCodec(codec)
+                    .store(Data.class);
+            store.openSync();
+            try {
+                long start = System.nanoTime();
+                store.save(items);
+                long saveNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                Assert.assertEquals(RECORDS, store.readAll().size());
+                long readNanos = System.nanoTime() - start;
+
+                Log.i(TAG, String.format("%s behind EncryptedSQLStore, %d items: save %d ms, readAll %d ms",
+                        codec.getClass().getSimpleName(), RECORDS, saveNanos / 1000000, readNanos / 1000000));
+            } finally {
+                store.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.codec;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import org.jboss.aerogear.android.store.helper.Data;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(AndroidJUnit4.class)
+public class EntityCodecTest {
+
+    private static final EntityCodec[] CODECS = {new GsonCodec(), new BinaryCodec()};
+
+    private final Gson gson = new Gson();
+
+    public static class Sample {
+
+        String text;
+        int small;
+        long large;
+        double ratio;
+        float single;
+        Boolean flag;
+        BigDecimal exact;
+        Data nested;
+        List<Data> items;
+        List<String> tags;
+        Map<String, Integer> counts;
+        String missing;
+
+    }
+
+    private Sample sample() {
+        Sample sample = new Sample();
+        sample.text = "caf\u00e9 \u65e5\u672c \ud83d\ude00 \u0000 end";
+        sample.small = -42;
+        sample.large = Long.MIN_VALUE;
+        sample.ratio = 0.1;
+        sample.single = 1.1f;
+        sample.flag = Boolean.TRUE;
+        sample.exact = new BigDecimal("12345678901234567890.000000000001");
+        sample.nested = new Data(1, "nested", "a nested entity", true);
+        sample.items = Arrays.asList(new Data(2, "first", "one"), new Data(3, "second", null));
+        sample.tags = Arrays.asList("a", "", "c");
+        sample.counts = new LinkedHashMap<String, Integer>();
+        sample.counts.put("name", 1);
+        sample.counts.put("text", 2);
+        return sample;
+    }
+
+    @Test
+    public void testEntityRoundTrip() {
+        String expected = gson.toJson(sample());
+        for (EntityCodec codec : CODECS) {
+            byte[] data = codec.encode(gson, sample(), Sample.class);
+            Sample decoded = codec.decode(gson, data, Sample.class);
+            Assert.assertEquals(codec.getClass().getSimpleName(), expected, gson.toJson(decoded));
+            Assert.assertNull(decoded.missing);
+            Assert.assertEquals(Long.MIN_VALUE, decoded.large);
+            Assert.assertEquals(1.1f, decoded.single, 0f);
+        }
+    }
+
+    @Test
+    public void testTreeRoundTrip() {
+        JsonElement tree = new JsonParser().parse("{\"a\":[1,-1,2.5,1e300,null,true,false,\"x\"],"
+                + "\"b\":{\"a\":{},\"c\":[]},\"c\":[{\"a\":1},{\"a\":2}],\"n\":null,"
+                + "\"big\":123456789012345678901234567890}");
+        for (EntityCodec codec : CODECS) {
+            Assert.assertEquals(codec.getClass().getSimpleName(), tree, codec.decodeTree(codec.encodeTree(tree)));
+        }
+    }
+
+    @Test
+    public void testTreeAndEntityEncodingsAreInterchangeable() {
+        for (EntityCodec codec : CODECS) {
+            byte[] fromEntity = codec.encode(gson, sample(), Sample.class);
+            byte[] fromTree = codec.encodeTree(gson.toJsonTree(sample(), Sample.class));
+            Assert.assertEquals(gson.toJson(codec.decodeTree(fromEntity)), gson.toJson(codec.decodeTree(fromTree)));
+        }
+    }
+
+    @Test
+    public void testSerializeNulls() {
+        Gson nulls = new GsonBuilder().serializeNulls().create();
+        for (EntityCodec codec : CODECS) {
+            JsonElement tree = codec.decodeTree(codec.encode(nulls, sample(), Sample.class));
+            Assert.assertTrue(tree.getAsJsonObject().has("missing"));
+            Assert.assertTrue(tree.getAsJsonObject().get("missing").isJsonNull());
+
+            tree = codec.decodeTree(codec.encode(gson, sample(), Sample.class));
+            Assert.assertFalse(tree.getAsJsonObject().has("missing"));
+        }
+    }
+
+    @Test
+    public void testBinaryIsSmallerThanJson() {
+        byte[] json = new GsonCodec().encode(gson, sample(), Sample.class);
+        byte[] binary = new BinaryCodec().encode(gson, sample(), Sample.class);
+        Assert.assertTrue(binary.length + " >= " + json.length, binary.length < json.length);
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void testBinaryRejectsJson() {
+        new BinaryCodec().decodeTree(new GsonCodec().encode(gson, sample(), Sample.class));
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void testBinaryRejectsTruncatedData() {
+        byte[] data = new BinaryCodec().encode(gson, sample(), Sample.class);
+        new BinaryCodec().decodeTree(Arrays.copyOf(data, data.length - 3));
+    }
+
+}
@@ -21,6 +21,8 @@ import android.support.test.runner.AndroidJUnit4;
 import android.test.RenamingDelegatingContext;
 
 import org.jboss.aerogear.android.core.ReadFilter;
+import org.jboss.aerogear.android.security.EncryptionService;
+import org.jboss.aerogear.android.store.CloseableIterator;
 import org.jboss.aerogear.android.store.DataManager;
 import org.jboss.aerogear.android.store.Store;
 import org.jboss.aerogear.android.store.generator.StubIdGenerator;
@@ -99,6 +101,26 @@ public class EncryptedMemoryStoreTest {
         Assert.assertEquals("datas should 2 data", 2, datas.size());
     }
 
+    @Test
+    public void testIterator() {
+        store.save(new Data("foo", "desc of foo"));
+        store.save(new Data("bar", "desc of bar"));
+
+        List<String> names = new ArrayList<String>();
+        CloseableIterator<Data> iterator = store.iterator();
+        try {
+            while (iterator.hasNext()) {
+                names.add(iterator.next().getName());
+            }
+        } finally {
+            iterator.close();
+        }
+
+        Assert.assertEquals(2, names.size());
+        Assert.assertTrue(names.contains("foo"));
+        Assert.assertTrue(names.contains("bar"));
+    }
+
     @Test(expected = UnsupportedOperationException.class)
     public void testReadWithFilter() {
         store.readWithFilter(new ReadFilter());
@@ -199,4 +221,38 @@ public class EncryptedMemoryStoreTest {
         Assert.assertEquals("Should have " + items.size() + " items", items.size(), store.readAll().size());
     }
 
+    @Test
+    public void testCustomEncryptionService() {
+        final int[] calls = new int[2];
+        EncryptionService reversing = new EncryptionService() {
+            @Override
+            public byte[] encrypt(byte[] iv, byte[] message) {
+                calls[0]++;
+                return reverse(message);
+            }
+
+            @Override
+            public byte[] decrypt(byte[] iv, byte[] message) {
+                calls[1]++;
+                return reverse(message);
+            }
+
+            private byte[] reverse(byte[] message) {
+                byte[] result = new byte[message.length];
+                for (int i = 0; i < message.length; i++) {
+                    result[i] = message[message.length - 1 - i];
+                }
+                return result;
+            }
+        };
+        Store<Data> customStore = DataManager.config("customEncryption", EncryptedMemoryStoreConfiguration.class)
+                .withEncryptionService(reversing)
+                .store(Data.class);
+
+        customStore.save(new Data(1, "name", "description"));
+        Assert.assertEquals(new Data(1, "name", "description"), customStore.read(1));
+        Assert.assertEquals(1, calls[0]);
+        Assert.assertEquals(1, calls[1]);
+    }
+
 }
@@ -21,6 +21,7 @@ import android.support.test.runner.AndroidJUnit4;
 import org.jboss.aerogear.android.core.ReadFilter;
 import org.jboss.aerogear.android.core.reflection.PropertyNotFoundException;
 import org.jboss.aerogear.android.core.reflection.RecordIdNotFoundException;
+import org.jboss.aerogear.android.store.CloseableIterator;
 import org.jboss.aerogear.android.store.Store;
 import org.jboss.aerogear.android.store.generator.StubIdGenerator;
 import org.jboss.aerogear.android.store.helper.Data;
@@ -34,6 +35,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
@@ -59,6 +61,26 @@ public class MemoryStoreTest {
         Assert.assertEquals("datas should 2 data", 2, datas.size());
     }
 
+    @Test
+    public void testIterator() {
+        store.save(new Data("foo", "desc of foo"));
+        store.save(new Data("bar", "desc of bar"));
+
+        List<String> names = new ArrayList<String>();
+        CloseableIterator<Data> iterator = store.iterator();
+        try {
+            while (iterator.hasNext()) {
+                names.add(iterator.next().getName());
+            }
+        } finally {
+            iterator.close();
+        }
+
+        Assert.assertEquals(2, names.size());
+        Assert.assertTrue(names.contains("foo"));
+        Assert.assertTrue(names.contains("bar"));
+    }
+
     @Test
     public void testReadWithFilter() {
         store.save(new Data("foo", "desc of foo"));
@@ -102,6 +124,38 @@ public class MemoryStoreTest {
         Assert.assertEquals("bar", datas.iterator().next().getName());
     }
 
+    @Test
+    public void testCount() throws JSONException {
+        store.save(new Data("foo", "desc of foo"));
+        store.save(new Data("bar", "desc of bar"));
+        store.save(new Data("bar", "other desc of bar"));
+        Assert.assertEquals(3, store.count());
+
+        ReadFilter filter = new ReadFilter();
+        filter.setWhere(new JSONObject("{\"name\":\"bar\"}"));
+        Assert.assertEquals(2, store.count(filter));
+        filter.setOffset(1);
+        Assert.assertEquals(1, store.count(filter));
+    }
+
+    @Test
+    public void testFilterWithoutLimitOrOffset() throws JSONException {
+        store.save(new Data("foo", "desc of foo"));
+        store.save(new Data("bar", "desc of bar"));
+        store.save(new Data("bar", "other desc of bar"));
+
+        ReadFilter filter = new ReadFilter();
+        filter.setWhere(new JSONObject("{\"name\":\"bar\"}"));
+        filter.setLimit(null);
+        filter.setOffset(null);
+        Assert.assertEquals(2, store.count(filter));
+        Assert.assertEquals(2, store.readWithFilter(filter).size());
+
+        store.removeWithFilter(filter);
+        Assert.assertEquals(1, store.count());
+        Assert.assertEquals("foo", store.read(1).getName());
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testReadWithFilterThrowsExceptionWithNestingJSON() throws JSONException {
 
@@ -176,6 +230,24 @@ public class MemoryStoreTest {
         Assert.assertNull("bar should be null", bar);
     }
 
+    @Test
+    public void testRemoveCollectionAndWithFilter() throws JSONException {
+        store.save(new Data("foo", "desc of foo"));
+        store.save(new Data("bar", "desc of bar"));
+        store.save(new Data("bar", "other desc of bar"));
+        store.save(new Data("baz", "desc of baz"));
+
+        store.remove(Arrays.asList(1, 42));
+        Assert.assertNull(store.read(1));
+        Assert.assertEquals(3, store.count());
+
+        ReadFilter filter = new ReadFilter();
+        filter.setWhere(new JSONObject("{\"name\":\"bar\"}"));
+        store.removeWithFilter(filter);
+        Assert.assertEquals(1, store.count());
+        Assert.assertEquals("baz", store.read(4).getName());
+    }
+
     @Test
     public void testRemove() {
         store.save(new Data("foo", "desc of foo"));
@@ -0,0 +1,217 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.metrics;
+
+import android.content.Context;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+
+import org.jboss.aerogear.android.core.ReadFilter;
+import org.jboss.aerogear.android.store.DataManager;
+import org.jboss.aerogear.android.store.Store;
+import org.jboss.aerogear.android.store.helper.Data;
+import org.jboss.aerogear.android.store.memory.EncryptedMemoryStoreConfiguration;
+import org.jboss.aerogear.android.store.memory.MemoryStoreConfiguration;
+import org.jboss.aerogear.android.store.sql.SQLStore;
+import org.jboss.aerogear.android.store.sql.SQLStoreConfiguration;
+import org.jboss.aerogear.android.store.sql.StorageMode;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static android.support.test.InstrumentationRegistry.getContext;
+
+@RunWith(AndroidJUnit4.class)
+public class StoreMetricsTest {
+
+    private Context context;
+
+    private static final class RecordedOperation {
+
+        final String storeName;
+        final StoreOperation operation;
+        final long rows;
+        final long bytes;
+        final long cacheHits;
+
+        RecordedOperation(String storeName, StoreOperation operation, long rows, long bytes, long cacheHits) {
+            this.storeName = storeName;
+            this.operation = operation;
+            this.rows = rows;
+            this.bytes = bytes;
+            this.cacheHits = cacheHits;
+        }
+    }
+
+    private static final class RecordingMetrics implements StoreMetrics {
+
+        final List<RecordedOperation> operations = new ArrayList<RecordedOperation>();
+
+        @Override
+        public void onOperation(String storeName, StoreOperation operation, long latencyNanos, long rows,
+                                long bytes, long cacheHits) {
+            Assert.assertTrue(latencyNanos >= 0);
+            operations.add(new RecordedOperation(storeName, operation, rows, bytes, cacheHits));
+        }
+
+        RecordedOperation last() {
+            return operations.get(operations.size() - 1);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    @Before
+    public void setUp() {
+        this.context = new RenamingDelegatingContext(getContext(), UUID.randomUUID().toString());
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1000000, histogram.getMax());
+        Assert.assertEquals(500500, histogram.getMean(), 0.001);
+        assertWithin(500000, histogram.getValueAtPercentile(50));
+        assertWithin(990000, histogram.getValueAtPercentile(99));
+        Assert.assertEquals(1000000, histogram.getValueAtPercentile(100));
+
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        long previous = -1;
+        for (long value : new long[]{0, 1, 7, 8, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE / 3, Long.MAX_VALUE}) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            long highest = LatencyHistogram.highestValueOf(bucket);
+            Assert.assertTrue(value + " above " + highest, value <= highest);
+            Assert.assertTrue(value + " too far from " + highest, highest - value <= value / LatencyHistogram.SUB_BUCKETS);
+            Assert.assertTrue(highest >= previous);
+            previous = highest;
+        }
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        Assert.assertTrue(actual + " not within 12.5% of " + expected,
+                actual >= expected && actual <= expected + expected / LatencyHistogram.SUB_BUCKETS);
+    }
+
+    @Test
+    public void testMemoryStoreReportsEveryOperationOnce() throws Exception {
+        RecordingMetrics metrics = new RecordingMetrics();
+        Store<Data> store = DataManager.config("metricsMemoryStore", MemoryStoreConfiguration.class)
+                .setStoreMetrics(metrics)
+                .store(Data.class);
+
+        store.save(Arrays.asList(new Data(1, "a", "first"), new Data(2, "b", "second")));
+        Assert.assertEquals(1, metrics.operations.size());
+        Assert.assertEquals("metricsMemoryStore", metrics.last().storeName);
+        Assert.assertEquals(StoreOperation.SAVE, metrics.last().operation);
+        Assert.assertEquals(2, metrics.last().rows);
+
+        store.read(1);
+        Assert.assertEquals(StoreOperation.READ, metrics.last().operation);
+        Assert.assertEquals(1, metrics.last().rows);
+
+        ReadFilter filter = new ReadFilter();
+        filter.setWhere(new JSONObject("{\"name\":\"b\"}"));
+        store.readWithFilter(filter);
+        Assert.assertEquals(StoreOperation.READ_WITH_FILTER, metrics.last().operation);
+        Assert.assertEquals(1, metrics.last().rows);
+
+        store.count();
+        Assert.assertEquals(StoreOperation.COUNT, metrics.last().operation);
+        Assert.assertEquals(2, metrics.last().rows);
+
+        store.remove(Arrays.asList(1, 2));
+        Assert.assertEquals(StoreOperation.REMOVE, metrics.last().operation);
+        Assert.assertEquals(5, metrics.operations.size());
+    }
+
+    @Test
+    public void testSQLStoreReportsBytesAndCacheHits() {
+        RecordingMetrics metrics = new RecordingMetrics();
+        SQLStore<Data> store = (SQLStore<Data>) DataManager.config("metricsSQLStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withStorageMode(StorageMode.DOCUMENT)
+                .withEntityCache(10)
+                .setStoreMetrics(metrics)
+                .store(Data.class);
+        store.openSync();
+
+        store.save(new Data(1, "name", "description"));
+        RecordedOperation save = metrics.last();
+        Assert.assertEquals(StoreOperation.SAVE, save.operation);
+        Assert.assertEquals(1, save.rows);
+        Assert.assertTrue(save.bytes > 0);
+
+        store.read(1);
+        Assert.assertEquals(save.bytes, metrics.last().bytes);
+        Assert.assertEquals(0, metrics.last().cacheHits);
+
+        store.read(1);
+        Assert.assertEquals(0, metrics.last().bytes);
+        Assert.assertEquals(1, metrics.last().cacheHits);
+
+        store.count(new ReadFilter());
+        Assert.assertEquals(StoreOperation.COUNT, metrics.last().operation);
+        Assert.assertEquals(1, metrics.last().rows);
+        Assert.assertEquals(4, metrics.operations.size());
+        store.close();
+    }
+
+    @Test
+    public void testHistogramMetricsDump() {
+        HistogramMetrics metrics = new HistogramMetrics();
+        Store<Data> store = DataManager.config("histogramStore", EncryptedMemoryStoreConfiguration.class)
+                .withContext(context)
+                .usingPassword("AeroGear")
+                .setStoreMetrics(metrics)
+                .store(Data.class);
+
+        for (int i = 1; i <= 10; i++) {
+            store.save(new Data(i, "name", "description"));
+        }
+        store.readAll();
+
+        Assert.assertEquals(10, metrics.getLatencies(StoreOperation.SAVE).getCount());
+        Assert.assertEquals(10, metrics.getRows(StoreOperation.READ_ALL));
+        Assert.assertEquals(metrics.getBytes(StoreOperation.SAVE), metrics.getBytes(StoreOperation.READ_ALL));
+        String dump = metrics.dump();
+        Assert.assertTrue(dump, dump.startsWith("read_all: 1 calls"));
+        Assert.assertTrue(dump, dump.contains("save: 10 calls"));
+        Assert.assertFalse(dump, dump.contains("remove"));
+
+        metrics.reset();
+        Assert.assertEquals("", metrics.dump());
+        Assert.assertEquals(0, metrics.getBytes(StoreOperation.SAVE));
+    }
+
+}
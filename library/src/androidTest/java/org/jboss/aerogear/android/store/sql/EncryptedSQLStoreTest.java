@@ -23,9 +23,12 @@ import android.support.test.runner.AndroidJUnit4;
 import android.test.RenamingDelegatingContext;
 
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
 
+import org.jboss.aerogear.android.store.CloseableIterator;
 import org.jboss.aerogear.android.store.DataManager;
 import org.jboss.aerogear.android.store.Store;
+import org.jboss.aerogear.android.store.codec.BinaryCodec;
 import org.jboss.aerogear.android.store.generator.DefaultIdGenerator;
 import org.jboss.aerogear.android.store.helper.Data;
 import org.junit.After;
@@ -35,8 +38,10 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 
 import static org.junit.Assert.assertFalse;
@@ -136,6 +141,26 @@ public class EncryptedSQLStoreTest {
         Assert.assertEquals("Store should have 10 elements", 10, store.readAll().size());
     }
 
+    @Test
+    public void testIterator() {
+        for (int i = 1; i <= 10; i++) {
+            store.save(new Data(i, "name " + i, "description " + i));
+        }
+
+        int count = 0;
+        CloseableIterator<Data> iterator = store.iterator();
+        try {
+            while (iterator.hasNext()) {
+                Assert.assertTrue(iterator.next().getName().startsWith("name "));
+                count++;
+            }
+        } finally {
+            iterator.close();
+        }
+
+        Assert.assertEquals("Iterator should walk 10 elements", 10, count);
+    }
+
     @Test
     public void testRead() {
         Data data = new Data(10, "name", "description");
@@ -155,6 +180,153 @@ public class EncryptedSQLStoreTest {
         Assert.assertEquals("Store should have 1 elements", 1, store.readAll().size());
     }
 
+    @Test
+    public void testSaveWithWriteAheadLogging() {
+        EncryptedSQLStore<Data> walStore = (EncryptedSQLStore<Data>) DataManager
+                .config("walStore", EncryptedSQLStoreConfiguration.class)
+                .withContext(context)
+                .usingPassphrase("AeroGear")
+                .withWriteAheadLogging(true)
+                .withSynchronousMode(SynchronousMode.NORMAL)
+                .store(Data.class);
+        walStore.openSync();
+
+        walStore.save(new Data(10, "name", "description"));
+        walStore.checkpoint();
+
+        Assert.assertEquals("Store should have 1 elements", 1, walStore.readAll().size());
+        Assert.assertTrue(walStore.getWritableDatabase().isWriteAheadLoggingEnabled());
+        walStore.close();
+    }
+
+    @Test
+    public void testSaveWithWriteBehind() {
+        EncryptedSQLStore<Data> bufferedStore = (EncryptedSQLStore<Data>) DataManager
+                .config("bufferedStore", EncryptedSQLStoreConfiguration.class)
+                .withContext(context)
+                .usingPassphrase("AeroGear")
+                .withWriteBehind(100, 1, TimeUnit.HOURS)
+                .store(Data.class);
+        bufferedStore.openSync();
+
+        bufferedStore.save(new Data(10, "name", "description"));
+        bufferedStore.save(new Data(10, "renamed", "description"));
+        Assert.assertEquals("renamed", bufferedStore.read(10).getName());
+
+        bufferedStore.flush();
+        Assert.assertEquals("Store should have 1 elements", 1, bufferedStore.readAll().size());
+        Assert.assertEquals("renamed", bufferedStore.read(10).getName());
+        bufferedStore.close();
+    }
+
+    @Test
+    public void testSchemaMigration() throws InterruptedException {
+        store.openSync();
+        for (int i = 1; i <= 12; i++) {
+            store.save(new Data(i, "name" + i, "description"));
+        }
+        store.close();
+
+        EncryptedSQLStore<Data> migratedStore = (EncryptedSQLStore<Data>) DataManager
+                .config("migratedStore", EncryptedSQLStoreConfiguration.class)
+                .withContext(context)
+                .usingPassphrase("AeroGear")
+                .withSchemaVersion(2, new Migration() {
+                    @Override
+                    public int getVersion() {
+                        return 2;
+                    }
+
+                    @Override
+                    public JsonObject migrate(JsonObject entity) {
+                        entity.addProperty("description", entity.get("description").getAsString() + " v2");
+                        return entity;
+                    }
+                })
+                .withMigrationChunkSize(5)
+                .store(Data.class);
+        migratedStore.openSync();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (migratedStore.isMigrating() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(2, migratedStore.getSchemaVersion());
+        for (Data data : migratedStore.readAll()) {
+            Assert.assertEquals("description v2", data.getDescription());
+        }
+        migratedStore.close();
+    }
+
+    @Test
+    public void testWarmUp() {
+        for (int i = 1; i <= 4; i++) {
+            store.save(new Data(i, "name" + i, "description"));
+        }
+        store.close();
+
+        EncryptedSQLStore<Data> warmStore = (EncryptedSQLStore<Data>) DataManager
+                .config("warmStore", EncryptedSQLStoreConfiguration.class)
+                .withContext(context)
+                .usingPassphrase("AeroGear")
+                .withWarmUp(2)
+                .store(Data.class);
+        warmStore.openSync();
+        WarmUpReport report = warmStore.getWarmUpReport();
+        Assert.assertNotNull(report);
+        Assert.assertEquals(2, report.getPreloadedEntities());
+        Assert.assertEquals(new Data(4, "name4", "description"), warmStore.read(4));
+        warmStore.close();
+    }
+
+    @Test
+    public void testBinaryCodec() throws InterruptedException {
+        EncryptedSQLStore<Data> binaryStore = (EncryptedSQLStore<Data>) DataManager
+                .config("binaryStore", EncryptedSQLStoreConfiguration.class)
+                .withContext(context)
+                .usingPassphrase("AeroGear")
+                .withCodec(new BinaryCodec())
+                .store(Data.class);
+        binaryStore.openSync();
+        for (int i = 1; i <= 7; i++) {
+            binaryStore.save(new Data(i, "name" + i, "description", i % 2 == 0));
+        }
+        Assert.assertEquals(new Data(4, "name4", "description", true), binaryStore.read(4));
+        Assert.assertEquals(7, binaryStore.readAll().size());
+        binaryStore.close();
+
+        EncryptedSQLStore<Data> migratedStore = (EncryptedSQLStore<Data>) DataManager
+                .config("binaryMigratedStore", EncryptedSQLStoreConfiguration.class)
+                .withContext(context)
+                .usingPassphrase("AeroGear")
+                .withCodec(new BinaryCodec())
+                .withSchemaVersion(2, new Migration() {
+                    @Override
+                    public int getVersion() {
+                        return 2;
+                    }
+
+                    @Override
+                    public JsonObject migrate(JsonObject entity) {
+                        entity.addProperty("description", entity.get("description").getAsString() + " v2");
+                        return entity;
+                    }
+                })
+                .withMigrationChunkSize(3)
+                .store(Data.class);
+        migratedStore.openSync();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (migratedStore.isMigrating() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(2, migratedStore.getSchemaVersion());
+        for (Data data : migratedStore.readAll()) {
+            Assert.assertEquals("description v2", data.getDescription());
+        }
+        migratedStore.close();
+    }
+
     @Test
     public void testReset() {
         Data data = new Data(10, "name", "description");
@@ -175,6 +347,17 @@ public class EncryptedSQLStoreTest {
         Assert.assertEquals("Store should have 9 elements", 9, store.readAll().size());
     }
 
+    @Test
+    public void testRemoveCollection() {
+        for (int i = 1; i <= 10; i++) {
+            store.save(new Data(i, "name " + i, "description " + i));
+        }
+
+        store.remove(Arrays.asList(1, 2, 3, 42));
+        Assert.assertEquals(7, store.count());
+        Assert.assertNull(store.read(2));
+    }
+
     @Test
     public void testIsEmpty() {
         assertTrue("Store can empty", store.isEmpty());
@@ -0,0 +1,163 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.sql;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import org.jboss.aerogear.android.store.helper.Data;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static android.support.test.InstrumentationRegistry.getContext;
+
+/**
+ * Compares the bulk write path of {@link SQLStore} with the statement per
+ * property, transaction per item strategy it replaced.
+ *
+ * The speedup is only logged, timings on a shared device or emulator are
+ * too noisy to assert on; the tests check that both paths stored the same
+ * data.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SQLStoreBenchmarkTest {
+
+    private static final String TAG = SQLStoreBenchmarkTest.class.getSimpleName();
+    private static final int RECORDS = 5000;
+    private static final int WARM_UP_RECORDS = 500;
+
+    private Context context;
+    private SQLStore<Data> store;
+
+    @SuppressWarnings("deprecation")
+    @Before
+    public void setUp() {
+        this.context = new RenamingDelegatingContext(getContext(), UUID.randomUUID().toString());
+        this.store = new SQLStore<Data>(Data.class, context);
+        this.store.openSync();
+    }
+
+    @After
+    public void tearDown() {
+        this.store.close();
+    }
+
+    @Test
+    public void benchmarkSaveCollection() {
+        List<Data> items = new ArrayList<Data>(RECORDS);
+        for (int i = 1; i <= RECORDS; i++) {
+            items.add(new Data(i, "name " + i, "description " + i, i % 2 == 0));
+        }
+
+        SQLiteDatabase database = store.getWritableDatabase();
+        // The schema and indexes of the real property table
+        database.execSQL("create table if not exists Legacy_property "
+                + " ( _ID integer primary key autoincrement,"
+                + "  PARENT_ID text not null,"
+                + "  PROPERTY_NAME text not null,"
+                + "  PROPERTY_VALUE )");
+        database.execSQL("create index if not exists Legacy_property_name_index ON Legacy_property (PROPERTY_NAME)");
+        database.execSQL("create index if not exists Legacy_property_name_value_index "
+                + "ON Legacy_property (PROPERTY_NAME, PROPERTY_VALUE)");
+        database.execSQL("create index if not exists Legacy_property_parent_index ON Legacy_property (PARENT_ID)");
+
+        // Untimed, so neither path pays for class loading and the JIT
+        legacySave(database, items.subList(0, WARM_UP_RECORDS));
+        store.save(items.subList(0, WARM_UP_RECORDS));
+        database.execSQL("delete from Legacy_property");
+        store.reset();
+
+        long start = System.nanoTime();
+        legacySave(database, items);
+        long legacyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        store.save(items);
+        long batchNanos = System.nanoTime() - start;
+
+        Log.i(TAG, String.format("save(Collection) of %d items: legacy %d ms, compiled batch %d ms (%.1fx)",
+                RECORDS, legacyNanos / 1000000, batchNanos / 1000000, (double) legacyNanos / batchNanos));
+
+        Assert.assertEquals(RECORDS, store.readAll().size());
+        Assert.assertEquals(RECORDS, countRows(database, "select count(distinct PARENT_ID) from Legacy_property"));
+        Assert.assertEquals(countRows(database, "select count(*) from Legacy_property"),
+                            countRows(database, "select count(*) from Data_property"));
+        Assert.assertEquals("name " + RECORDS, store.read(RECORDS).getName());
+    }
+
+    private static long countRows(SQLiteDatabase database, String sql) {
+        Cursor cursor = database.rawQuery(sql, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Writes the items the way SQLStore used to: the insert is formatted and
+     * parsed again for every property and every item opens its own nested
+     * transaction. The stored rows of every item are deleted first, the way
+     * the old store replaced an entity, so both paths do the work of an
+     * upsert.
+     */
+    private void legacySave(SQLiteDatabase database, List<Data> items) {
+        Gson gson = new Gson();
+        database.beginTransaction();
+        try {
+            for (Data item : items) {
+                JsonObject serialized = (JsonObject) gson.toJsonTree(item, Data.class);
+                database.beginTransaction();
+                try {
+                    database.execSQL(String.format("delete from %s_property where PARENT_ID = ?", "Legacy"),
+                                     new Object[]{item.getId()});
+                    for (Map.Entry<String, JsonElement> member : serialized.entrySet()) {
+                        String sql = String.format("insert into %s_property (PROPERTY_NAME, PROPERTY_VALUE, PARENT_ID) values (?,?,?)", "Legacy");
+                        JsonPrimitive primitive = member.getValue().getAsJsonPrimitive();
+                        Object value = primitive.isNumber() ? primitive.getAsNumber() : primitive.getAsString();
+                        database.execSQL(sql, new Object[]{member.getKey(), value, item.getId()});
+                    }
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+}
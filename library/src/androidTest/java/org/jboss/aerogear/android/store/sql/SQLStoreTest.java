@@ -17,15 +17,21 @@
 package org.jboss.aerogear.android.store.sql;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.os.StrictMode;
 import android.support.test.runner.AndroidJUnit4;
 import android.test.RenamingDelegatingContext;
 
+import com.google.gson.JsonObject;
+
 import org.jboss.aerogear.android.core.Callback;
 import org.jboss.aerogear.android.core.ReadFilter;
 import org.jboss.aerogear.android.core.RecordId;
+import org.jboss.aerogear.android.store.CloseableIterator;
 import org.jboss.aerogear.android.store.DataManager;
 import org.jboss.aerogear.android.store.Store;
+import org.jboss.aerogear.android.store.codec.BinaryCodec;
 import org.jboss.aerogear.android.store.helper.Data;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -37,6 +43,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -45,6 +52,7 @@ import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static android.support.test.InstrumentationRegistry.getContext;
 
@@ -163,6 +171,48 @@ public class SQLStoreTest {
         Assert.assertFalse(store.isEmpty());
     }
 
+    @Test
+    public void testIterator() throws InterruptedException, JSONException {
+        loadBulkData();
+
+        List<Data> allData = new ArrayList<Data>();
+        CloseableIterator<Data> iterator = store.iterator();
+        try {
+            while (iterator.hasNext()) {
+                allData.add(iterator.next());
+            }
+        } finally {
+            iterator.close();
+        }
+
+        Assert.assertFalse(iterator.hasNext());
+        Collections.sort(allData);
+        Assert.assertEquals(6, allData.size());
+        Assert.assertEquals("name", allData.get(0).getName());
+        Assert.assertEquals("name2", allData.get(5).getName());
+    }
+
+    @Test
+    public void testDocumentModeIterator() {
+        SQLStore<Data> documentStore = (SQLStore<Data>) DataManager
+                .config("documentIteratorStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withStorageMode(StorageMode.DOCUMENT)
+                .store(Data.class);
+        documentStore.openSync();
+        try {
+            documentStore.save(new Data(1, "name", "description"));
+            documentStore.save(new Data(2, "name2", "description"));
+
+            CloseableIterator<Data> iterator = documentStore.iterator();
+            Assert.assertEquals("name", iterator.next().getName());
+            iterator.close();
+            Assert.assertFalse(iterator.hasNext());
+        } finally {
+            documentStore.close();
+        }
+    }
+
     @Test
     public void testReadAll() throws InterruptedException, JSONException {
         loadBulkData();
@@ -215,6 +265,856 @@ public class SQLStoreTest {
 
     }
 
+    @Test
+    public void testFilterWithOperators() throws JSONException {
+        for (int i = 1; i <= 12; i++) {
+            store.save(new Data(i, "name" + (i % 3), "description"));
+        }
+
+        ReadFilter filter = new ReadFilter();
+        filter.setWhere(new JSONObject("{\"id\":{\"$gt\":2,\"$lte\":10}}"));
+        List<Data> result = store.readWithFilter(filter);
+        Assert.assertEquals(8, result.size());
+        for (Data data : result) {
+            Assert.assertTrue(data.getId() > 2 && data.getId() <= 10);
+        }
+
+        filter.setWhere(new JSONObject("{\"id\":{\"$lt\":3}}"));
+        Assert.assertEquals(2, store.readWithFilter(filter).size());
+
+        filter.setWhere(new JSONObject("{\"id\":{\"$gte\":9.5},\"name\":{\"$ne\":\"name0\"}}"));
+        result = store.readWithFilter(filter);
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals((Integer) 10, result.get(0).getId());
+        Assert.assertEquals((Integer) 11, result.get(1).getId());
+
+        filter.setWhere(new JSONObject("{\"name\":{\"$lt\":\"name1\"}}"));
+        Assert.assertEquals(4, store.readWithFilter(filter).size());
+    }
+
+    @Test
+    public void testCount() throws JSONException {
+        store.openSync();
+        Assert.assertEquals(0, store.count());
+        for (int i = 1; i <= 12; i++) {
+            store.save(new Data(i, "name" + (i % 3), "description"));
+        }
+        Assert.assertEquals(12, store.count());
+
+        ReadFilter filter = new ReadFilter();
+        filter.setWhere(new JSONObject("{\"id\":{\"$gt\":2,\"$lte\":10}}"));
+        Assert.assertEquals(8, store.count(filter));
+
+        filter.setLimit(5);
+        filter.setOffset(6);
+        Assert.assertEquals(2, store.count(filter));
+        Assert.assertEquals(store.readWithFilter(filter).size(), store.count(filter));
+    }
+
+    @Test
+    public void testDocumentModeCount() throws JSONException {
+        SQLStore<Data> documentStore = (SQLStore<Data>) DataManager
+                .config("documentCountStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withStorageMode(StorageMode.DOCUMENT)
+                .withIndexedProperties("id")
+                .store(Data.class);
+        documentStore.openSync();
+        for (int i = 1; i <= 12; i++) {
+            documentStore.save(new Data(i, "name" + (i % 3), "description"));
+        }
+        Assert.assertEquals(12, documentStore.count());
+
+        ReadFilter filter = new ReadFilter();
+        filter.setWhere(new JSONObject("{\"id\":{\"$gt\":2,\"$lte\":10}}"));
+        Assert.assertEquals(8, documentStore.count(filter));
+
+        filter.setWhere(new JSONObject("{\"name\":\"name1\"}"));
+        Assert.assertEquals(4, documentStore.count(filter));
+        filter.setLimit(3);
+        filter.setOffset(2);
+        Assert.assertEquals(2, documentStore.count(filter));
+        documentStore.close();
+    }
+
+    @Test
+    public void testRemoveCollectionAndWithFilter() throws JSONException {
+        SQLStore<Data> indexedStore = (SQLStore<Data>) DataManager
+                .config("removeStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withIndexedProperties("name")
+                .store(Data.class);
+        indexedStore.openSync();
+        List<Data> items = new ArrayList<Data>();
+        for (int i = 1; i <= 1200; i++) {
+            items.add(new Data(i, "name" + (i % 3), "description"));
+        }
+        indexedStore.save(items);
+
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int i = 1; i <= 600; i++) {
+            ids.add(i);
+        }
+        indexedStore.remove(ids);
+        Assert.assertEquals(600, indexedStore.count());
+        Assert.assertNull(indexedStore.read(600));
+
+        ReadFilter filter = new ReadFilter();
+        filter.setWhere(new JSONObject("{\"name\":\"name0\"}"));
+        indexedStore.removeWithFilter(filter);
+        Assert.assertEquals(0, indexedStore.count(filter));
+        Assert.assertEquals(400, indexedStore.count());
+        Assert.assertEquals(0, countRows(indexedStore, "select count(*) from Data_index where PROPERTY_VALUE = 'name0'"));
+
+        filter.setWhere(new JSONObject("{\"id\":{\"$gt\":1000}}"));
+        filter.setLimit(10);
+        indexedStore.removeWithFilter(filter);
+        Assert.assertEquals(390, indexedStore.count());
+        indexedStore.close();
+    }
+
+    @Test
+    public void testDocumentModeRemoveWithFilter() throws JSONException {
+        SQLStore<Data> documentStore = (SQLStore<Data>) DataManager
+                .config("documentRemoveStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withStorageMode(StorageMode.DOCUMENT)
+                .store(Data.class);
+        documentStore.openSync();
+        for (int i = 1; i <= 12; i++) {
+            documentStore.save(new Data(i, "name" + (i % 3), "description"));
+        }
+
+        ReadFilter filter = new ReadFilter();
+        filter.setWhere(new JSONObject("{\"name\":\"name1\"}"));
+        filter.setOffset(1);
+        documentStore.removeWithFilter(filter);
+        Assert.assertEquals(9, documentStore.count());
+        Assert.assertNotNull(documentStore.read(1));
+        documentStore.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFilterWithUnknownOperator() throws JSONException {
+        ReadFilter filter = new ReadFilter();
+        filter.setWhere(new JSONObject("{\"id\":{\"$in\":2}}"));
+        store.readWithFilter(filter);
+    }
+
+    @Test
+    public void testUpgradeStoresNumbersAsNumbers() throws InterruptedException, JSONException {
+        SQLiteDatabase legacy = context.openOrCreateDatabase("Data", Context.MODE_PRIVATE, null);
+        legacy.execSQL("create table Data_property ( _ID integer primary key autoincrement,"
+                + " PARENT_ID text not null, PROPERTY_NAME text not null, PROPERTY_VALUE text )");
+        legacy.execSQL("create table Data_document ( PARENT_ID text primary key, DOCUMENT text not null )");
+        for (int i = 1; i <= 12; i++) {
+            legacy.execSQL("insert into Data_property (PARENT_ID, PROPERTY_NAME, PROPERTY_VALUE) values (?, 'id', ?)",
+                           new Object[]{String.valueOf(i), String.valueOf(i)});
+            legacy.execSQL("insert into Data_property (PARENT_ID, PROPERTY_NAME, PROPERTY_VALUE) values (?, 'name', ?)",
+                           new Object[]{String.valueOf(i), "00" + i});
+        }
+        legacy.setVersion(3);
+        legacy.close();
+
+        store.openSync();
+        // Typed in the background, the store reads as before meanwhile
+        Assert.assertEquals("007", store.read(7).getName());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (store.isMigrating() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(store.isMigrating());
+
+        ReadFilter filter = new ReadFilter();
+        filter.setWhere(new JSONObject("{\"id\":{\"$gte\":10}}"));
+        Assert.assertEquals(3, store.readWithFilter(filter).size());
+        Assert.assertEquals("007", store.read(7).getName());
+        Assert.assertEquals(12, countRows(store,
+                "select count(*) from Data_property where PROPERTY_NAME = 'id' and typeof(PROPERTY_VALUE) = 'integer'"));
+        Assert.assertEquals(12, countRows(store,
+                "select count(*) from Data_property where PROPERTY_NAME = 'name' and typeof(PROPERTY_VALUE) = 'text'"));
+    }
+
+    @Test
+    public void testFilterOnBooleansAndNumbersGivenAsStrings() throws JSONException {
+        store.openSync();
+        store.save(new Data(30, "enabled", "description", true));
+        store.save(new Data(31, "disabled", "description", false));
+
+        // Booleans are stored as text, numbers with their storage class
+        Assert.assertEquals(2, countRows(store,
+                "select count(*) from Data_property where PROPERTY_NAME = 'enable' and typeof(PROPERTY_VALUE) = 'text'"));
+
+        ReadFilter filter = new ReadFilter();
+        filter.setWhere(new JSONObject().put("enable", true));
+        List<Data> enabled = store.readWithFilter(filter);
+        Assert.assertEquals(1, enabled.size());
+        Assert.assertEquals("enabled", enabled.get(0).getName());
+
+        filter.setWhere(new JSONObject().put("id", 30));
+        Assert.assertEquals(1, store.readWithFilter(filter).size());
+        filter.setWhere(new JSONObject().put("id", "30"));
+        Assert.assertEquals(0, store.readWithFilter(filter).size());
+    }
+
+    @Test
+    public void testDocumentModeFilterWithOperators() throws JSONException {
+        SQLStore<Data> documentStore = (SQLStore<Data>) DataManager
+                .config("documentOperatorStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withStorageMode(StorageMode.DOCUMENT)
+                .store(Data.class);
+        documentStore.openSync();
+        for (int i = 1; i <= 12; i++) {
+            documentStore.save(new Data(i, "name" + (i % 3), "description"));
+        }
+
+        ReadFilter filter = new ReadFilter();
+        filter.setWhere(new JSONObject("{\"id\":{\"$gt\":2,\"$lte\":10},\"name\":{\"$ne\":\"name0\"}}"));
+        Assert.assertEquals(5, documentStore.readWithFilter(filter).size());
+        documentStore.close();
+    }
+
+    @Test
+    public void testFilterOnIndexedProperty() throws JSONException {
+        SQLStore<Data> indexedStore = (SQLStore<Data>) DataManager
+                .config("indexedStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withIndexedProperties("name")
+                .store(Data.class);
+        indexedStore.openSync();
+        for (int i = 1; i <= 6; i++) {
+            indexedStore.save(new Data(i, "name" + (i % 2), "description"));
+        }
+
+        ReadFilter filter = new ReadFilter();
+        filter.setWhere(new JSONObject("{\"name\":\"name1\",\"description\":\"description\"}"));
+        Assert.assertEquals(3, indexedStore.readWithFilter(filter).size());
+
+        indexedStore.save(new Data(1, "renamed", "description"));
+        indexedStore.remove(3);
+        Assert.assertEquals(1, indexedStore.readWithFilter(filter).size());
+        Assert.assertEquals(5, countRows(indexedStore, "select count(*) from Data_index"));
+        indexedStore.close();
+    }
+
+    @Test
+    public void testDeclaredIndexIsBackfilledAndDropped() throws InterruptedException, JSONException {
+        store.openSync();
+        for (int i = 1; i <= 6; i++) {
+            saveData(i, "name" + (i % 2), "description");
+        }
+        store.close();
+
+        SQLStore<Data> indexedStore = (SQLStore<Data>) DataManager
+                .config("backfilledStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withIndexedProperties("name", "description")
+                .store(Data.class);
+        indexedStore.openSync();
+        Assert.assertEquals(12, countRows(indexedStore, "select count(*) from Data_index"));
+
+        ReadFilter filter = new ReadFilter();
+        filter.setWhere(new JSONObject("{\"name\":{\"$gte\":\"name1\"}}"));
+        Assert.assertEquals(3, indexedStore.readWithFilter(filter).size());
+        indexedStore.close();
+
+        indexedStore = (SQLStore<Data>) DataManager
+                .config("shrunkStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withIndexedProperties("name")
+                .store(Data.class);
+        indexedStore.openSync();
+        Assert.assertEquals(6, countRows(indexedStore, "select count(*) from Data_index"));
+        indexedStore.close();
+    }
+
+    @Test
+    public void testDocumentModeFilterOnIndexedProperty() throws JSONException {
+        SQLStore<Data> documentStore = (SQLStore<Data>) DataManager
+                .config("indexedDocumentStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withStorageMode(StorageMode.DOCUMENT)
+                .withIndexedProperties("id")
+                .store(Data.class);
+        documentStore.openSync();
+        for (int i = 1; i <= 12; i++) {
+            documentStore.save(new Data(i, "name", "description"));
+        }
+
+        ReadFilter filter = new ReadFilter();
+        filter.setWhere(new JSONObject("{\"id\":{\"$gt\":10}}"));
+        List<Data> result = documentStore.readWithFilter(filter);
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals((Integer) 11, result.get(0).getId());
+        documentStore.close();
+    }
+
+    @Test
+    public void testFullTextSearch() {
+        store.openSync();
+        store.save(new Data(1, "red shoes", "red leather shoes, red laces"));
+        store.close();
+
+        SQLStore<Data> searchStore = (SQLStore<Data>) DataManager
+                .config("fullTextStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withFullTextProperties("name", "description")
+                .store(Data.class);
+        searchStore.openSync();
+        searchStore.save(new Data(2, "blue shoes", "canvas"));
+        searchStore.save(new Data(3, "red hat", "wool"));
+
+        List<Data> result = searchStore.search("red");
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals((Integer) 1, result.get(0).getId());
+        Assert.assertEquals(1, searchStore.search("red", 1).size());
+        Assert.assertEquals(2, searchStore.search("sho*").size());
+
+        searchStore.save(new Data(2, "green shoes", "canvas"));
+        searchStore.remove(1);
+        Assert.assertTrue(searchStore.search("blue").isEmpty());
+        result = searchStore.search("shoes");
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals("green shoes", result.get(0).getName());
+        Assert.assertEquals(2, countRows(searchStore, "select count(*) from Data_fts"));
+        searchStore.close();
+    }
+
+    @Test
+    public void testDocumentModeFullTextSearch() {
+        SQLStore<Data> documentStore = (SQLStore<Data>) DataManager
+                .config("fullTextDocumentStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withStorageMode(StorageMode.DOCUMENT)
+                .withFullTextProperties("description")
+                .store(Data.class);
+        documentStore.openSync();
+        documentStore.save(new Data(1, "name", "fast red car"));
+        documentStore.save(new Data(2, "name", "slow car"));
+
+        Assert.assertEquals(2, documentStore.search("car").size());
+        Assert.assertEquals((Integer) 1, documentStore.search("fast").get(0).getId());
+        Assert.assertTrue(documentStore.search("name").isEmpty());
+
+        documentStore.remove(Collections.singletonList(1));
+        Assert.assertTrue(documentStore.search("fast").isEmpty());
+        documentStore.close();
+    }
+
+    @Test
+    public void testWriteAheadLoggingReadsDuringWrite() throws Exception {
+        final SQLStore<Data> walStore = (SQLStore<Data>) DataManager
+                .config("walStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withWriteAheadLogging(true)
+                .withSynchronousMode(SynchronousMode.NORMAL)
+                .withAutoCheckpoint(0)
+                .store(Data.class);
+        walStore.openSync();
+        walStore.save(new Data(1, "name", "description"));
+
+        SQLiteDatabase database = walStore.getWritableDatabase();
+        Cursor journalMode = database.rawQuery("PRAGMA journal_mode", null);
+        journalMode.moveToFirst();
+        Assert.assertEquals("wal", journalMode.getString(0).toLowerCase());
+        journalMode.close();
+
+        database.beginTransactionNonExclusive();
+        try {
+            walStore.save(new Data(2, "name", "description"));
+
+            final List<Data> read = new ArrayList<Data>();
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    read.addAll(walStore.readAll());
+                }
+            });
+            reader.start();
+            reader.join(TimeUnit.SECONDS.toMillis(5));
+            Assert.assertFalse("reader waited for the writer", reader.isAlive());
+            Assert.assertEquals(1, read.size());
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        walStore.checkpoint();
+        Assert.assertEquals(2, walStore.readAll().size());
+        walStore.close();
+    }
+
+    @Test
+    public void testWriteBehindBuffersAndCoalesces() {
+        SQLStore<Data> bufferedStore = (SQLStore<Data>) DataManager
+                .config("bufferedStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withWriteBehind(10, 1, TimeUnit.HOURS)
+                .store(Data.class);
+        bufferedStore.openSync();
+
+        for (int i = 1; i <= 5; i++) {
+            bufferedStore.save(new Data(1, "name " + i, "description"));
+        }
+        bufferedStore.save(new Data(2, "name", "description"));
+        bufferedStore.remove(2);
+        Assert.assertEquals(0, countRows(bufferedStore, "select count(*) from Data_property"));
+        Assert.assertEquals("name 5", bufferedStore.read(1).getName());
+        Assert.assertNull(bufferedStore.read(2));
+
+        Assert.assertEquals(1, bufferedStore.readAll().size());
+        Assert.assertTrue(countRows(bufferedStore, "select count(*) from Data_property") > 0);
+
+        for (int i = 10; i < 20; i++) {
+            bufferedStore.save(new Data(i, "name", "description"));
+        }
+        Assert.assertEquals(11, countRows(bufferedStore, "select count(distinct PARENT_ID) from Data_property"));
+        bufferedStore.close();
+    }
+
+    @Test
+    public void testWriteBehindKeepsTheSavedValues() {
+        SQLStore<Data> bufferedStore = (SQLStore<Data>) DataManager
+                .config("copyingStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withWriteBehind(10, 1, TimeUnit.HOURS)
+                .store(Data.class);
+        bufferedStore.openSync();
+
+        Data data = new Data(1, "saved", "description");
+        bufferedStore.save(data);
+        data.setName("changed after save");
+
+        Data pending = bufferedStore.read(1);
+        Assert.assertEquals("saved", pending.getName());
+        Assert.assertNotSame(data, pending);
+        pending.setName("changed after read");
+        Assert.assertEquals("saved", bufferedStore.read(1).getName());
+
+        bufferedStore.close();
+        bufferedStore.openSync();
+        Assert.assertEquals("saved", bufferedStore.read(1).getName());
+        bufferedStore.close();
+    }
+
+    @Test
+    public void testWriteBehindFlushesAfterDelayAndOnClose() throws InterruptedException {
+        SQLStore<Data> bufferedStore = (SQLStore<Data>) DataManager
+                .config("delayedStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withWriteBehind(100, 50, TimeUnit.MILLISECONDS)
+                .store(Data.class);
+        bufferedStore.openSync();
+        bufferedStore.save(new Data(1, "name", "description"));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (countRows(bufferedStore, "select count(*) from Data_property") == 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        Assert.assertTrue(countRows(bufferedStore, "select count(*) from Data_property") > 0);
+
+        bufferedStore.save(new Data(2, "name", "description"));
+        bufferedStore.close();
+
+        SQLStore<Data> reopened = new SQLStore<Data>(Data.class, context);
+        reopened.openSync();
+        Assert.assertEquals(2, reopened.readAll().size());
+        reopened.close();
+    }
+
+    @Test
+    public void testEntityCacheHitsAndInvalidation() {
+        SQLStore<Data> cachedStore = (SQLStore<Data>) DataManager
+                .config("cachedStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withEntityCache(2)
+                .store(Data.class);
+        cachedStore.openSync();
+        cachedStore.save(new Data(1, "name", "description"));
+        cachedStore.save(new Data(2, "name", "description"));
+        cachedStore.save(new Data(3, "name", "description"));
+
+        Data first = cachedStore.read(1);
+        Assert.assertSame(first, cachedStore.read(1));
+        Assert.assertEquals(1, cachedStore.getCacheHitCount());
+        Assert.assertEquals(1, cachedStore.getCacheMissCount());
+
+        cachedStore.save(new Data(1, "renamed", "description"));
+        Assert.assertEquals("renamed", cachedStore.read(1).getName());
+        Assert.assertEquals(2, cachedStore.getCacheMissCount());
+
+        cachedStore.read(2);
+        cachedStore.read(3);
+        cachedStore.read(1);
+        Assert.assertEquals(5, cachedStore.getCacheMissCount());
+
+        cachedStore.remove(1);
+        Assert.assertNull(cachedStore.read(1));
+        cachedStore.read(3);
+        Assert.assertEquals(2, cachedStore.getCacheHitCount());
+
+        cachedStore.reset();
+        Assert.assertNull(cachedStore.read(3));
+        cachedStore.close();
+    }
+
+    @Test
+    public void testRemoveWithFilterInvalidatesEntityCache() throws JSONException {
+        SQLStore<Data> cachedStore = (SQLStore<Data>) DataManager
+                .config("cachedFilterStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withWriteAheadLogging(true)
+                .withEntityCache(10)
+                .store(Data.class);
+        cachedStore.openSync();
+        cachedStore.save(new Data(1, "removed", "description"));
+        cachedStore.save(new Data(2, "kept", "description"));
+        Assert.assertNotNull(cachedStore.read(1));
+        Assert.assertNotNull(cachedStore.read(2));
+
+        ReadFilter filter = new ReadFilter();
+        filter.setWhere(new JSONObject().put("name", "removed"));
+        cachedStore.removeWithFilter(filter);
+
+        Assert.assertNull(cachedStore.read(1));
+        Assert.assertEquals("kept", cachedStore.read(2).getName());
+        cachedStore.close();
+    }
+
+    @Test
+    public void testRemoveDeletesEveryTableAndInvalidatesEntityCache() {
+        SQLStore<Data> cachedStore = (SQLStore<Data>) DataManager
+                .config("cachedRemoveStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withWriteAheadLogging(true)
+                .withEntityCache(10)
+                .withIndexedProperties("name")
+                .withFullTextProperties("description")
+                .store(Data.class);
+        cachedStore.openSync();
+        cachedStore.save(new Data(1, "removed", "removed description"));
+        cachedStore.save(new Data(2, "kept", "kept description"));
+        Assert.assertNotNull(cachedStore.read(1));
+
+        cachedStore.remove(1);
+
+        Assert.assertNull(cachedStore.read(1));
+        Assert.assertEquals("kept", cachedStore.read(2).getName());
+        Assert.assertEquals(1, countRows(cachedStore, "select count(*) from Data_index"));
+        Assert.assertEquals(1, countRows(cachedStore, "select count(*) from Data_fts"));
+        Assert.assertEquals(1, countRows(cachedStore, "select count(*) from Data_fts_id"));
+        cachedStore.close();
+    }
+
+    @Test
+    public void testEntityCacheBoundedByBytes() {
+        SQLStore<Data> cachedStore = (SQLStore<Data>) DataManager
+                .config("byteCachedStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withStorageMode(StorageMode.DOCUMENT)
+                .withEntityCacheBytes(1)
+                .store(Data.class);
+        cachedStore.openSync();
+        cachedStore.save(new Data(1, "name", "description"));
+
+        cachedStore.read(1);
+        cachedStore.read(1);
+        Assert.assertEquals(0, cachedStore.getCacheHitCount());
+        Assert.assertEquals(2, cachedStore.getCacheMissCount());
+        cachedStore.close();
+    }
+
+    @Test
+    public void testWarmUpPreloadsEntityCache() {
+        SQLStore<Data> coldStore = (SQLStore<Data>) DataManager
+                .config("coldStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .store(Data.class);
+        coldStore.openSync();
+        for (int i = 1; i <= 5; i++) {
+            coldStore.save(new Data(i, "name" + i, "description"));
+        }
+        Assert.assertNull(coldStore.getWarmUpReport());
+        coldStore.close();
+
+        SQLStore<Data> warmStore = (SQLStore<Data>) DataManager
+                .config("warmStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withEntityCache(10)
+                .withIndexedProperties("name")
+                .withWarmUp(3)
+                .store(Data.class);
+        warmStore.openSync();
+        WarmUpReport report = warmStore.getWarmUpReport();
+        Assert.assertNotNull(report);
+        Assert.assertEquals(3, report.getPreloadedEntities());
+        Assert.assertEquals(0, report.getMillis(WarmUpReport.Phase.ENCRYPTION));
+        Assert.assertTrue(report.getTotalMillis() >= report.getMillis(WarmUpReport.Phase.OPEN));
+        Assert.assertEquals(3, warmStore.getCacheMissCount());
+
+        Assert.assertEquals("name1", warmStore.read(1).getName());
+        Assert.assertEquals("name3", warmStore.read(3).getName());
+        Assert.assertEquals(2, warmStore.getCacheHitCount());
+        Assert.assertEquals("name4", warmStore.read(4).getName());
+        Assert.assertEquals(4, warmStore.getCacheMissCount());
+        warmStore.close();
+    }
+
+    @Test
+    public void testWarmUpDocumentMode() {
+        SQLStore<Data> documentStore = (SQLStore<Data>) DataManager
+                .config("warmDocumentStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withStorageMode(StorageMode.DOCUMENT)
+                .withFullTextProperties("description")
+                .withWarmUp(0)
+                .store(Data.class);
+        documentStore.openSync();
+        documentStore.save(new Data(1, "name", "description"));
+        Assert.assertEquals(0, documentStore.getWarmUpReport().getPreloadedEntities());
+        Assert.assertEquals("name", documentStore.read(1).getName());
+        documentStore.close();
+    }
+
+    @Test
+    public void testQueryDiagnostics() throws JSONException {
+        SQLStore<Data> store = (SQLStore<Data>) DataManager
+                .config("diagnosedStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withQueryDiagnostics(0, TimeUnit.MILLISECONDS)
+                .store(Data.class);
+        store.openSync();
+        for (int i = 1; i <= 5; i++) {
+            store.save(new Data(i, "name" + (i % 2), "description"));
+        }
+        ReadFilter filter = new ReadFilter();
+        filter.setWhere(new JSONObject("{\"name\":\"name1\"}"));
+        Assert.assertEquals(3, store.readWithFilter(filter).size());
+        filter.setWhere(new JSONObject("{\"name\":\"name0\"}"));
+        Assert.assertEquals(2, store.readWithFilter(filter).size());
+        store.remove(Arrays.asList(1, 2, 3));
+        store.remove(Arrays.asList(4, 5));
+
+        QueryStatistics filterQuery = null;
+        QueryStatistics removes = null;
+        for (QueryStatistics statement : store.getQueryStatistics()) {
+            if (statement.getSql().contains("PROPERTY_NAME = ?")) {
+                filterQuery = statement;
+            } else if (statement.getSql().startsWith("delete from Data_property")) {
+                removes = statement;
+            }
+        }
+        Assert.assertNotNull(filterQuery);
+        Assert.assertEquals(2, filterQuery.getExecutions());
+        Assert.assertEquals(2, filterQuery.getSlowExecutions());
+        Assert.assertTrue(filterQuery.getQueryPlan(),
+                          filterQuery.getQueryPlan().contains("Data_property_name_value_index"));
+        Assert.assertNotNull(removes);
+        Assert.assertEquals("delete from Data_property where PARENT_ID in (?, ...)", removes.getSql());
+        Assert.assertEquals(2, removes.getExecutions());
+        store.close();
+
+        Assert.assertEquals("[text(3), integer, real, null, blob(2)]",
+                            QueryDiagnostics.bindShape(new Object[]{"abc", 1L, 1.5, null, new byte[2]}));
+    }
+
+    @Test
+    public void testSchemaMigrationResumesAndUpgradesReads() throws InterruptedException {
+        SQLStore<Data> v1Store = (SQLStore<Data>) DataManager
+                .config("v1Store", SQLStoreConfiguration.class)
+                .withContext(context)
+                .store(Data.class);
+        v1Store.openSync();
+        for (int i = 1; i <= 30; i++) {
+            v1Store.save(new Data(i, "name" + i, "description"));
+        }
+        v1Store.close();
+
+        final AtomicBoolean failOnce = new AtomicBoolean(true);
+        Migration prefixNames = new Migration() {
+            @Override
+            public int getVersion() {
+                return 2;
+            }
+
+            @Override
+            public JsonObject migrate(JsonObject entity) {
+                String name = entity.get("name").getAsString();
+                if (name.equals("name20") && failOnce.getAndSet(false)) {
+                    throw new IllegalStateException("Interrupted");
+                }
+                entity.addProperty("name", "v2-" + name);
+                return entity;
+            }
+        };
+
+        SQLStore<Data> v2Store = (SQLStore<Data>) DataManager
+                .config("v2Store", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withSchemaVersion(2, prefixNames)
+                .withMigrationChunkSize(5)
+                .store(Data.class);
+        v2Store.openSync();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (failOnce.get() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        v2Store.close();
+        v2Store.openSync();
+
+        Assert.assertTrue(v2Store.isMigrating());
+        Assert.assertEquals(1, v2Store.getSchemaVersion());
+        Assert.assertEquals("v2-name1", v2Store.read(1).getName());
+        Assert.assertEquals("v2-name25", v2Store.read(25).getName());
+        for (Data data : v2Store.readAll()) {
+            Assert.assertEquals("v2-name" + data.getId(), data.getName());
+        }
+        v2Store.save(new Data(29, "fresh", "description"));
+
+        deadline = System.currentTimeMillis() + 5000;
+        while (v2Store.isMigrating() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(2, v2Store.getSchemaVersion());
+        Assert.assertEquals("fresh", v2Store.read(29).getName());
+        Assert.assertEquals("v2-name20", v2Store.read(20).getName());
+        Assert.assertEquals(30, v2Store.count());
+        v2Store.close();
+
+        v2Store.openSync();
+        Assert.assertFalse(v2Store.isMigrating());
+        Assert.assertEquals("v2-name30", v2Store.read(30).getName());
+        v2Store.close();
+    }
+
+    @Test
+    public void testSchemaMigrationWithWriteAheadLoggingReadsDuringChunks() throws InterruptedException {
+        SQLStore<Data> v1Store = (SQLStore<Data>) DataManager
+                .config("walV1Store", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withWriteAheadLogging(true)
+                .store(Data.class);
+        v1Store.openSync();
+        List<Data> items = new ArrayList<Data>();
+        for (int i = 1; i <= 200; i++) {
+            items.add(new Data(i, "name" + i, "description"));
+        }
+        v1Store.save(items);
+        v1Store.close();
+
+        Migration prefixNames = new Migration() {
+            @Override
+            public int getVersion() {
+                return 2;
+            }
+
+            @Override
+            public JsonObject migrate(JsonObject entity) {
+                entity.addProperty("name", "v2-" + entity.get("name").getAsString());
+                return entity;
+            }
+        };
+        SQLStore<Data> v2Store = (SQLStore<Data>) DataManager
+                .config("walV2Store", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withWriteAheadLogging(true)
+                .withSchemaVersion(2, prefixNames)
+                .withMigrationChunkSize(10)
+                .store(Data.class);
+        v2Store.openSync();
+
+        // Every read, whichever side of a chunk commit it lands on, sees
+        // each entity migrated exactly once
+        long deadline = System.currentTimeMillis() + 10000;
+        do {
+            Collection<Data> all = v2Store.readAll();
+            Assert.assertEquals(200, all.size());
+            for (Data data : all) {
+                Assert.assertEquals("v2-name" + data.getId(), data.getName());
+            }
+            for (int id = 5; id <= 200; id += 15) {
+                Assert.assertEquals("v2-name" + id, v2Store.read(id).getName());
+            }
+            // Leaves the migration thread room on a single core
+            Thread.sleep(5);
+        } while (v2Store.isMigrating() && System.currentTimeMillis() < deadline);
+
+        deadline = System.currentTimeMillis() + 10000;
+        while (v2Store.isMigrating() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(v2Store.isMigrating());
+        Assert.assertEquals(2, v2Store.getSchemaVersion());
+        Assert.assertEquals("v2-name200", v2Store.read(200).getName());
+        v2Store.close();
+    }
+
+    @Test
+    public void testSchemaVersionOfNewAndNewerStores() {
+        SQLStore<Data> v3Store = (SQLStore<Data>) DataManager
+                .config("v3Store", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withStorageMode(StorageMode.DOCUMENT)
+                .withSchemaVersion(3)
+                .store(Data.class);
+        v3Store.openSync();
+        Assert.assertFalse(v3Store.isMigrating());
+        Assert.assertEquals(3, v3Store.getSchemaVersion());
+        v3Store.close();
+
+        SQLStore<Data> olderStore = (SQLStore<Data>) DataManager
+                .config("olderStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withStorageMode(StorageMode.DOCUMENT)
+                .store(Data.class);
+        try {
+            olderStore.openSync();
+            Assert.fail("Opening data of a newer schema version should fail");
+        } catch (IllegalStateException expected) {
+            olderStore.close();
+        }
+    }
+
+    private static long countRows(SQLStore<?> store, String sql) {
+        Cursor cursor = store.getReadableDatabase().rawQuery(sql, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testFilterPerPage() throws InterruptedException, JSONException {
+        loadBulkData();
+
+        ReadFilter filter = new ReadFilter();
+        filter.setLimit(2);
+        List<Data> result = store.readWithFilter(filter);
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals((Integer) 1, result.get(0).getId());
+        Assert.assertEquals((Integer) 2, result.get(1).getId());
+
+        filter.setOffset(4);
+        result = store.readWithFilter(filter);
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals((Integer) 5, result.get(0).getId());
+        Assert.assertEquals((Integer) 6, result.get(1).getId());
+
+        JSONObject where = new JSONObject();
+        where.put("name", "name2");
+        filter.setWhere(where);
+        filter.setOffset(1);
+        result = store.readWithFilter(filter);
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals((Integer) 4, result.get(0).getId());
+        Assert.assertEquals((Integer) 6, result.get(1).getId());
+    }
+
     @Test
     public void testNestedSaveAndFilter() throws InterruptedException, JSONException {
         ReadFilter filter;
@@ -245,6 +1145,88 @@ public class SQLStoreTest {
 
     }
 
+    @Test
+    public void testReadProjection() throws JSONException {
+        TrivialNestedClass nested = new TrivialNestedClass();
+        nested.setId(1);
+        nested.setText("nestedText");
+        nested.setData(new Data(10, "name", "description"));
+        nestedStore.openSync();
+        nestedStore.save(nested);
+
+        ReadFilter filter = new ReadFilter();
+        filter.setWhere(new JSONObject("{\"text\":\"nestedText\"}"));
+        List<TrivialNestedClass> result = nestedStore.readProjection(filter, "data");
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals((Integer) 1, result.get(0).getId());
+        Assert.assertNull(result.get(0).text);
+        Assert.assertEquals("description", result.get(0).data.getDescription());
+
+        result = nestedStore.readProjection(new ReadFilter(), "data.name", "text");
+        Assert.assertEquals("nestedText", result.get(0).text);
+        Assert.assertEquals("name", result.get(0).data.getName());
+        Assert.assertNull(result.get(0).data.getDescription());
+    }
+
+    @Test
+    public void testDocumentModeReadProjection() {
+        SQLStore<Data> documentStore = (SQLStore<Data>) DataManager
+                .config("documentProjectionStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withStorageMode(StorageMode.DOCUMENT)
+                .store(Data.class);
+        documentStore.openSync();
+        documentStore.save(new Data(1, "name", "description"));
+
+        List<Data> result = documentStore.readProjection(null, "name");
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals((Integer) 1, result.get(0).getId());
+        Assert.assertEquals("name", result.get(0).getName());
+        Assert.assertNull(result.get(0).getDescription());
+        documentStore.close();
+    }
+
+    @Test
+    public void testEncodedPropertiesStorage() throws JSONException {
+        SQLStore<TrivialNestedClassWithCollection> encodedStore = (SQLStore<TrivialNestedClassWithCollection>) DataManager
+                .config("encodedStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withStorageMode(StorageMode.ENCODED_PROPERTIES)
+                .withIndexedProperties("text")
+                .store(TrivialNestedClassWithCollection.class);
+        encodedStore.openSync();
+        for (int i = 1; i <= 3; i++) {
+            TrivialNestedClassWithCollection nested = new TrivialNestedClassWithCollection();
+            nested.setId(i);
+            nested.setText("text" + i);
+            nested.setData(Arrays.asList(new Data(10 * i, "name", "description"), new Data(10 * i + 1, "other", "description")));
+            encodedStore.save(nested);
+        }
+        // id, text and the four properties of each of the two elements
+        Assert.assertEquals(10, countRows(encodedStore, "select count(*) from TrivialNestedClassWithCollection_property_name"));
+        encodedStore.close();
+
+        encodedStore.openSync();
+        Assert.assertEquals(3, encodedStore.count());
+        Assert.assertEquals("other", encodedStore.read(2).data.get(1).getName());
+
+        ReadFilter filter = new ReadFilter();
+        filter.setWhere(new JSONObject("{\"data[1].id\":{\"$gte\":21}}"));
+        Assert.assertEquals(2, encodedStore.readWithFilter(filter).size());
+        filter.setWhere(new JSONObject("{\"data[%].id\":30,\"text\":\"text3\"}"));
+        Assert.assertEquals((Integer) 3, encodedStore.readWithFilter(filter).get(0).getId());
+        filter.setWhere(new JSONObject("{\"unknown\":1}"));
+        Assert.assertTrue(encodedStore.readWithFilter(filter).isEmpty());
+
+        List<TrivialNestedClassWithCollection> projected = encodedStore.readProjection(null, "text");
+        Assert.assertEquals("text1", projected.get(0).text);
+        Assert.assertNull(projected.get(0).data);
+
+        encodedStore.remove(1);
+        Assert.assertEquals(2, encodedStore.readAll().size());
+        encodedStore.close();
+    }
+
     @Test
     public void testNestedListSaveAndFilter() throws InterruptedException, JSONException {
         ReadFilter filter;
@@ -319,6 +1301,48 @@ public class SQLStoreTest {
 
     }
 
+    @Test
+    public void testFilterOnCollectionMatchingSeveralElements() throws JSONException {
+        List<Data> data = new ArrayList<Data>();
+        data.add(new Data(10, "name", "description"));
+        data.add(new Data(30, "name", "description"));
+
+        TrivialNestedClassWithCollection newNested = new TrivialNestedClassWithCollection();
+        newNested.setId(1);
+        newNested.setText("nestedText");
+        newNested.setData(data);
+
+        nestedWithCollectionStore.openSync();
+        nestedWithCollectionStore.save(newNested);
+
+        ReadFilter filter = new ReadFilter();
+        JSONObject where = new JSONObject();
+        where.put("data[%].name", "name");
+        where.put("text", "nestedText");
+        filter.setWhere(where);
+
+        List<TrivialNestedClassWithCollection> result = nestedWithCollectionStore.readWithFilter(filter);
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals(2, result.get(0).getData().size());
+    }
+
+    @Test
+    public void testFilterKeysWithoutWildcardMatchExactly() throws JSONException {
+        store.openSync();
+        store.save(new Data(1, "name", "description"));
+
+        Assert.assertEquals(1, readWithKey("name").size());
+        Assert.assertEquals(0, readWithKey("Name").size());
+        Assert.assertEquals(0, readWithKey("na_e").size());
+        Assert.assertEquals(1, readWithKey("Na_e%").size());
+    }
+
+    private List<Data> readWithKey(String key) throws JSONException {
+        ReadFilter filter = new ReadFilter();
+        filter.setWhere(new JSONObject().put(key, "name"));
+        return store.readWithFilter(filter);
+    }
+
     @Test
     public void testSuccessCallback() throws InterruptedException {
         final CountDownLatch latch = new CountDownLatch(2);
@@ -338,6 +1362,144 @@ public class SQLStoreTest {
 
     }
 
+    @Test
+    public void testSaveExistingRecordUpserts() throws InterruptedException {
+        saveData(10, "name", "description");
+        saveData(10, "name2", "description");
+
+        Assert.assertEquals(1, store.readAll().size());
+        Assert.assertEquals("name2", store.read(10).getName());
+
+        Cursor cursor = store.getReadableDatabase()
+                .rawQuery("select count(*) from Data_property where PARENT_ID = ?", new String[]{"10"});
+        try {
+            cursor.moveToFirst();
+            Assert.assertEquals("Resaving should not duplicate properties", 4, cursor.getInt(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testSaveExistingRecordRemovesDroppedProperties() {
+        SQLStore<ListWithId> longStore = new SQLStore<ListWithId>(ListWithId.class, context);
+        longStore.openSync();
+        ListWithId<Long> longList = new ListWithId<Long>(100);
+        longList.setId(1);
+        for (long i = 0; i < 100; i++) {
+            longList.data.add(i);
+        }
+        longStore.save(longList);
+
+        longList.data.subList(50, 100).clear();
+        longList.data.set(0, 42L);
+        longStore.save(longList);
+
+        ListWithId<?> result = longStore.read(1);
+        Assert.assertEquals(50, result.data.size());
+        Assert.assertEquals("42", String.valueOf(result.data.get(0)));
+        Assert.assertEquals("49", String.valueOf(result.data.get(49)));
+        longStore.close();
+    }
+
+    @Test
+    public void testDocumentModeSaveAndRead() {
+        SQLStore<Data> documentStore = (SQLStore<Data>) DataManager
+                .config("documentStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withStorageMode(StorageMode.DOCUMENT)
+                .store(Data.class);
+        documentStore.openSync();
+
+        Data data = new Data(10, "name", "description", true);
+        documentStore.save(data);
+        Assert.assertEquals(data, documentStore.read(10));
+
+        data.setName("renamed");
+        documentStore.save(data);
+        Assert.assertEquals(1, documentStore.readAll().size());
+        Assert.assertEquals("renamed", documentStore.read(10).getName());
+
+        documentStore.remove(10);
+        Assert.assertNull(documentStore.read(10));
+        Assert.assertTrue(documentStore.isEmpty());
+        documentStore.close();
+    }
+
+    @Test
+    public void testDocumentModeBinaryCodec() throws JSONException {
+        SQLStore<Data> documentStore = (SQLStore<Data>) DataManager
+                .config("binaryDocumentStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withStorageMode(StorageMode.DOCUMENT)
+                .withIndexedProperties("name")
+                .withCodec(new BinaryCodec())
+                .store(Data.class);
+        documentStore.openSync();
+
+        // A document written as JSON text before the store had a codec
+        documentStore.getWritableDatabase().execSQL("insert into Data_document (PARENT_ID, DOCUMENT) values (?, ?)",
+                new Object[]{"1", "{\"id\":1,\"name\":\"legacy\",\"description\":\"text\",\"enable\":false}"});
+        documentStore.save(new Data(2, "binary", "blob", true));
+
+        Assert.assertEquals("legacy", documentStore.read(1).getName());
+        Assert.assertEquals(new Data(2, "binary", "blob", true), documentStore.read(2));
+        Assert.assertEquals(2, documentStore.readAll().size());
+
+        ReadFilter filter = new ReadFilter();
+        filter.setWhere(new JSONObject("{\"description\":\"blob\"}"));
+        List<Data> results = documentStore.readWithFilter(filter);
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals(2, (int) results.get(0).getId());
+
+        documentStore.save(new Data(1, "rewritten", "text", false));
+        Assert.assertEquals("rewritten", documentStore.read(1).getName());
+        documentStore.close();
+    }
+
+    @Test
+    public void testDocumentModeFilterOnNestedCollection() throws JSONException {
+        SQLStore<TrivialNestedClassWithCollection> documentStore = (SQLStore<TrivialNestedClassWithCollection>) DataManager
+                .config("documentNestedStore", SQLStoreConfiguration.class)
+                .withContext(context)
+                .withStorageMode(StorageMode.DOCUMENT)
+                .store(TrivialNestedClassWithCollection.class);
+        documentStore.openSync();
+
+        for (int i = 1; i <= 2; i++) {
+            List<Data> data = new ArrayList<Data>();
+            data.add(new Data(10, "name" + (i * 2 - 1), "description"));
+            data.add(new Data(30, "name" + (i * 2), "description"));
+
+            TrivialNestedClassWithCollection nested = new TrivialNestedClassWithCollection();
+            nested.setId(i);
+            nested.setText("nestedText" + i);
+            nested.setData(data);
+            documentStore.save(nested);
+        }
+
+        ReadFilter filter = new ReadFilter();
+        JSONObject where = new JSONObject();
+        where.put("data[%].name", "name2");
+        where.put("id", 1);
+        filter.setWhere(where);
+
+        List<TrivialNestedClassWithCollection> result = documentStore.readWithFilter(filter);
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals("nestedText1", result.get(0).getText());
+        Assert.assertEquals((Integer) 30, result.get(0).getData().get(1).getId());
+
+        filter = new ReadFilter();
+        where = new JSONObject();
+        where.put("data[%].description", "description");
+        filter.setWhere(where);
+        filter.setOffset(1);
+        result = documentStore.readWithFilter(filter);
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals("nestedText2", result.get(0).getText());
+        documentStore.close();
+    }
+
     private void saveData(Integer id, String name, String desc) throws InterruptedException {
         store.save(new Data(id, name, desc));
     }
@@ -364,6 +1526,28 @@ public class SQLStoreTest {
 
     }
 
+    @Test
+    public void testReadListKeepsElementPositions() {
+        SQLStore<ListWithId> listStore = new SQLStore<ListWithId>(ListWithId.class, context);
+        listStore.openSync();
+        ListWithId<Long> longList = new ListWithId<Long>(12);
+        longList.setId(1);
+        for (long i = 0; i < 12; i++) {
+            longList.data.add(i);
+        }
+        listStore.save(longList);
+
+        longList.data.set(10, 100L);
+        listStore.save(longList);
+
+        List<?> read = listStore.read(1).data;
+        Assert.assertEquals(12, read.size());
+        for (int i = 0; i < 12; i++) {
+            Assert.assertEquals(String.valueOf(longList.data.get(i)), String.valueOf(read.get(i)));
+        }
+        listStore.close();
+    }
+
     @Test
     public void testSaveCollection() {
         List<Data> items = new ArrayList<Data>();
@@ -380,6 +1564,27 @@ public class SQLStoreTest {
         store.close();
     }
 
+    @Test
+    public void testSaveCollectionRepeatingAnId() {
+        SQLStore<Data> store = new SQLStore<Data>(Data.class, context);
+        store.openSync();
+        store.save(new Data(1, "stored", "stored before the batch"));
+
+        List<Data> items = new ArrayList<Data>();
+        for (int i = 2; i <= 150; i++) {
+            items.add(new Data(i, "Item " + i, "This is the item " + i));
+        }
+        items.add(new Data(1, "first", "upserted"));
+        items.add(new Data(2, "second", "saved twice in the batch"));
+        store.save(items);
+
+        Assert.assertEquals(150, store.count());
+        Assert.assertEquals("first", store.read(1).getName());
+        Assert.assertEquals("second", store.read(2).getName());
+        Assert.assertEquals("This is the item 150", store.read(150).getDescription());
+        store.close();
+    }
+
     @Test
     public void testSaveItemWithMap() {
         TrivialNestedMap trivialNestedMap = new TrivialNestedMap();
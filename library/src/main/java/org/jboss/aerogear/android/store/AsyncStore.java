@@ -0,0 +1,386 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store;
+
+import android.os.AsyncTask;
+
+import org.jboss.aerogear.android.core.Callback;
+import org.jboss.aerogear.android.core.ReadFilter;
+import org.jboss.aerogear.android.store.util.MainThreadExecutor;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the operations of a {@link Store} on an {@link Executor} and delivers
+ * their results to a {@link Callback}.
+ *
+ * Writes (save, remove and reset) go through a single writer: they run one
+ * at a time, in the order they were submitted. Reads are handed to the
+ * executor right away and may run concurrently with each other and with a
+ * write, so a read submitted after a write is not guaranteed to observe it;
+ * issue it from the write's callback when it has to.
+ *
+ * The wrapped store must support reads concurrent with a write, as the
+ * stores of this library do. Callbacks may be null for operations whose
+ * result is not needed.
+ *
+ * @param <T> the type of the stored objects
+ */
+public class AsyncStore<T> {
+
+    private final Store<T> store;
+    private final Executor readExecutor;
+    private final Executor writeExecutor;
+    private final Executor callbackExecutor;
+
+    /**
+     * Runs the operations on {@link AsyncTask#THREAD_POOL_EXECUTOR} and
+     * delivers their results on the main thread.
+     *
+     * @param store the store to wrap
+     */
+    public AsyncStore(Store<T> store) {
+        this(store, AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Runs the operations on <code>executor</code> and delivers their
+     * results on the main thread.
+     *
+     * @param store the store to wrap
+     * @param executor the executor operations run on
+     */
+    public AsyncStore(Store<T> store, Executor executor) {
+        this(store, executor, new MainThreadExecutor());
+    }
+
+    /**
+     * @param store the store to wrap
+     * @param executor the executor operations run on
+     * @param callbackExecutor the executor callbacks are called on
+     */
+    public AsyncStore(Store<T> store, Executor executor, Executor callbackExecutor) {
+        if (store == null || executor == null || callbackExecutor == null) {
+            throw new IllegalArgumentException("Store, Executor and callback Executor are mandatory");
+        }
+        this.store = store;
+        this.readExecutor = executor;
+        this.writeExecutor = new SerialExecutor(executor);
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * @return the wrapped store
+     */
+    public Store<T> getStore() {
+        return store;
+    }
+
+    /**
+     * @see Store#readAll()
+     */
+    public void readAll(Callback<Collection<T>> callback) {
+        readExecutor.execute(new Operation<Collection<T>>(callback) {
+            @Override
+            Collection<T> call() {
+                return store.readAll();
+            }
+        });
+    }
+
+    /**
+     * @see Store#read(Serializable)
+     */
+    public void read(final Serializable id, Callback<T> callback) {
+        readExecutor.execute(new Operation<T>(callback) {
+            @Override
+            T call() {
+                return store.read(id);
+            }
+        });
+    }
+
+    /**
+     * Walks the store with its iterator on the read executor, passing every
+     * item to <code>visitor</code> on that thread, so large stores are
+     * processed without reading them into memory at once. The iterator is
+     * closed once the walk ends, including when the visitor stops it early
+     * or throws.
+     *
+     * The callback receives the number of visited items.
+     *
+     * @param visitor called with each item, on the read executor
+     * @param callback called once the walk ended
+     * @see Store#iterator()
+     */
+    public void iterate(final Visitor<? super T> visitor, Callback<Integer> callback) {
+        readExecutor.execute(new Operation<Integer>(callback) {
+            @Override
+            Integer call() {
+                int visited = 0;
+                CloseableIterator<T> iterator = store.iterator();
+                try {
+                    while (iterator.hasNext()) {
+                        visited++;
+                        if (!visitor.visit(iterator.next())) {
+                            break;
+                        }
+                    }
+                } finally {
+                    iterator.close();
+                }
+                return visited;
+            }
+        });
+    }
+
+    /**
+     * @see Store#readWithFilter(ReadFilter)
+     */
+    public void readWithFilter(final ReadFilter filter, Callback<List<T>> callback) {
+        readExecutor.execute(new Operation<List<T>>(callback) {
+            @Override
+            List<T> call() {
+                return store.readWithFilter(filter);
+            }
+        });
+    }
+
+    /**
+     * @see Store#isEmpty()
+     */
+    public void isEmpty(Callback<Boolean> callback) {
+        readExecutor.execute(new Operation<Boolean>(callback) {
+            @Override
+            Boolean call() {
+                return store.isEmpty();
+            }
+        });
+    }
+
+    /**
+     * @see Store#count()
+     */
+    public void count(Callback<Long> callback) {
+        readExecutor.execute(new Operation<Long>(callback) {
+            @Override
+            Long call() {
+                return store.count();
+            }
+        });
+    }
+
+    /**
+     * @see Store#count(ReadFilter)
+     */
+    public void count(final ReadFilter filter, Callback<Long> callback) {
+        readExecutor.execute(new Operation<Long>(callback) {
+            @Override
+            Long call() {
+                return store.count(filter);
+            }
+        });
+    }
+
+    /**
+     * Saves the item and passes it to the callback, along with the id the
+     * store may have generated for it.
+     *
+     * @see Store#save(Object)
+     */
+    public void save(final T item, Callback<T> callback) {
+        writeExecutor.execute(new Operation<T>(callback) {
+            @Override
+            T call() {
+                store.save(item);
+                return item;
+            }
+        });
+    }
+
+    /**
+     * @see Store#save(Collection)
+     */
+    public void save(final Collection<T> items, Callback<Collection<T>> callback) {
+        writeExecutor.execute(new Operation<Collection<T>>(callback) {
+            @Override
+            Collection<T> call() {
+                store.save(items);
+                return items;
+            }
+        });
+    }
+
+    /**
+     * @see Store#remove(Serializable)
+     */
+    public void remove(final Serializable id, Callback<Void> callback) {
+        writeExecutor.execute(new Operation<Void>(callback) {
+            @Override
+            Void call() {
+                store.remove(id);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @see Store#remove(Collection)
+     */
+    public void remove(final Collection<? extends Serializable> ids, Callback<Void> callback) {
+        writeExecutor.execute(new Operation<Void>(callback) {
+            @Override
+            Void call() {
+                store.remove(ids);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @see Store#removeWithFilter(ReadFilter)
+     */
+    public void removeWithFilter(final ReadFilter filter, Callback<Void> callback) {
+        writeExecutor.execute(new Operation<Void>(callback) {
+            @Override
+            Void call() {
+                store.removeWithFilter(filter);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @see Store#reset()
+     */
+    public void reset(Callback<Void> callback) {
+        writeExecutor.execute(new Operation<Void>(callback) {
+            @Override
+            Void call() {
+                store.reset();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Receives the items of {@link #iterate(Visitor, Callback)}.
+     *
+     * @param <T> the type of the stored objects
+     */
+    public interface Visitor<T> {
+
+        /**
+         * @param item the next item of the store
+         * @return true to go on with the next item, false to stop
+         */
+        boolean visit(T item);
+
+    }
+
+    /**
+     * Calls the store and hands the outcome to the callback executor.
+     */
+    private abstract class Operation<R> implements Runnable {
+
+        private final Callback<R> callback;
+
+        Operation(Callback<R> callback) {
+            this.callback = callback;
+        }
+
+        abstract R call();
+
+        @Override
+        public final void run() {
+            R result;
+            try {
+                result = call();
+            } catch (final Exception e) {
+                deliverFailure(e);
+                return;
+            }
+            deliverSuccess(result);
+        }
+
+        private void deliverSuccess(final R result) {
+            if (callback != null) {
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onSuccess(result);
+                    }
+                });
+            }
+        }
+
+        private void deliverFailure(final Exception e) {
+            if (callback != null) {
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onFailure(e);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Hands tasks to an executor one at a time, in submission order.
+     */
+    private static final class SerialExecutor implements Executor {
+
+        private final Executor executor;
+        private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+        private Runnable active;
+
+        SerialExecutor(Executor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public synchronized void execute(final Runnable task) {
+            tasks.offer(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        scheduleNext();
+                    }
+                }
+            });
+            if (active == null) {
+                scheduleNext();
+            }
+        }
+
+        private synchronized void scheduleNext() {
+            active = tasks.poll();
+            if (active != null) {
+                executor.execute(active);
+            }
+        }
+    }
+
+}
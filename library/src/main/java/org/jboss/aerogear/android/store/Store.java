@@ -34,6 +34,16 @@ public interface Store<T> {
      */
     public Collection<T> readAll();
 
+    /**
+     * Lazily iterates over all the data from the underlying storage system,
+     * materializing one object/record at a time.
+     *
+     * The iterator must be closed if it is not consumed until the end.
+     *
+     * @return CloseableIterator of T
+     */
+    public CloseableIterator<T> iterator();
+
     /**
      * Reads a specific object/record from the underlying storage system.
      * 
@@ -76,6 +86,22 @@ public interface Store<T> {
      */
     public void remove(Serializable id);
 
+    /**
+     * Removes the objects/records with the given ids from the underlying
+     * storage system.
+     *
+     * @param ids Ids of the items to remove
+     */
+    public void remove(Collection<? extends Serializable> ids);
+
+    /**
+     * Removes the objects/records {@link #readWithFilter(ReadFilter)} would
+     * return for the same filter from the underlying storage system.
+     *
+     * @param filter a filter to use to select the objects to remove
+     */
+    public void removeWithFilter(ReadFilter filter);
+
     /**
      * Checks if the storage system contains no stored elements.
      * 
@@ -83,4 +109,21 @@ public interface Store<T> {
      */
     public boolean isEmpty();
 
+    /**
+     * Counts the stored objects/records without reading them.
+     *
+     * @return the number of stored elements
+     */
+    public long count();
+
+    /**
+     * Counts the objects/records {@link #readWithFilter(ReadFilter)} would
+     * return for the same filter, limit and offset included, without reading
+     * them.
+     *
+     * @param filter a filter to use to count objects
+     * @return the number of matching elements
+     */
+    public long count(ReadFilter filter);
+
 }
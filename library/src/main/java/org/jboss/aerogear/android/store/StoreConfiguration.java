@@ -17,6 +17,8 @@
 package org.jboss.aerogear.android.store;
 
 import org.jboss.aerogear.android.core.Config;
+import org.jboss.aerogear.android.store.metrics.HistogramMetrics;
+import org.jboss.aerogear.android.store.metrics.StoreMetrics;
 
 import java.util.Collection;
 import java.util.HashSet;
@@ -26,6 +28,7 @@ public abstract class StoreConfiguration<CONFIGURATION extends StoreConfiguratio
 
     private String name;
     private Collection<OnStoreCreatedListener> listeners;
+    private StoreMetrics metrics;
 
     public StoreConfiguration() {
         listeners = new HashSet<OnStoreCreatedListener>();
@@ -56,6 +59,23 @@ public abstract class StoreConfiguration<CONFIGURATION extends StoreConfiguratio
         return (CONFIGURATION) this;
     }
 
+    public StoreMetrics getStoreMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Reports the latency, rows, bytes and cache hits of every operation of
+     * the stores built from this configuration to <code>metrics</code>, ie a
+     * {@link HistogramMetrics}.
+     *
+     * @param metrics the metrics to report to, null to report nothing
+     * @return the current configuration
+     */
+    public CONFIGURATION setStoreMetrics(StoreMetrics metrics) {
+        this.metrics = metrics;
+        return (CONFIGURATION) this;
+    }
+
     public final <TYPE> Store<TYPE> store(Class<TYPE> klass) {
         Store<TYPE> store = buildStore(klass);
         for (OnStoreCreatedListener listener : getOnStoreCreatedListeners()) {
@@ -0,0 +1,69 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.accessor;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+
+import java.io.Serializable;
+
+/**
+ * Reads and writes the properties of a model class for the stores.
+ *
+ * Models with a {@link org.jboss.aerogear.android.core.RecordId} field get
+ * an accessor generated at compile time when the store annotation processor
+ * is on the annotation processor path, see {@link EntityAccessors}. Other
+ * models are accessed through reflection.
+ *
+ * @param <T> the model class
+ */
+public interface EntityAccessor<T> {
+
+    /**
+     * @return the name of the field annotated with
+     * {@link org.jboss.aerogear.android.core.RecordId}
+     */
+    String getRecordIdName();
+
+    /**
+     * @return the record id of the entity, or null if it has none yet
+     */
+    Serializable getRecordId(T entity);
+
+    void setRecordId(T entity, Serializable id);
+
+    /**
+     * @param name the name of a field of the model
+     * @return the value of the field, read the way
+     * {@link org.jboss.aerogear.android.core.reflection.Property} reads it
+     * @throws org.jboss.aerogear.android.core.reflection.FieldNotFoundException
+     * if the model has no such field
+     * @throws org.jboss.aerogear.android.core.reflection.PropertyNotFoundException
+     * if the field has no accessors
+     */
+    Object getProperty(T entity, String name);
+
+    /**
+     * @param gson the Gson the adapter is used by, resolving the adapters of
+     * the property types
+     * @return an adapter serializing the model like Gson's reflective
+     * adapter does, or null if the model can only be hydrated through
+     * reflection
+     */
+    TypeAdapter<T> createTypeAdapter(Gson gson);
+
+}
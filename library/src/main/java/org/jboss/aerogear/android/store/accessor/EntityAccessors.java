@@ -0,0 +1,166 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.accessor;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the {@link EntityAccessor} of a model class.
+ *
+ * The store annotation processor generates an accessor for every class
+ * declaring a {@link org.jboss.aerogear.android.core.RecordId} field, with
+ * id and property getters and a Gson type adapter that needs no reflection.
+ * Add it to the annotation processor path of the module holding the models:
+ *
+ * <pre>
+ * annotationProcessor 'org.jboss.aerogear:aerogear-android-store-processor:&lt;version&gt;'
+ * </pre>
+ *
+ * Models without a generated accessor, including subclasses of generated
+ * models, are accessed through reflection.
+ */
+public final class EntityAccessors {
+
+    static final String SUFFIX = "_EntityAccessor";
+
+    private static final Map<Class<?>, EntityAccessor<?>> ACCESSORS = new ConcurrentHashMap<Class<?>, EntityAccessor<?>>();
+    private static final Map<Class<?>, Boolean> GENERATED = new ConcurrentHashMap<Class<?>, Boolean>();
+    private static final Gson DEFAULT_GSON = new Gson();
+
+    private EntityAccessors() {
+    }
+
+    /**
+     * @return the generated accessor of the class, or a reflective one if
+     * it has none
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> EntityAccessor<T> of(Class<T> klass) {
+        EntityAccessor<T> accessor = (EntityAccessor<T>) ACCESSORS.get(klass);
+        if (accessor == null) {
+            accessor = generated(klass);
+            if (accessor == null) {
+                accessor = new ReflectionEntityAccessor<T>(klass);
+            }
+            ACCESSORS.put(klass, accessor);
+        }
+        return accessor;
+    }
+
+    /**
+     * Creates the Gson of a store from <code>builder</code>, which is left
+     * as it is.
+     *
+     * With <code>generatedAdapters</code> the generated type adapters
+     * serialize the models that have one, everything else is left to the
+     * Gson <code>builder</code> creates. The generated adapters write what
+     * Gson's reflective adapter writes with the default configuration, so
+     * they are skipped for models with an adapter registered on
+     * <code>builder</code> and with a field naming policy. Exclusion
+     * strategies are not visible from Gson's public API: don't use the
+     * generated adapters with them.
+     *
+     * A field declared as a generated model but holding a subclass without
+     * an accessor of its own is written as the declared model.
+     *
+     * @param builder the Gson configuration of the store
+     * @param generatedAdapters true to use the generated type adapters
+     */
+    public static Gson createGson(GsonBuilder builder, boolean generatedAdapters) {
+        Gson configured = builder.create();
+        if (!generatedAdapters || configured.fieldNamingStrategy() != FieldNamingPolicy.IDENTITY) {
+            return configured;
+        }
+        GsonBuilder withGenerated = new GsonBuilder().registerTypeAdapterFactory(new GeneratedAdapterFactory(configured));
+        if (configured.serializeNulls()) {
+            withGenerated.serializeNulls();
+        }
+        if (!configured.htmlSafe()) {
+            withGenerated.disableHtmlEscaping();
+        }
+        return withGenerated.create();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> EntityAccessor<T> generated(Class<T> klass) {
+        if (klass.isPrimitive() || klass.isArray() || klass.isInterface() || Boolean.FALSE.equals(GENERATED.get(klass))) {
+            return null;
+        }
+        EntityAccessor<T> accessor = null;
+        try {
+            Class<?> generated = Class.forName(klass.getName() + SUFFIX, true, klass.getClassLoader());
+            if (GeneratedEntityAccessor.class.isAssignableFrom(generated)) {
+                accessor = (EntityAccessor<T>) generated.newInstance();
+            }
+        } catch (ClassNotFoundException e) {
+            accessor = null;
+        } catch (InstantiationException e) {
+            throw new IllegalStateException("Can't create the generated accessor of " + klass.getName(), e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Can't create the generated accessor of " + klass.getName(), e);
+        }
+        GENERATED.put(klass, accessor != null);
+        return accessor;
+    }
+
+    /**
+     * Serves the generated adapters, and every other adapter from the Gson
+     * the store was configured with.
+     */
+    private static final class GeneratedAdapterFactory implements TypeAdapterFactory {
+
+        private final Gson configured;
+
+        GeneratedAdapterFactory(Gson configured) {
+            this.configured = configured;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            if (type.getType() == type.getRawType()) {
+                Class<T> klass = (Class<T>) type.getRawType();
+                EntityAccessor<T> accessor = (EntityAccessor<T>) ACCESSORS.get(klass);
+                if (accessor == null) {
+                    accessor = generated(klass);
+                    if (accessor != null) {
+                        ACCESSORS.put(klass, accessor);
+                    }
+                }
+                if (accessor instanceof GeneratedEntityAccessor) {
+                    TypeAdapter<T> own = configured.getAdapter(type);
+                    if (own.getClass() != DEFAULT_GSON.getAdapter(type).getClass()) {
+                        return own;
+                    }
+                    TypeAdapter<T> adapter = accessor.createTypeAdapter(gson);
+                    return adapter != null ? adapter : own;
+                }
+            }
+            return configured.getAdapter(type);
+        }
+
+    }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.accessor;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.internal.bind.ReflectiveTypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+
+/**
+ * The base class of the accessors generated by the store annotation
+ * processor. Generated accessors are found by name: the accessor of
+ * <code>com.example.Model</code> is
+ * <code>com.example.Model_EntityAccessor</code>, and the accessor of a
+ * nested class <code>Outer.Model</code> is
+ * <code>Outer$Model_EntityAccessor</code>.
+ *
+ * Properties the processor couldn't read without reflection are read by
+ * {@link #getProperty(Object, String)} of this class.
+ */
+public abstract class GeneratedEntityAccessor<T> implements EntityAccessor<T> {
+
+    private final String recordIdName;
+    private final ReflectionEntityAccessor<T> reflection;
+
+    protected GeneratedEntityAccessor(Class<T> klass, String recordIdName) {
+        this.recordIdName = recordIdName;
+        this.reflection = new ReflectionEntityAccessor<T>(klass);
+    }
+
+    @Override
+    public final String getRecordIdName() {
+        return recordIdName;
+    }
+
+    @Override
+    public Object getProperty(T entity, String name) {
+        return reflection.getProperty(entity, name);
+    }
+
+    @Override
+    public TypeAdapter<T> createTypeAdapter(Gson gson) {
+        return null;
+    }
+
+    /**
+     * The base class of generated type adapters, which write the fields of
+     * the model in the order and with the names Gson's reflective adapter
+     * uses.
+     */
+    protected abstract static class GeneratedTypeAdapter<T> extends TypeAdapter<T> {
+
+        protected final Gson gson;
+
+        protected GeneratedTypeAdapter(Gson gson) {
+            this.gson = gson;
+        }
+
+        /**
+         * Writes a field value with the adapter of its runtime type when that
+         * is more specific than its declared type, the way Gson's
+         * reflective adapter does.
+         */
+        @SuppressWarnings("unchecked")
+        protected <V> void writeField(JsonWriter out, TypeAdapter<V> declared, Type declaredType, V value)
+                throws IOException {
+            TypeAdapter<V> chosen = declared;
+            if (value != null && (declaredType == Object.class || declaredType instanceof TypeVariable
+                    || declaredType instanceof Class) && value.getClass() != declaredType) {
+                TypeAdapter<V> runtime = (TypeAdapter<V>) gson.getAdapter(TypeToken.get(value.getClass()));
+                if (!isReflective(runtime) || isReflective(declared)) {
+                    chosen = runtime;
+                }
+            }
+            chosen.write(out, value);
+        }
+
+        private static boolean isReflective(TypeAdapter<?> adapter) {
+            return adapter instanceof ReflectiveTypeAdapterFactory.Adapter || adapter instanceof GeneratedTypeAdapter;
+        }
+
+    }
+
+}
@@ -0,0 +1,86 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.accessor;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+
+import org.jboss.aerogear.android.core.reflection.Property;
+import org.jboss.aerogear.android.core.reflection.Scan;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Accesses a model through reflection, for models without a generated
+ * accessor. The reflective lookups are done once per property.
+ */
+final class ReflectionEntityAccessor<T> implements EntityAccessor<T> {
+
+    private final Class<T> klass;
+    private final Map<String, Property> properties = new ConcurrentHashMap<String, Property>();
+    private volatile Property recordId;
+
+    ReflectionEntityAccessor(Class<T> klass) {
+        this.klass = klass;
+    }
+
+    @Override
+    public String getRecordIdName() {
+        return recordIdProperty().getFieldName();
+    }
+
+    @Override
+    public Serializable getRecordId(T entity) {
+        return (Serializable) recordIdProperty().getValue(entity);
+    }
+
+    @Override
+    public void setRecordId(T entity, Serializable id) {
+        recordIdProperty().setValue(entity, id);
+    }
+
+    @Override
+    public Object getProperty(T entity, String name) {
+        Property property = properties.get(name);
+        if (property == null) {
+            property = new Property(klass, name);
+            properties.put(name, property);
+        }
+        return property.getValue(entity);
+    }
+
+    @Override
+    public TypeAdapter<T> createTypeAdapter(Gson gson) {
+        return null;
+    }
+
+    /**
+     * Resolved on first use, so a model without a record id or its
+     * accessors fails when an entity is saved, as it always did.
+     */
+    private Property recordIdProperty() {
+        Property property = recordId;
+        if (property == null) {
+            property = new Property(klass, Scan.recordIdFieldNameIn(klass));
+            recordId = property;
+        }
+        return property;
+    }
+
+}
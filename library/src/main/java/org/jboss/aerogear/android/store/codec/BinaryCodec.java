@@ -0,0 +1,526 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Encodes entities in a compact binary layout, written straight from the
+ * Gson type adapters without building JSON text.
+ *
+ * Every value starts with a one byte tag. Integers are zigzag varints,
+ * doubles take 8 bytes and strings are a varint byte count followed by
+ * UTF-8. Objects list their members and end with a 0; a member name is
+ * written once per entity and referenced by its position afterwards, so
+ * lists of objects don't repeat their field names.
+ */
+public class BinaryCodec implements EntityCodec {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int END = 0;
+    private static final int NULL = 1;
+    private static final int TRUE = 2;
+    private static final int FALSE = 3;
+    private static final int LONG = 4;
+    private static final int DOUBLE = 5;
+    private static final int STRING = 6;
+    private static final int NUMBER = 7;
+    private static final int OBJECT = 8;
+    private static final int ARRAY = 9;
+
+    // Member references: 0 ends the object, 1 introduces a new name and
+    // 2 and up refer to the names already written
+    private static final int NEW_NAME = 1;
+    private static final int FIRST_NAME_REFERENCE = 2;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] encode(Gson gson, Object entity, Type type) {
+        BinaryWriter writer = new BinaryWriter();
+        gson.toJson(entity, type, writer);
+        return writer.output.toByteArray();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T> T decode(Gson gson, byte[] data, Class<T> type) {
+        return gson.fromJson(decodeTree(data), type);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] encodeTree(JsonElement tree) {
+        BinaryWriter writer = new BinaryWriter();
+        try {
+            writer.write(tree);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+        return writer.output.toByteArray();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public JsonElement decodeTree(byte[] data) {
+        Input input = new Input(data);
+        if (data.length == 0 || input.readByte() != FORMAT_VERSION) {
+            throw new JsonParseException("Not an entity encoded by " + BinaryCodec.class.getSimpleName());
+        }
+        JsonElement tree = input.readValue(input.readByte());
+        if (input.position != data.length) {
+            throw new JsonParseException("Trailing bytes after the encoded entity");
+        }
+        return tree;
+    }
+
+    /**
+     * Growable byte buffer.
+     */
+    private static final class Output {
+
+        private byte[] bytes = new byte[128];
+        private int size;
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            bytes[size++] = (byte) value;
+        }
+
+        void writeVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void writeDouble(double value) {
+            long bits = Double.doubleToLongBits(value);
+            ensureCapacity(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[size++] = (byte) (bits >>> shift);
+            }
+        }
+
+        /**
+         * Writes the UTF-8 byte count of the string, then its UTF-8 bytes.
+         */
+        void writeUtf8(String value) {
+            int length = value.length();
+            int utf8Length = 0;
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    utf8Length++;
+                } else if (c < 0x800) {
+                    utf8Length += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    utf8Length += 4;
+                    i++;
+                } else {
+                    utf8Length += 3;
+                }
+            }
+
+            writeVarint(utf8Length);
+            ensureCapacity(utf8Length);
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    bytes[size++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[size++] = (byte) (0xC0 | (c >> 6));
+                    bytes[size++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    bytes[size++] = (byte) (0xF0 | (codePoint >> 18));
+                    bytes[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    bytes[size++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    // Unpaired surrogates are kept as is, like Java's modified UTF-8
+                    bytes[size++] = (byte) (0xE0 | (c >> 12));
+                    bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    bytes[size++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+
+    }
+
+    /**
+     * Reads the tree back from the bytes.
+     */
+    private static final class Input {
+
+        private final byte[] bytes;
+        private final List<String> names = new ArrayList<String>();
+        private int position;
+
+        Input(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int readByte() {
+            if (position >= bytes.length) {
+                throw new JsonParseException("Truncated entity");
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new JsonParseException("Malformed varint");
+        }
+
+        double readDouble() {
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | readByte();
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        String readUtf8() {
+            long length = readVarint();
+            if (length < 0 || length > bytes.length - position) {
+                throw new JsonParseException("Truncated entity");
+            }
+            char[] chars = new char[(int) length];
+            int count = 0;
+            int end = position + (int) length;
+            while (position < end) {
+                int b = bytes[position++] & 0xFF;
+                if (b < 0x80) {
+                    chars[count++] = (char) b;
+                } else if (b < 0xE0) {
+                    chars[count++] = (char) (((b & 0x1F) << 6) | continuation(end));
+                } else if (b < 0xF0) {
+                    chars[count++] = (char) (((b & 0x0F) << 12) | (continuation(end) << 6) | continuation(end));
+                } else {
+                    int codePoint = ((b & 0x07) << 18) | (continuation(end) << 12)
+                            | (continuation(end) << 6) | continuation(end);
+                    chars[count++] = Character.highSurrogate(codePoint);
+                    chars[count++] = Character.lowSurrogate(codePoint);
+                }
+            }
+            return new String(chars, 0, count);
+        }
+
+        private int continuation(int end) {
+            if (position >= end) {
+                throw new JsonParseException("Truncated string");
+            }
+            return bytes[position++] & 0x3F;
+        }
+
+        JsonElement readValue(int tag) {
+            switch (tag) {
+                case NULL:
+                    return JsonNull.INSTANCE;
+                case TRUE:
+                    return new JsonPrimitive(true);
+                case FALSE:
+                    return new JsonPrimitive(false);
+                case LONG:
+                    long zigzag = readVarint();
+                    return new JsonPrimitive((zigzag >>> 1) ^ -(zigzag & 1));
+                case DOUBLE:
+                    return new JsonPrimitive(readDouble());
+                case STRING:
+                    return new JsonPrimitive(readUtf8());
+                case NUMBER:
+                    return new JsonPrimitive(new BigDecimal(readUtf8()));
+                case OBJECT:
+                    JsonObject object = new JsonObject();
+                    for (int reference = (int) readVarint(); reference != END; reference = (int) readVarint()) {
+                        String name;
+                        if (reference == NEW_NAME) {
+                            name = readUtf8();
+                            names.add(name);
+                        } else if (reference - FIRST_NAME_REFERENCE < names.size()) {
+                            name = names.get(reference - FIRST_NAME_REFERENCE);
+                        } else {
+                            throw new JsonParseException("Unknown member name reference " + reference);
+                        }
+                        object.add(name, readValue(readByte()));
+                    }
+                    return object;
+                case ARRAY:
+                    JsonArray array = new JsonArray();
+                    for (int element = readByte(); element != END; element = readByte()) {
+                        array.add(readValue(element));
+                    }
+                    return array;
+                default:
+                    throw new JsonParseException("Unknown tag " + tag);
+            }
+        }
+
+    }
+
+    /**
+     * Receives the values the Gson type adapters write and encodes them as
+     * they come. The JSON text methods of the base class are never used.
+     */
+    private static final class BinaryWriter extends JsonWriter {
+
+        private static final Writer UNUSED = new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int count) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        private final Output output = new Output();
+        private final Map<String, Integer> names = new HashMap<String, Integer>();
+        private String deferredName;
+
+        BinaryWriter() {
+            super(UNUSED);
+            output.writeByte(FORMAT_VERSION);
+        }
+
+        void write(JsonElement tree) throws IOException {
+            if (tree.isJsonNull()) {
+                nullValue();
+            } else if (tree.isJsonPrimitive()) {
+                JsonPrimitive primitive = tree.getAsJsonPrimitive();
+                if (primitive.isBoolean()) {
+                    value(primitive.getAsBoolean());
+                } else if (primitive.isNumber()) {
+                    value(primitive.getAsNumber());
+                } else {
+                    value(primitive.getAsString());
+                }
+            } else if (tree.isJsonArray()) {
+                beginArray();
+                for (JsonElement element : tree.getAsJsonArray()) {
+                    write(element);
+                }
+                endArray();
+            } else {
+                beginObject();
+                for (Entry<String, JsonElement> member : tree.getAsJsonObject().entrySet()) {
+                    name(member.getKey());
+                    write(member.getValue());
+                }
+                endObject();
+            }
+        }
+
+        @Override
+        public JsonWriter beginArray() {
+            writeDeferredName();
+            output.writeByte(ARRAY);
+            return this;
+        }
+
+        @Override
+        public JsonWriter endArray() {
+            output.writeByte(END);
+            return this;
+        }
+
+        @Override
+        public JsonWriter beginObject() {
+            writeDeferredName();
+            output.writeByte(OBJECT);
+            return this;
+        }
+
+        @Override
+        public JsonWriter endObject() {
+            output.writeVarint(END);
+            return this;
+        }
+
+        @Override
+        public JsonWriter name(String name) {
+            if (name == null) {
+                throw new NullPointerException("name == null");
+            }
+            deferredName = name;
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(String value) {
+            if (value == null) {
+                return nullValue();
+            }
+            writeDeferredName();
+            output.writeByte(STRING);
+            output.writeUtf8(value);
+            return this;
+        }
+
+        @Override
+        public JsonWriter jsonValue(String value) throws IOException {
+            if (value == null) {
+                return nullValue();
+            }
+            write(new JsonParser().parse(value));
+            return this;
+        }
+
+        @Override
+        public JsonWriter nullValue() {
+            if (deferredName != null && !getSerializeNulls()) {
+                // Like JsonWriter, drops the member altogether
+                deferredName = null;
+                return this;
+            }
+            writeDeferredName();
+            output.writeByte(NULL);
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(boolean value) {
+            writeDeferredName();
+            output.writeByte(value ? TRUE : FALSE);
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(Boolean value) {
+            return (value == null) ? nullValue() : value(value.booleanValue());
+        }
+
+        @Override
+        public JsonWriter value(double value) {
+            writeDeferredName();
+            output.writeByte(DOUBLE);
+            output.writeDouble(value);
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(long value) {
+            writeDeferredName();
+            output.writeByte(LONG);
+            output.writeVarint((value << 1) ^ (value >> 63));
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(Number value) {
+            if (value == null) {
+                return nullValue();
+            }
+            if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                return value(value.longValue());
+            }
+            if (value instanceof Double) {
+                return value(value.doubleValue());
+            }
+            if (value instanceof Float) {
+                // Widened through its shortest text, so 0.1f reads back as 0.1
+                return value(Double.parseDouble(value.toString()));
+            }
+            if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64) {
+                return value(value.longValue());
+            }
+            writeDeferredName();
+            output.writeByte(NUMBER);
+            output.writeUtf8(value.toString());
+            return this;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private void writeDeferredName() {
+            if (deferredName == null) {
+                return;
+            }
+            Integer index = names.get(deferredName);
+            if (index == null) {
+                names.put(deferredName, names.size());
+                output.writeVarint(NEW_NAME);
+                output.writeUtf8(deferredName);
+            } else {
+                output.writeVarint(FIRST_NAME_REFERENCE + index);
+            }
+            deferredName = null;
+        }
+
+    }
+
+}
@@ -0,0 +1,63 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+
+import java.lang.reflect.Type;
+
+/**
+ * Turns entities into the bytes a store keeps and back.
+ *
+ * Entities are converted with the type adapters of the store's
+ * {@link Gson}, so a codec only decides how the converted values are laid
+ * out. The tree methods let schema migrations rewrite stored entities
+ * without knowing their class.
+ */
+public interface EntityCodec {
+
+    /**
+     * @param gson the Gson of the store
+     * @param entity the entity to encode
+     * @param type the type <code>entity</code> is declared as
+     * @return the encoded entity
+     */
+    byte[] encode(Gson gson, Object entity, Type type);
+
+    /**
+     * @param gson the Gson of the store
+     * @param data bytes returned by {@link #encode(Gson, Object, Type)} or
+     * {@link #encodeTree(JsonElement)}
+     * @param type the class of the entity
+     * @return the decoded entity
+     * @throws com.google.gson.JsonParseException if the data is malformed
+     */
+    <T> T decode(Gson gson, byte[] data, Class<T> type);
+
+    /**
+     * @return the tree encoded the way {@link #encode(Gson, Object, Type)}
+     * encodes the entity it was converted from
+     */
+    byte[] encodeTree(JsonElement tree);
+
+    /**
+     * @throws com.google.gson.JsonParseException if the data is malformed
+     */
+    JsonElement decodeTree(byte[] data);
+
+}
@@ -0,0 +1,97 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+
+/**
+ * Encodes entities as UTF-8 JSON text, the format the stores used before
+ * codecs could be chosen. This is the default codec.
+ */
+public class GsonCodec implements EntityCodec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // Trees are written as they are: null members were already dropped
+    // when the store's Gson built them, unless it serializes nulls
+    private static final Gson TREE_GSON = new GsonBuilder().serializeNulls().create();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] encode(Gson gson, Object entity, Type type) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(bytes, UTF_8);
+        gson.toJson(entity, type, writer);
+        return toByteArray(bytes, writer);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T> T decode(Gson gson, byte[] data, Class<T> type) {
+        return gson.fromJson(reader(data), type);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] encodeTree(JsonElement tree) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(bytes, UTF_8);
+        TREE_GSON.toJson(tree, writer);
+        return toByteArray(bytes, writer);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public JsonElement decodeTree(byte[] data) {
+        return new JsonParser().parse(reader(data));
+    }
+
+    private static Reader reader(byte[] data) {
+        return new InputStreamReader(new ByteArrayInputStream(data), UTF_8);
+    }
+
+    private static byte[] toByteArray(ByteArrayOutputStream bytes, Writer writer) {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+}
@@ -18,12 +18,19 @@ package org.jboss.aerogear.android.store.memory;
 
 import android.content.Context;
 
+import com.google.gson.GsonBuilder;
+
 import org.jboss.aerogear.android.core.ReadFilter;
 import org.jboss.aerogear.android.security.EncryptionService;
 import org.jboss.aerogear.android.security.InvalidKeyException;
 import org.jboss.aerogear.android.security.keystore.KeyStoreBasedEncryptionConfiguration;
+import org.jboss.aerogear.android.store.CloseableIterator;
 import org.jboss.aerogear.android.store.Store;
+import org.jboss.aerogear.android.store.codec.EntityCodec;
+import org.jboss.aerogear.android.store.codec.GsonCodec;
 import org.jboss.aerogear.android.store.generator.IdGenerator;
+import org.jboss.aerogear.android.store.metrics.OperationRecorder;
+import org.jboss.aerogear.android.store.metrics.StoreOperation;
 import org.jboss.aerogear.android.store.util.CryptoEntityUtil;
 import org.jboss.aerogear.crypto.RandomUtils;
 
@@ -36,23 +43,50 @@ public class EncryptedMemoryStore<T> implements Store<T> {
 
     private final MemoryStore<byte[]> memoryStore;
     private final CryptoEntityUtil<T> cryptoEntityUtil;
+    private final OperationRecorder recorder;
 
     public EncryptedMemoryStore(Context context, IdGenerator idGenerator, String password, Class<T> modelClass) {
+        this(context, idGenerator, password, modelClass, new GsonCodec());
+    }
+
+    /**
+     * @param codec encodes the entities before they are encrypted
+     */
+    public EncryptedMemoryStore(Context context, IdGenerator idGenerator, String password, Class<T> modelClass,
+                                EntityCodec codec) {
+        this(idGenerator, keyStoreService(context, password, modelClass), modelClass, codec);
+    }
+
+    /**
+     * @param encryptionService encrypts the entities instead of a service
+     * backed by the platform KeyStore
+     * @param codec encodes the entities before they are encrypted
+     */
+    public EncryptedMemoryStore(IdGenerator idGenerator, EncryptionService encryptionService, Class<T> modelClass,
+                                EntityCodec codec) {
+        this(idGenerator, encryptionService, modelClass, codec, OperationRecorder.disabled());
+    }
+
+    EncryptedMemoryStore(IdGenerator idGenerator, EncryptionService encryptionService, Class<T> modelClass,
+                         EntityCodec codec, OperationRecorder recorder) {
 
         memoryStore = new MemoryStore<byte[]>(idGenerator);
 
         byte[] iv = RandomUtils.randomBytes();
 
-        EncryptionService encryptionService = org.jboss.aerogear.android.security.SecurityManager
+        cryptoEntityUtil = new CryptoEntityUtil<T>(encryptionService, iv, modelClass, new GsonBuilder(), codec);
+        this.recorder = recorder;
+
+    }
+
+    static EncryptionService keyStoreService(Context context, String password, Class<?> modelClass) {
+        return org.jboss.aerogear.android.security.SecurityManager
                 .config(modelClass.getName(), KeyStoreBasedEncryptionConfiguration.class)
                 .setContext(context)
                 .setAlias(modelClass.getName())
                 .setKeyStoreFile(modelClass.getName())
                 .setPassword(password)
                 .asService();
-
-        cryptoEntityUtil = new CryptoEntityUtil<T>(encryptionService, iv, modelClass);
-
     }
 
     /**
@@ -60,30 +94,74 @@ public class EncryptedMemoryStore<T> implements Store<T> {
      */
     @Override
     public Collection<T> readAll() throws InvalidKeyException {
+        long start = recorder.begin();
         ArrayList<T> dataList = new ArrayList<T>();
 
         Collection<byte[]> encryptedCollection = memoryStore.readAll();
         for (byte[] encryptedData : encryptedCollection) {
-            T decryptedData = cryptoEntityUtil.decrypt(encryptedData);
+            T decryptedData = decrypt(encryptedData);
             dataList.add(decryptedData);
         }
 
+        recorder.end(StoreOperation.READ_ALL, start, dataList.size());
         return dataList;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Entities are decrypted one at a time as the iterator advances.
+     */
+    @Override
+    public CloseableIterator<T> iterator() throws InvalidKeyException {
+        long start = recorder.begin();
+        final CloseableIterator<byte[]> encryptedIterator = memoryStore.iterator();
+        recorder.end(StoreOperation.ITERATOR, start, 0);
+        return new CloseableIterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return encryptedIterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return cryptoEntityUtil.decrypt(encryptedIterator.next());
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+                encryptedIterator.close();
+            }
+        };
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public T read(Serializable id) throws InvalidKeyException {
+        long start = recorder.begin();
         byte[] encryptedItem = memoryStore.read(id);
         if (encryptedItem == null) {
+            recorder.end(StoreOperation.READ, start, 0);
             return null;
         } else {
-            return cryptoEntityUtil.decrypt(encryptedItem);
+            T item = decrypt(encryptedItem);
+            recorder.end(StoreOperation.READ, start, 1);
+            return item;
         }
     }
 
+    private T decrypt(byte[] encryptedData) {
+        recorder.addBytes(encryptedData.length);
+        return cryptoEntityUtil.decrypt(encryptedData);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -97,8 +175,9 @@ public class EncryptedMemoryStore<T> implements Store<T> {
      */
     @Override
     public void save(T item) {
-        Serializable idValue = memoryStore.getOrGenerateIdValue(item);
-        memoryStore.save(idValue, cryptoEntityUtil.encrypt(item));
+        long start = recorder.begin();
+        saveItem(item);
+        recorder.end(StoreOperation.SAVE, start, 1);
     }
 
     /**
@@ -106,9 +185,18 @@ public class EncryptedMemoryStore<T> implements Store<T> {
      */
     @Override
     public void save(Collection<T> items) {
+        long start = recorder.begin();
         for (T item : items) {
-            save(item);
+            saveItem(item);
         }
+        recorder.end(StoreOperation.SAVE, start, items.size());
+    }
+
+    private void saveItem(T item) {
+        Serializable idValue = memoryStore.getOrGenerateIdValue(item);
+        byte[] encryptedItem = cryptoEntityUtil.encrypt(item);
+        recorder.addBytes(encryptedItem.length);
+        memoryStore.save(idValue, encryptedItem);
     }
 
     /**
@@ -116,7 +204,9 @@ public class EncryptedMemoryStore<T> implements Store<T> {
      */
     @Override
     public void reset() {
+        long start = recorder.begin();
         memoryStore.reset();
+        recorder.end(StoreOperation.RESET, start, 0);
     }
 
     /**
@@ -124,7 +214,27 @@ public class EncryptedMemoryStore<T> implements Store<T> {
      */
     @Override
     public void remove(Serializable id) {
+        long start = recorder.begin();
         memoryStore.remove(id);
+        recorder.end(StoreOperation.REMOVE, start, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove(Collection<? extends Serializable> ids) {
+        long start = recorder.begin();
+        memoryStore.remove(ids);
+        recorder.end(StoreOperation.REMOVE, start, ids.size());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeWithFilter(ReadFilter filter) {
+        throw new UnsupportedOperationException();
     }
 
     /**
@@ -132,7 +242,29 @@ public class EncryptedMemoryStore<T> implements Store<T> {
      */
     @Override
     public boolean isEmpty() {
-        return memoryStore.isEmpty();
+        long start = recorder.begin();
+        boolean result = memoryStore.isEmpty();
+        recorder.end(StoreOperation.IS_EMPTY, start, 0);
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count() {
+        long start = recorder.begin();
+        long result = memoryStore.count();
+        recorder.end(StoreOperation.COUNT, start, result);
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count(ReadFilter filter) {
+        throw new UnsupportedOperationException();
     }
 
 }
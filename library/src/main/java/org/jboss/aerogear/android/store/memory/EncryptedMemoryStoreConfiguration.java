@@ -19,10 +19,15 @@ package org.jboss.aerogear.android.store.memory;
 import android.content.Context;
 
 import org.jboss.aerogear.android.core.Config;
+import org.jboss.aerogear.android.security.EncryptionService;
 import org.jboss.aerogear.android.store.Store;
 import org.jboss.aerogear.android.store.StoreConfiguration;
+import org.jboss.aerogear.android.store.codec.BinaryCodec;
+import org.jboss.aerogear.android.store.codec.EntityCodec;
+import org.jboss.aerogear.android.store.codec.GsonCodec;
 import org.jboss.aerogear.android.store.generator.DefaultIdGenerator;
 import org.jboss.aerogear.android.store.generator.IdGenerator;
+import org.jboss.aerogear.android.store.metrics.OperationRecorder;
 
 public final class EncryptedMemoryStoreConfiguration extends StoreConfiguration<EncryptedMemoryStoreConfiguration>
         implements Config<EncryptedMemoryStoreConfiguration> {
@@ -30,6 +35,8 @@ public final class EncryptedMemoryStoreConfiguration extends StoreConfiguration<
     private Context context;
     private IdGenerator idGenerator = new DefaultIdGenerator();
     private String password;
+    private EncryptionService encryptionService;
+    private EntityCodec codec = new GsonCodec();
 
     public EncryptedMemoryStoreConfiguration withContext(Context context) {
         this.context = context;
@@ -41,19 +48,51 @@ public final class EncryptedMemoryStoreConfiguration extends StoreConfiguration<
         return this;
     }
 
+    /**
+     * Selects how entities are encoded before they are encrypted.
+     * {@link BinaryCodec} produces smaller buffers and skips JSON text
+     * altogether.
+     *
+     * Defaults to {@link GsonCodec}.
+     *
+     * @param codec the codec to use
+     * @return the current configuration
+     */
+    public EncryptedMemoryStoreConfiguration withCodec(EntityCodec codec) {
+        this.codec = codec;
+        return this;
+    }
+
     public EncryptedMemoryStoreConfiguration usingPassword(String passphrase) {
         this.password = passphrase;
         return this;
     }
 
+    /**
+     * Encrypts the entities with <code>encryptionService</code> instead of
+     * the service backed by a KeyStore the password protects, ie to manage
+     * keys differently or to run on a JVM without the platform KeyStore. The
+     * password isn't needed then.
+     *
+     * @param encryptionService the service that encrypts the entities
+     * @return the current configuration
+     */
+    public EncryptedMemoryStoreConfiguration withEncryptionService(EncryptionService encryptionService) {
+        this.encryptionService = encryptionService;
+        return this;
+    }
+
 
     @Override
     protected <TYPE> Store<TYPE> buildStore(Class<TYPE> klass) {
-        if ((context == null) || (klass == null) || (password == null)) {
+        if ((klass == null) || ((encryptionService == null) && ((context == null) || (password == null)))) {
             throw new IllegalStateException("Context, Klass and Passphrase are mandatory");
         }
 
-        return new EncryptedMemoryStore<>(context, idGenerator, password, klass);
+        EncryptionService service = (encryptionService != null)
+                ? encryptionService
+                : EncryptedMemoryStore.keyStoreService(context, password, klass);
+        return new EncryptedMemoryStore<>(idGenerator, service, klass, codec, OperationRecorder.of(this, klass));
     }
 
 }
@@ -17,30 +17,39 @@
 package org.jboss.aerogear.android.store.memory;
 
 import org.jboss.aerogear.android.core.ReadFilter;
-import org.jboss.aerogear.android.core.reflection.Property;
-import org.jboss.aerogear.android.core.reflection.Scan;
+import org.jboss.aerogear.android.store.CloseableIterator;
 import org.jboss.aerogear.android.store.Store;
+import org.jboss.aerogear.android.store.accessor.EntityAccessor;
+import org.jboss.aerogear.android.store.accessor.EntityAccessors;
 import org.jboss.aerogear.android.store.generator.IdGenerator;
+import org.jboss.aerogear.android.store.metrics.OperationRecorder;
+import org.jboss.aerogear.android.store.metrics.StoreOperation;
 import org.json.JSONObject;
 
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Memory implementation of Store {@link Store}.
  */
 public class MemoryStore<T> implements Store<T> {
 
-    private final Map<Serializable, T> data = new HashMap<Serializable, T>();
+    private final Map<Serializable, T> data = new ConcurrentHashMap<Serializable, T>();
     private final IdGenerator idGenerator;
+    private final OperationRecorder recorder;
 
     public MemoryStore(IdGenerator idGenerator) {
+        this(idGenerator, OperationRecorder.disabled());
+    }
+
+    MemoryStore(IdGenerator idGenerator, OperationRecorder recorder) {
         this.idGenerator = idGenerator;
+        this.recorder = recorder;
     }
 
     /**
@@ -48,7 +57,40 @@ public class MemoryStore<T> implements Store<T> {
      */
     @Override
     public Collection<T> readAll() {
-        return data.values();
+        long start = recorder.begin();
+        Collection<T> result = data.values();
+        recorder.end(StoreOperation.READ_ALL, start, result.size());
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CloseableIterator<T> iterator() {
+        long start = recorder.begin();
+        final Iterator<T> values = data.values().iterator();
+        recorder.end(StoreOperation.ITERATOR, start, 0);
+        return new CloseableIterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return values.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return values.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
     }
 
     /**
@@ -56,7 +98,10 @@ public class MemoryStore<T> implements Store<T> {
      */
     @Override
     public T read(Serializable id) {
-        return data.get(id);
+        long start = recorder.begin();
+        T result = data.get(id);
+        recorder.end(StoreOperation.READ, start, (result == null) ? 0 : 1);
+        return result;
     }
 
     /*
@@ -64,8 +109,9 @@ public class MemoryStore<T> implements Store<T> {
      */
     @Override
     public void save(T item) {
-        Serializable idValue = getOrGenerateIdValue(item);
-        save(idValue, item);
+        long start = recorder.begin();
+        save(getOrGenerateIdValue(item), item);
+        recorder.end(StoreOperation.SAVE, start, 1);
     }
 
     /*
@@ -73,9 +119,11 @@ public class MemoryStore<T> implements Store<T> {
      */
     @Override
     public void save(Collection<T> items) {
+        long start = recorder.begin();
         for (T item : items) {
-            save(item);
+            save(getOrGenerateIdValue(item), item);
         }
+        recorder.end(StoreOperation.SAVE, start, items.size());
     }
 
     void save(Serializable id, T item) {
@@ -83,26 +131,31 @@ public class MemoryStore<T> implements Store<T> {
     }
 
     Serializable getOrGenerateIdValue(Object data) {
-        String recordIdFieldName = Scan.recordIdFieldNameIn(data.getClass());
+        EntityAccessor<Object> accessor = accessorOf(data);
 
-        Property property = new Property(data.getClass(), recordIdFieldName);
-
-        Serializable idValue = (Serializable) property.getValue(data);
+        Serializable idValue = accessor.getRecordId(data);
 
         if (idValue == null) {
             idValue = idGenerator.generate();
-            property.setValue(data, idValue);
+            accessor.setRecordId(data, idValue);
         }
 
         return idValue;
     }
 
+    @SuppressWarnings("unchecked")
+    private static <E> EntityAccessor<E> accessorOf(E data) {
+        return EntityAccessors.of((Class<E>) data.getClass());
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void reset() {
+        long start = recorder.begin();
         data.clear();
+        recorder.end(StoreOperation.RESET, start, 0);
     }
 
     /**
@@ -110,7 +163,53 @@ public class MemoryStore<T> implements Store<T> {
      */
     @Override
     public void remove(Serializable id) {
+        long start = recorder.begin();
         data.remove(id);
+        recorder.end(StoreOperation.REMOVE, start, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove(Collection<? extends Serializable> ids) {
+        long start = recorder.begin();
+        for (Serializable id : ids) {
+            data.remove(id);
+        }
+        recorder.end(StoreOperation.REMOVE, start, ids.size());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if filter.query has nested objects
+     */
+    @Override
+    public void removeWithFilter(ReadFilter filter) {
+        long start = recorder.begin();
+        if (filter == null) {
+            filter = new ReadFilter();
+        }
+        JSONObject where = filter.getWhere();
+        scanForNestedObjectsInWhereClause(where);
+
+        int limit = limitOf(filter);
+        int offset = offsetOf(filter);
+        int skipped = 0;
+        int removed = 0;
+        Iterator<T> values = data.values().iterator();
+        while (removed < limit && values.hasNext()) {
+            if (matches(values.next(), where)) {
+                if (skipped < offset) {
+                    skipped++;
+                } else {
+                    values.remove();
+                    removed++;
+                }
+            }
+        }
+        recorder.end(StoreOperation.REMOVE_WITH_FILTER, start, removed);
     }
 
     /**
@@ -118,7 +217,47 @@ public class MemoryStore<T> implements Store<T> {
      */
     @Override
     public boolean isEmpty() {
-        return data.isEmpty();
+        long start = recorder.begin();
+        boolean result = data.isEmpty();
+        recorder.end(StoreOperation.IS_EMPTY, start, 0);
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count() {
+        long start = recorder.begin();
+        long result = data.size();
+        recorder.end(StoreOperation.COUNT, start, result);
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if filter.query has nested objects
+     */
+    @Override
+    public long count(ReadFilter filter) {
+        long start = recorder.begin();
+        if (filter == null) {
+            filter = new ReadFilter();
+        }
+        JSONObject where = filter.getWhere();
+        scanForNestedObjectsInWhereClause(where);
+
+        long matches = 0;
+        for (T objectInStorage : data.values()) {
+            if (matches(objectInStorage, where)) {
+                matches++;
+            }
+        }
+        long paged = Math.max(matches - offsetOf(filter), 0);
+        long result = Math.min(paged, limitOf(filter));
+        recorder.end(StoreOperation.COUNT, start, result);
+        return result;
     }
 
     /**
@@ -128,6 +267,7 @@ public class MemoryStore<T> implements Store<T> {
      */
     @Override
     public List<T> readWithFilter(ReadFilter filter) {
+        long start = recorder.begin();
         if (filter == null) {
             filter = new ReadFilter();
         }
@@ -136,7 +276,8 @@ public class MemoryStore<T> implements Store<T> {
         List<T> results = new ArrayList<T>(data.values());
 
         filterData(results, where);
-        results = pageData(results, filter.getLimit(), filter.getOffset());
+        results = pageData(results, limitOf(filter), offsetOf(filter));
+        recorder.end(StoreOperation.READ_WITH_FILTER, start, results.size());
         return results;
     }
 
@@ -154,28 +295,51 @@ public class MemoryStore<T> implements Store<T> {
     }
 
     private void filterData(Collection<T> data, JSONObject where) {
-        String filterPropertyName;
-        Object filterValue;
+        Iterator<T> objects = data.iterator();
+        while (objects.hasNext()) {
+            if (!matches(objects.next(), where)) {
+                objects.remove();
+            }
+        }
+    }
+
+    /**
+     * A property matches when it equals the filter value, or when either of
+     * them is null.
+     */
+    private boolean matches(T objectInStorage, JSONObject where) {
+        EntityAccessor<T> accessor = accessorOf(objectInStorage);
         Iterator keys = where.keys();
         while (keys.hasNext()) {
-            ArrayList toRemove = new ArrayList(data.size()); // We will not remove more items than are in data
-            filterPropertyName = keys.next().toString();
-            filterValue = where.opt(filterPropertyName);
-
-            for (T objectInStorage : data) {
-                Property objectProperty = new Property(objectInStorage.getClass(), filterPropertyName);
-                Object propertyValue = objectProperty.getValue(objectInStorage);
-                if (propertyValue != null && filterValue != null) {
-                    if (!propertyValue.equals(filterValue)) {
-                        toRemove.add(objectInStorage);
-                    }
-                }
+            String filterPropertyName = keys.next().toString();
+            Object filterValue = where.opt(filterPropertyName);
+            Object propertyValue = accessor.getProperty(objectInStorage, filterPropertyName);
+            if (propertyValue != null && filterValue != null && !propertyValue.equals(filterValue)) {
+                return false;
             }
-            data.removeAll(toRemove);
         }
+        return true;
+    }
+
+    private List<T> pageData(List<T> results, int limit, int offset) {
+        int from = Math.min(offset, results.size());
+        return results.subList(from, (int) Math.min((long) from + limit, results.size()));
     }
 
-    private List<T> pageData(List<T> results, Integer limit, Integer offset) {
-        return results.subList(offset, Math.min(offset + limit, results.size()));
+    /**
+     * @return the limit of the filter, unbounded when it has none or a
+     * negative one, like in the SQL store
+     */
+    private static int limitOf(ReadFilter filter) {
+        Integer limit = filter.getLimit();
+        return (limit == null || limit < 0) ? Integer.MAX_VALUE : limit;
+    }
+
+    /**
+     * @return the offset of the filter, 0 when it has none or a negative one
+     */
+    private static int offsetOf(ReadFilter filter) {
+        Integer offset = filter.getOffset();
+        return (offset == null) ? 0 : Math.max(offset, 0);
     }
 }
@@ -21,6 +21,7 @@ import org.jboss.aerogear.android.store.Store;
 import org.jboss.aerogear.android.store.StoreConfiguration;
 import org.jboss.aerogear.android.store.generator.DefaultIdGenerator;
 import org.jboss.aerogear.android.store.generator.IdGenerator;
+import org.jboss.aerogear.android.store.metrics.OperationRecorder;
 
 public final class MemoryStoreConfiguration extends StoreConfiguration<MemoryStoreConfiguration>
         implements Config<MemoryStoreConfiguration> {
@@ -34,7 +35,7 @@ public final class MemoryStoreConfiguration extends StoreConfiguration<MemorySto
 
     @Override
     protected <TYPE> Store<TYPE> buildStore(Class<TYPE> klass) {
-        return new MemoryStore(idGenerator);
+        return new MemoryStore<TYPE>(idGenerator, OperationRecorder.of(this, klass));
     }
 
 }
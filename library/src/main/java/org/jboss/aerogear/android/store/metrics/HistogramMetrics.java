@@ -0,0 +1,115 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps a {@link LatencyHistogram} and totals of rows, bytes and cache hits
+ * for every operation. Recording allocates nothing; call {@link #dump()}
+ * periodically, ie from a scheduled executor, to log what was recorded.
+ *
+ * The operations of every store the instance is attached to are added
+ * together; attach an instance per store to tell them apart.
+ */
+public final class HistogramMetrics implements StoreMetrics {
+
+    private static final int ROWS = 0;
+    private static final int BYTES = 1;
+    private static final int CACHE_HITS = 2;
+    private static final int TOTALS = 3;
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[StoreOperation.values().length];
+    private final AtomicLongArray totals = new AtomicLongArray(StoreOperation.values().length * TOTALS);
+
+    public HistogramMetrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    @Override
+    public void onOperation(String storeName, StoreOperation operation, long latencyNanos, long rows, long bytes,
+                            long cacheHits) {
+        int index = operation.ordinal();
+        latencies[index].record(latencyNanos);
+        totals.addAndGet(index * TOTALS + ROWS, rows);
+        totals.addAndGet(index * TOTALS + BYTES, bytes);
+        totals.addAndGet(index * TOTALS + CACHE_HITS, cacheHits);
+    }
+
+    /**
+     * @param operation an operation
+     * @return the latencies of <code>operation</code> in nanoseconds
+     */
+    public LatencyHistogram getLatencies(StoreOperation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    public long getRows(StoreOperation operation) {
+        return totals.get(operation.ordinal() * TOTALS + ROWS);
+    }
+
+    public long getBytes(StoreOperation operation) {
+        return totals.get(operation.ordinal() * TOTALS + BYTES);
+    }
+
+    public long getCacheHits(StoreOperation operation) {
+        return totals.get(operation.ordinal() * TOTALS + CACHE_HITS);
+    }
+
+    /**
+     * @return a line for every operation recorded since the last reset, with
+     * its count, latency percentiles in milliseconds and totals
+     */
+    public String dump() {
+        StringBuilder result = new StringBuilder();
+        for (StoreOperation operation : StoreOperation.values()) {
+            LatencyHistogram histogram = getLatencies(operation);
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            result.append(String.format(Locale.US,
+                    "%s: %d calls, p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, max %.3f ms, %d rows, %d bytes, %d cache hits%n",
+                    operation.name().toLowerCase(Locale.US), histogram.getCount(),
+                    millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(90)),
+                    millis(histogram.getValueAtPercentile(99)), millis(histogram.getMax()),
+                    getRows(operation), getBytes(operation), getCacheHits(operation)));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Forgets everything recorded, ie after a {@link #dump()} to report
+     * intervals instead of totals.
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : latencies) {
+            histogram.reset();
+        }
+        for (int i = 0; i < totals.length(); i++) {
+            totals.set(i, 0);
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+}
@@ -0,0 +1,123 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.metrics;
+
+import org.jboss.aerogear.android.store.StoreConfiguration;
+
+/**
+ * Times the operations of a store and collects the bytes and cache hits
+ * counted while they run, for the {@link StoreMetrics} of its configuration.
+ *
+ * Stores call {@link #begin()} when an operation starts and
+ * {@link #end(StoreOperation, long, long)} when it returns; an operation
+ * that throws isn't reported. Without metrics every call returns right
+ * away.
+ */
+public final class OperationRecorder {
+
+    private static final OperationRecorder DISABLED = new OperationRecorder(null, null);
+
+    private final StoreMetrics metrics;
+    private final String storeName;
+    private final ThreadLocal<long[]> counters = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+
+    private OperationRecorder(StoreMetrics metrics, String storeName) {
+        this.metrics = metrics;
+        this.storeName = storeName;
+    }
+
+    /**
+     * @param configuration the configuration of the store
+     * @param modelClass the model class of the store, names the store if the
+     * configuration has no name
+     * @return a recorder reporting to the metrics of
+     * <code>configuration</code>
+     */
+    public static OperationRecorder of(StoreConfiguration<?> configuration, Class<?> modelClass) {
+        StoreMetrics metrics = configuration.getStoreMetrics();
+        if (metrics == null) {
+            return DISABLED;
+        }
+        String name = (configuration.getName() != null) ? configuration.getName() : modelClass.getSimpleName();
+        return new OperationRecorder(metrics, name);
+    }
+
+    /**
+     * @return a recorder that reports nothing
+     */
+    public static OperationRecorder disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Starts an operation on the calling thread.
+     *
+     * @return the start of the operation, to pass to
+     * {@link #end(StoreOperation, long, long)}
+     */
+    public long begin() {
+        if (metrics == null) {
+            return 0;
+        }
+        long[] current = counters.get();
+        current[0] = 0;
+        current[1] = 0;
+        return System.nanoTime();
+    }
+
+    /**
+     * Counts bytes encoded, decoded, encrypted or decrypted by the
+     * operation running on the calling thread.
+     */
+    public void addBytes(long bytes) {
+        if (metrics != null) {
+            counters.get()[0] += bytes;
+        }
+    }
+
+    /**
+     * Counts an entity the operation running on the calling thread served
+     * from memory.
+     */
+    public void addCacheHit() {
+        if (metrics != null) {
+            counters.get()[1]++;
+        }
+    }
+
+    /**
+     * Reports the operation running on the calling thread.
+     *
+     * @param operation the operation
+     * @param start the value {@link #begin()} returned
+     * @param rows the entities the operation handled
+     */
+    public void end(StoreOperation operation, long start, long rows) {
+        if (metrics == null) {
+            return;
+        }
+        long latency = System.nanoTime() - start;
+        long[] current = counters.get();
+        metrics.onOperation(storeName, operation, latency, rows, current[0], current[1]);
+    }
+
+}
@@ -0,0 +1,47 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.metrics;
+
+import org.jboss.aerogear.android.store.StoreConfiguration;
+
+/**
+ * Receives the outcome of every operation of the stores it is attached to
+ * with {@link StoreConfiguration#setStoreMetrics(StoreMetrics)}.
+ *
+ * Implementations are called on the thread that ran the operation, right
+ * after it returned, and should be cheap and thread safe.
+ * {@link HistogramMetrics} is a ready made one.
+ */
+public interface StoreMetrics {
+
+    /**
+     * @param storeName the name of the store's configuration, or the simple
+     * name of its model class if the configuration has no name
+     * @param operation the operation that ran
+     * @param latencyNanos how long the operation took
+     * @param rows the entities saved, read or removed. Removes by id count
+     * the ids given, reset counts nothing and counts count the entities
+     * counted
+     * @param bytes the bytes of encoded documents or encrypted entities
+     * written or read; 0 for entities kept as objects or property rows
+     * @param cacheHits the entities served from memory instead of the
+     * database
+     */
+    void onOperation(String storeName, StoreOperation operation, long latencyNanos, long rows, long bytes,
+                     long cacheHits);
+
+}
@@ -0,0 +1,109 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.sql;
+
+import android.database.Cursor;
+
+import org.jboss.aerogear.android.store.CloseableIterator;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazily materializes elements from a cursor. The cursor is closed as soon as
+ * it is exhausted, or when the iterator is closed.
+ */
+abstract class CursorIterator<T> implements CloseableIterator<T> {
+
+    private final Cursor cursor;
+    private boolean closed;
+
+    CursorIterator(Cursor cursor) {
+        this.cursor = cursor;
+        cursor.moveToFirst();
+    }
+
+    /**
+     * Builds the element starting at the current row. Implementations must
+     * consume at least one row and leave the cursor on the first row of the
+     * next element, or after the last row.
+     */
+    protected abstract T read(Cursor cursor);
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (cursor.isAfterLast()) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return read(cursor);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return an iterator over entities already read, for when they can't
+     * be streamed
+     */
+    static <T> CloseableIterator<T> over(Collection<T> items) {
+        final Iterator<T> iterator = items.iterator();
+        return new CloseableIterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+}
@@ -19,30 +19,44 @@ package org.jboss.aerogear.android.store.sql;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.database.sqlite.SQLiteTransactionListener;
 import android.os.AsyncTask;
 import android.util.Log;
 
+import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
 
 import org.jboss.aerogear.android.core.Callback;
 import org.jboss.aerogear.android.core.ReadFilter;
-import org.jboss.aerogear.android.core.reflection.Property;
-import org.jboss.aerogear.android.core.reflection.Scan;
 import org.jboss.aerogear.android.security.EncryptionService;
 import org.jboss.aerogear.android.security.InvalidKeyException;
 import org.jboss.aerogear.android.security.SecurityManager;
 import org.jboss.aerogear.android.security.keystore.KeyStoreBasedEncryptionConfiguration;
+import org.jboss.aerogear.android.store.CloseableIterator;
 import org.jboss.aerogear.android.store.Store;
+import org.jboss.aerogear.android.store.accessor.EntityAccessor;
+import org.jboss.aerogear.android.store.accessor.EntityAccessors;
+import org.jboss.aerogear.android.store.codec.EntityCodec;
 import org.jboss.aerogear.android.store.generator.IdGenerator;
+import org.jboss.aerogear.android.store.metrics.OperationRecorder;
+import org.jboss.aerogear.android.store.metrics.StoreOperation;
+import org.jboss.aerogear.android.store.util.MainThreadExecutor;
 import org.jboss.aerogear.android.store.util.CryptoEntityUtil;
 import org.jboss.aerogear.crypto.RandomUtils;
 
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 public class EncryptedSQLStore<T> extends SQLiteOpenHelper implements Store<T> {
 
@@ -51,13 +65,28 @@ public class EncryptedSQLStore<T> extends SQLiteOpenHelper implements Store<T> {
     private final String COLUMN_ID = "ID";
     private final String COLUMN_DATA = "DATA";
     private final String ID_IV = "IV";
+    private static final int DATABASE_VERSION = 3;
 
     private final Class<T> modelClass;
     private Context context;
     private final GsonBuilder builder;
     private final IdGenerator idGenerator;
     private final String password;
+    private final EncryptionService encryptionService;
     private final String TABLE_NAME;
+    private final JournalSettings journalSettings;
+    private final WriteBehindQueue<byte[]> writeBehind;
+    private final SchemaMigration schemaMigration;
+    private final Gson gson;
+    private final EntityCodec codec;
+    private final boolean generatedAdapters;
+    private final String readSql;
+    private final String readAllSql;
+    private final boolean warmUp;
+    private final int warmUpPreloadEntities;
+    private volatile WarmUpReport warmUpReport;
+    private final OperationRecorder recorder;
+    private long encryptionSetupNanos;
 
     private SQLiteDatabase database;
     private CryptoEntityUtil<T> cryptoEntityUtil;
@@ -69,22 +98,60 @@ public class EncryptedSQLStore<T> extends SQLiteOpenHelper implements Store<T> {
 
     public EncryptedSQLStore(Class<T> modelClass, Context context, GsonBuilder builder,
                              IdGenerator idGenerator, String password, String tableName) {
+        this(modelClass, context, builder, idGenerator, password, tableName,
+             new EncryptedSQLStoreConfiguration());
+    }
+
+    public EncryptedSQLStore(Class<T> modelClass, EncryptedSQLStoreConfiguration configuration) {
+        this(modelClass, configuration.getContext(), configuration.getGsonBuilder(), configuration.getIdGenerator(),
+             configuration.getPassphrase(), modelClass.getSimpleName(), configuration);
+    }
 
-        super(context, modelClass.getSimpleName(), null, 2);
+    private EncryptedSQLStore(Class<T> modelClass, Context context, GsonBuilder builder,
+                              IdGenerator idGenerator, String password, String tableName,
+                              EncryptedSQLStoreConfiguration configuration) {
+
+        super(context, modelClass.getSimpleName(), null, DATABASE_VERSION);
 
         this.modelClass = modelClass;
         this.context = context;
         this.builder = builder;
         this.idGenerator = idGenerator;
         this.password = password;
+        this.encryptionService = configuration.getEncryptionService();
 
         this.TABLE_NAME = tableName;
+        this.generatedAdapters = configuration.isGeneratedAdapters();
+        this.gson = EntityAccessors.createGson(builder, generatedAdapters);
+        this.codec = configuration.getCodec();
+        this.readSql = "SELECT " + COLUMN_DATA + " FROM " + TABLE_NAME + " WHERE " + COLUMN_ID + " = ?";
+        this.readAllSql = "SELECT " + COLUMN_ID + ", " + COLUMN_DATA + " FROM " + TABLE_NAME;
+        this.warmUp = configuration.isWarmUp();
+        this.warmUpPreloadEntities = configuration.getWarmUpPreloadEntities();
+        this.recorder = OperationRecorder.of(configuration, modelClass);
+        this.journalSettings = configuration.getJournalSettings();
+        this.journalSettings.applyTo(this);
+        this.writeBehind = (configuration.getWriteBehindMaxPending() > 0)
+                ? new WriteBehindQueue<byte[]>(new WriteBehindQueue.Sink<byte[]>() {
+                    @Override
+                    public void write(Map<String, byte[]> saves, List<Serializable> removes) {
+                        writeBatch(saves, removes);
+                    }
+                }, configuration.getWriteBehindMaxPending(), configuration.getWriteBehindMaxDelayMillis())
+                : null;
+        this.schemaMigration = new SchemaMigration(tableName, configuration.getSchemaVersion(),
+                configuration.getMigrations(), configuration.getMigrationChunkSize(), new StoredEntities());
     }
 
     private String getEncryptTableHelperName() {
         return TABLE_NAME.toUpperCase() + "_ENCRYPT_HELPER";
     }
 
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        journalSettings.configure(db);
+    }
+
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
 
@@ -112,11 +179,23 @@ public class EncryptedSQLStore<T> extends SQLiteOpenHelper implements Store<T> {
                 + COLUMN_DATA + " BLOB NOT NULL "
                 + " ) ";
         sqLiteDatabase.execSQL(SQL_CREATE_ENTITY_TABLE);
+        createIdIndex(sqLiteDatabase);
 
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        if (oldVersion < 3) {
+            createIdIndex(sqLiteDatabase);
+        }
+    }
+
+    /**
+     * Lets reads by id and schema migrations seek instead of scanning the
+     * table.
+     */
+    private void createIdIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_ID_INDEX ON " + TABLE_NAME + " (" + COLUMN_ID + ")");
     }
 
     @Override
@@ -133,20 +212,29 @@ public class EncryptedSQLStore<T> extends SQLiteOpenHelper implements Store<T> {
 
             byte[] iv = cursorIV.getBlob(0);
 
-            EncryptionService encryptionService = SecurityManager
-                    .config(TABLE_NAME, KeyStoreBasedEncryptionConfiguration.class)
-                    .setContext(context)
-                    .setAlias(TABLE_NAME)
-                    .setKeyStoreFile(TABLE_NAME)
-                    .setPassword(password)
-                    .asService();
-
-            cryptoEntityUtil = new CryptoEntityUtil<T>(encryptionService, iv, modelClass, builder);
+            long start = System.nanoTime();
+            EncryptionService encryptionService = (this.encryptionService != null)
+                    ? this.encryptionService
+                    : SecurityManager
+                            .config(TABLE_NAME, KeyStoreBasedEncryptionConfiguration.class)
+                            .setContext(context)
+                            .setAlias(TABLE_NAME)
+                            .setKeyStoreFile(TABLE_NAME)
+                            .setPassword(password)
+                            .asService();
+
+            cryptoEntityUtil = new CryptoEntityUtil<T>(encryptionService, iv, modelClass, builder, codec,
+                                                      generatedAdapters);
+            encryptionSetupNanos = System.nanoTime() - start;
 
         } finally {
             cursorIV.close();
         }
 
+        if (!db.isReadOnly()) {
+            schemaMigration.open(db);
+        }
+
     }
 
     /**
@@ -157,23 +245,64 @@ public class EncryptedSQLStore<T> extends SQLiteOpenHelper implements Store<T> {
      */
     @Override
     public Collection<T> readAll() throws InvalidKeyException {
-        ensureOpen();
+        long start = recorder.begin();
+        List<T> dataList = readAllEntities();
+        recorder.end(StoreOperation.READ_ALL, start, dataList.size());
+        return dataList;
+    }
 
-        ArrayList<T> dataList = new ArrayList<T>();
+    private List<T> readAllEntities() {
+        ensureOpen();
+        flushWriteBehind();
 
-        String sql = "SELECT " + COLUMN_DATA + " FROM " + TABLE_NAME;
-        Cursor cursor = getReadableDatabase().rawQuery(sql, new String[0]);
-        try {
-            while (cursor.moveToNext()) {
-                byte[] encryptedData = cursor.getBlob(0);
-                T decryptedData = cryptoEntityUtil.decrypt(encryptedData);
-                dataList.add(decryptedData);
+        return schemaMigration.read(new SchemaMigration.Read<List<T>>() {
+            @Override
+            public List<T> run() {
+                ArrayList<T> dataList = new ArrayList<T>();
+                Cursor cursor = getReadableDatabase().rawQuery(readAllSql, new String[0]);
+                try {
+                    while (cursor.moveToNext()) {
+                        dataList.add(decrypt(cursor.getString(0), cursor.getBlob(1)));
+                    }
+                } finally {
+                    cursor.close();
+                }
+                return dataList;
             }
-        } finally {
-            cursor.close();
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Entities are decrypted one at a time as the iterator advances.
+     *
+     * @throws InvalidKeyException Will occur if you use the wrong password to
+     * retrieve the data
+     */
+    @Override
+    public CloseableIterator<T> iterator() throws InvalidKeyException {
+        long start = recorder.begin();
+        ensureOpen();
+        flushWriteBehind();
+
+        if (schemaMigration.isRunning()) {
+            // A streamed read can't be retried if a migration chunk commits
+            CloseableIterator<T> result = CursorIterator.over(readAllEntities());
+            recorder.end(StoreOperation.ITERATOR, start, 0);
+            return result;
         }
 
-        return dataList;
+        CloseableIterator<T> result = new CursorIterator<T>(getReadableDatabase().rawQuery(readAllSql, new String[0])) {
+            @Override
+            protected T read(Cursor cursor) {
+                T item = decrypt(cursor.getString(0), cursor.getBlob(1));
+                cursor.moveToNext();
+                return item;
+            }
+        };
+        recorder.end(StoreOperation.ITERATOR, start, 0);
+        return result;
     }
 
     /**
@@ -184,22 +313,51 @@ public class EncryptedSQLStore<T> extends SQLiteOpenHelper implements Store<T> {
      */
     @Override
     public T read(Serializable id) throws InvalidKeyException {
-        ensureOpen();
+        long start = recorder.begin();
+        T result = readById(id);
+        recorder.end(StoreOperation.READ, start, (result == null) ? 0 : 1);
+        return result;
+    }
 
-        String sql = "SELECT " + COLUMN_DATA + " FROM " + TABLE_NAME + " WHERE " + COLUMN_ID + " = ?";
-        Cursor cursor = getReadableDatabase().rawQuery(sql, new String[]{id.toString()});
-        cursor.moveToFirst();
+    private T readById(Serializable id) {
+        ensureOpen();
 
-        if (cursor.getCount() == 0) {
-            return null;
+        if (writeBehind != null) {
+            WriteBehindQueue.Entry<byte[]> pending = writeBehind.lookup(id);
+            if (pending != null) {
+                recorder.addCacheHit();
+                return (pending.item == null) ? null : cryptoEntityUtil.decrypt(pending.item);
+            }
         }
 
-        try {
-            byte[] encryptedData = cursor.getBlob(0);
+        final String idValue = id.toString();
+        return schemaMigration.read(new SchemaMigration.Read<T>() {
+            @Override
+            public T run() {
+                Cursor cursor = getReadableDatabase().rawQuery(readSql, new String[]{idValue});
+                try {
+                    if (!cursor.moveToFirst()) {
+                        return null;
+                    }
+                    return decrypt(idValue, cursor.getBlob(0));
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Decrypts an entity, migrating it in memory if a schema migration
+     * hasn't rewritten it yet.
+     */
+    private T decrypt(String id, byte[] encryptedData) {
+        recorder.addBytes(encryptedData.length);
+        if (!schemaMigration.isRunning()) {
             return cryptoEntityUtil.decrypt(encryptedData);
-        } finally {
-            cursor.close();
         }
+        JsonObject entity = cryptoEntityUtil.decryptTree(encryptedData).getAsJsonObject();
+        return gson.fromJson(schemaMigration.upgrade(id, entity), modelClass);
     }
 
     /**
@@ -216,15 +374,7 @@ public class EncryptedSQLStore<T> extends SQLiteOpenHelper implements Store<T> {
      */
     @Override
     public void save(T item) {
-        ensureOpen();
-
-        this.database.beginTransaction();
-        try {
-            saveItem(item);
-            this.database.setTransactionSuccessful();
-        } finally {
-            this.database.endTransaction();
-        }
+        save(Collections.singletonList(item));
     }
 
     /**
@@ -233,12 +383,33 @@ public class EncryptedSQLStore<T> extends SQLiteOpenHelper implements Store<T> {
      */
     @Override
     public void save(Collection<T> items) {
+        long start = recorder.begin();
         ensureOpen();
 
-        this.database.beginTransaction();
-        try {
+        if (writeBehind != null) {
             for (T item : items) {
-                saveItem(item);
+                writeBehind.save(idOf(item), encrypt(item));
+            }
+        } else {
+            Map<String, byte[]> encrypted = new LinkedHashMap<String, byte[]>(items.size() * 2);
+            for (T item : items) {
+                encrypted.put(idOf(item).toString(), encrypt(item));
+            }
+            writeBatch(encrypted, Collections.<Serializable>emptyList());
+        }
+        recorder.end(StoreOperation.SAVE, start, items.size());
+    }
+
+    /**
+     * @param saves the encrypted entities by the text of their id
+     */
+    private void writeBatch(Map<String, byte[]> saves, Collection<? extends Serializable> removes) {
+        journalSettings.beginTransaction(this.database);
+        try {
+            SQLStore.deleteWhereIn(this.database, QueryDiagnostics.disabled(),
+                                   "delete from " + TABLE_NAME + " where " + COLUMN_ID + " in (%s)", removes);
+            for (Map.Entry<String, byte[]> save : saves.entrySet()) {
+                saveEncrypted(save.getKey(), save.getValue());
             }
             this.database.setTransactionSuccessful();
         } finally {
@@ -246,19 +417,30 @@ public class EncryptedSQLStore<T> extends SQLiteOpenHelper implements Store<T> {
         }
     }
 
-    private void saveItem(T item) {
-        String recordIdFieldName = Scan.recordIdFieldNameIn(item.getClass());
-        Property property = new Property(item.getClass(), recordIdFieldName);
-        Serializable idValue = (Serializable) property.getValue(item);
+    private Serializable idOf(T item) {
+        @SuppressWarnings("unchecked")
+        EntityAccessor<T> accessor = EntityAccessors.of((Class<T>) item.getClass());
+        Serializable idValue = accessor.getRecordId(item);
 
         if (idValue == null) {
             idValue = idGenerator.generate();
-            property.setValue(item, idValue);
+            accessor.setRecordId(item, idValue);
         }
+        return idValue;
+    }
+
+    private byte[] encrypt(T item) {
+        byte[] encryptedData = cryptoEntityUtil.encrypt(item);
+        recorder.addBytes(encryptedData.length);
+        return encryptedData;
+    }
+
+    private void saveEncrypted(String id, byte[] encryptedData) {
+        schemaMigration.markSaved(database, id);
 
         ContentValues values = new ContentValues();
-        values.put(COLUMN_ID, idValue.toString());
-        values.put(COLUMN_DATA, cryptoEntityUtil.encrypt(item));
+        values.put(COLUMN_ID, id);
+        values.put(COLUMN_DATA, encryptedData);
 
         this.database.insert(TABLE_NAME, null, values);
     }
@@ -269,10 +451,16 @@ public class EncryptedSQLStore<T> extends SQLiteOpenHelper implements Store<T> {
      */
     @Override
     public void reset() {
+        long start = recorder.begin();
         ensureOpen();
 
+        if (writeBehind != null) {
+            writeBehind.clear();
+        }
+
         String sql = String.format("DELETE FROM " + TABLE_NAME);
         this.database.execSQL(sql);
+        recorder.end(StoreOperation.RESET, start, 0);
     }
 
     /**
@@ -281,8 +469,47 @@ public class EncryptedSQLStore<T> extends SQLiteOpenHelper implements Store<T> {
      */
     @Override
     public void remove(Serializable id) {
+        long start = recorder.begin();
         ensureOpen();
 
+        if (writeBehind != null) {
+            writeBehind.remove(id);
+        } else {
+            deleteItem(id);
+        }
+        recorder.end(StoreOperation.REMOVE, start, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The ids are deleted with one statement for every few hundred ids, in
+     * a single transaction.
+     */
+    @Override
+    public void remove(Collection<? extends Serializable> ids) {
+        long start = recorder.begin();
+        ensureOpen();
+
+        if (writeBehind != null) {
+            for (Serializable id : ids) {
+                writeBehind.remove(id);
+            }
+        } else {
+            writeBatch(Collections.<String, byte[]>emptyMap(), ids);
+        }
+        recorder.end(StoreOperation.REMOVE, start, ids.size());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeWithFilter(ReadFilter filter) {
+        throw new UnsupportedOperationException();
+    }
+
+    private void deleteItem(Serializable id) {
         String sql = "DELETE FROM " + TABLE_NAME + " WHERE " + COLUMN_ID + " = ?";
         this.database.execSQL(sql, new Object[]{id});
     }
@@ -293,49 +520,191 @@ public class EncryptedSQLStore<T> extends SQLiteOpenHelper implements Store<T> {
      */
     @Override
     public boolean isEmpty() {
+        long start = recorder.begin();
         ensureOpen();
+        flushWriteBehind();
 
         String sql = "SELECT COUNT(" + COLUMN_ID + ") FROM " + TABLE_NAME;
         Cursor cursor = getReadableDatabase().rawQuery(sql, null);
         cursor.moveToFirst();
         boolean result = (cursor.getInt(0) == 0);
         cursor.close();
+        recorder.end(StoreOperation.IS_EMPTY, start, 0);
         return result;
     }
 
-    public void open(final Callback<EncryptedSQLStore<T>> onReady) {
-        new AsyncTask<Void, Void, Void>() {
-            private Exception exception;
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count() {
+        long start = recorder.begin();
+        ensureOpen();
+        flushWriteBehind();
+
+        long result = DatabaseUtils.longForQuery(getReadableDatabase(), "SELECT COUNT(*) FROM " + TABLE_NAME, null);
+        recorder.end(StoreOperation.COUNT, start, result);
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count(ReadFilter filter) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void open(Callback<EncryptedSQLStore<T>> onReady) {
+        open(AsyncTask.THREAD_POOL_EXECUTOR, onReady);
+    }
 
+    /**
+     * Opens the database on <code>executor</code> and calls
+     * <code>onReady</code> on the main thread.
+     *
+     * @param executor the executor the database is opened on
+     * @param onReady called once the store can be used
+     */
+    public void open(Executor executor, final Callback<EncryptedSQLStore<T>> onReady) {
+        final Executor mainThread = new MainThreadExecutor();
+        executor.execute(new Runnable() {
             @Override
-            protected Void doInBackground(Void... params) {
+            public void run() {
                 try {
-                    EncryptedSQLStore.this.database = getWritableDatabase();
-                } catch (Exception e) {
-                    this.exception = e;
+                    openDatabase();
+                } catch (final Exception e) {
                     Log.e(TAG, "There was an error loading the database", e);
+                    mainThread.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            onReady.onFailure(e);
+                        }
+                    });
+                    return;
                 }
-                return null;
+                mainThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onReady.onSuccess(EncryptedSQLStore.this);
+                    }
+                });
             }
+        });
+    }
 
-            @Override
-            protected void onPostExecute(Void result) {
-                if (exception != null) {
-                    onReady.onFailure(exception);
-                } else {
-                    onReady.onSuccess(EncryptedSQLStore.this);
+    public void openSync() {
+        openDatabase();
+    }
+
+    private void openDatabase() {
+        WarmUpReport.Timer timer = new WarmUpReport.Timer();
+        encryptionSetupNanos = 0;
+        this.database = getWritableDatabase();
+        if (warmUp) {
+            timer.end(WarmUpReport.Phase.OPEN);
+            timer.move(WarmUpReport.Phase.OPEN, WarmUpReport.Phase.ENCRYPTION, encryptionSetupNanos);
+            warmUpReport = warmUp(timer);
+            Log.d(TAG, "Warmed up " + TABLE_NAME + ": " + warmUpReport);
+        }
+        schemaMigration.start();
+    }
+
+    /**
+     * Runs the phases of {@link EncryptedSQLStoreConfiguration#withWarmUp(int)},
+     * see {@link SQLStore}. The encryption phase also covers loading the key
+     * while the database opens.
+     */
+    private WarmUpReport warmUp(WarmUpReport.Timer timer) {
+        cryptoEntityUtil.prepareCipher();
+        timer.end(WarmUpReport.Phase.ENCRYPTION);
+
+        gson.getAdapter(modelClass);
+        EntityAccessors.of(modelClass);
+        cryptoEntityUtil.prepareSerializer();
+        timer.end(WarmUpReport.Phase.SERIALIZERS);
+
+        database.compileStatement(readSql).close();
+        database.compileStatement(readAllSql).close();
+        timer.end(WarmUpReport.Phase.STATEMENTS);
+
+        int preloaded = 0;
+        if (warmUpPreloadEntities > 0) {
+            String sql = "SELECT " + COLUMN_ID + " FROM " + TABLE_NAME + " ORDER BY " + COLUMN_ID + " LIMIT ?";
+            Cursor cursor = database.rawQuery(sql, new String[]{String.valueOf(warmUpPreloadEntities)});
+            try {
+                while (cursor.moveToNext()) {
+                    if (readById(cursor.getString(0)) != null) {
+                        preloaded++;
+                    }
                 }
+            } finally {
+                cursor.close();
             }
-        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, (Void[]) null);
+        }
+        timer.end(WarmUpReport.Phase.PRELOAD);
+        return timer.report(preloaded);
     }
 
-    public void openSync() {
-        this.database = getWritableDatabase();
+    /**
+     * @return how long the phases of the last warm-up took, null until the
+     * store is opened with
+     * {@link EncryptedSQLStoreConfiguration#withWarmUp(int)}
+     */
+    public WarmUpReport getWarmUpReport() {
+        return warmUpReport;
+    }
+
+    /**
+     * @return the schema version every stored entity has reached, see
+     * {@link EncryptedSQLStoreConfiguration#withSchemaVersion(int, Migration...)}
+     */
+    public int getSchemaVersion() {
+        return schemaMigration.getVersion();
+    }
+
+    /**
+     * @return true while stored entities are being migrated to the
+     * configured schema version
+     */
+    public boolean isMigrating() {
+        return schemaMigration.isRunning();
     }
 
+    /**
+     * Copies the committed pages of the write-ahead log back into the
+     * database without blocking readers or the writer. Does nothing unless
+     * write-ahead logging is enabled.
+     */
+    public void checkpoint() {
+        ensureOpen();
+        journalSettings.checkpoint(database);
+    }
+
+    /**
+     * Writes the saves and removes buffered by write-behind, if enabled.
+     */
+    public void flush() {
+        ensureOpen();
+        flushWriteBehind();
+    }
+
+    private void flushWriteBehind() {
+        if (writeBehind != null) {
+            writeBehind.flush();
+        }
+    }
+
+    /**
+     * Flushes the writes buffered by write-behind and closes the database.
+     */
     @Override
     public void close() {
         if (database != null && database.isOpen()) {
+            if (writeBehind != null) {
+                writeBehind.close();
+            }
+            schemaMigration.close();
             this.database.close();
         }
     }
@@ -351,4 +720,74 @@ public class EncryptedSQLStore<T> extends SQLiteOpenHelper implements Store<T> {
         }
     }
 
+    /**
+     * Decrypts and re-encrypts entities as JSON for a schema migration.
+     */
+    private final class StoredEntities implements SchemaMigration.Entities {
+
+        @Override
+        public SQLiteTransactionListener getTransactionListener() {
+            return null;
+        }
+
+        @Override
+        public List<String> nextIds(SQLiteDatabase db, String after, int limit) {
+            String sql = "SELECT " + COLUMN_ID + " FROM " + TABLE_NAME;
+            String[] bindArgs;
+            if (after == null) {
+                sql += " ORDER BY " + COLUMN_ID + " LIMIT ?";
+                bindArgs = new String[]{String.valueOf(limit)};
+            } else {
+                sql += " WHERE " + COLUMN_ID + " > ? ORDER BY " + COLUMN_ID + " LIMIT ?";
+                bindArgs = new String[]{after, String.valueOf(limit)};
+            }
+
+            List<String> ids = new ArrayList<String>(limit);
+            Cursor cursor = db.rawQuery(sql, bindArgs);
+            try {
+                while (cursor.moveToNext()) {
+                    ids.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+            return ids;
+        }
+
+        @Override
+        public JsonObject read(SQLiteDatabase db, String id) {
+            String sql = "SELECT " + COLUMN_DATA + " FROM " + TABLE_NAME + " WHERE " + COLUMN_ID + " = ?";
+            Cursor cursor = db.rawQuery(sql, new String[]{id});
+            try {
+                if (!cursor.moveToFirst()) {
+                    return null;
+                }
+                return cryptoEntityUtil.decryptTree(cursor.getBlob(0)).getAsJsonObject();
+            } finally {
+                cursor.close();
+            }
+        }
+
+        @Override
+        public void write(SQLiteDatabase db, Map<String, JsonObject> entities) {
+            SQLiteStatement update = db.compileStatement(
+                    "UPDATE " + TABLE_NAME + " SET " + COLUMN_DATA + " = ? WHERE " + COLUMN_ID + " = ?");
+            try {
+                for (Map.Entry<String, JsonObject> entity : entities.entrySet()) {
+                    update.bindBlob(1, cryptoEntityUtil.encryptTree(entity.getValue()));
+                    update.bindString(2, entity.getKey());
+                    update.executeUpdateDelete();
+                }
+            } finally {
+                update.close();
+            }
+        }
+
+        @Override
+        public boolean isEmpty(SQLiteDatabase db) {
+            return DatabaseUtils.longForQuery(db, "SELECT EXISTS (SELECT 1 FROM " + TABLE_NAME + ")", null) == 0;
+        }
+
+    }
+
 }
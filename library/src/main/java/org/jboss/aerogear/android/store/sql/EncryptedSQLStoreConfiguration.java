@@ -21,11 +21,21 @@ import android.content.Context;
 import com.google.gson.GsonBuilder;
 
 import org.jboss.aerogear.android.core.Config;
+import org.jboss.aerogear.android.security.EncryptionService;
 import org.jboss.aerogear.android.store.Store;
 import org.jboss.aerogear.android.store.StoreConfiguration;
+import org.jboss.aerogear.android.store.codec.BinaryCodec;
+import org.jboss.aerogear.android.store.codec.EntityCodec;
+import org.jboss.aerogear.android.store.codec.GsonCodec;
 import org.jboss.aerogear.android.store.generator.DefaultIdGenerator;
 import org.jboss.aerogear.android.store.generator.IdGenerator;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 public final class EncryptedSQLStoreConfiguration extends StoreConfiguration<EncryptedSQLStoreConfiguration>
         implements Config<EncryptedSQLStoreConfiguration> {
 
@@ -33,6 +43,18 @@ public final class EncryptedSQLStoreConfiguration extends StoreConfiguration<Enc
     private GsonBuilder builder = new GsonBuilder();
     private IdGenerator idGenerator = new DefaultIdGenerator();
     private String passphrase;
+    private EncryptionService encryptionService;
+    private boolean writeAheadLogging;
+    private SynchronousMode synchronousMode;
+    private int autoCheckpointPages = JournalSettings.DEFAULT_AUTO_CHECKPOINT;
+    private int writeBehindMaxPending;
+    private long writeBehindMaxDelayMillis;
+    private int schemaVersion = 1;
+    private final List<Migration> migrations = new ArrayList<Migration>();
+    private int migrationChunkSize = SQLStoreConfiguration.DEFAULT_MIGRATION_CHUNK_SIZE;
+    private int warmUpPreloadEntities = -1;
+    private EntityCodec codec = new GsonCodec();
+    private boolean generatedAdapters;
 
     public EncryptedSQLStoreConfiguration withContext(Context context) {
         this.context = context;
@@ -44,23 +66,280 @@ public final class EncryptedSQLStoreConfiguration extends StoreConfiguration<Enc
         return this;
     }
 
+    /**
+     * Serializes the model classes with the adapters generated at compile
+     * time instead of Gson's reflective ones, see
+     * {@link org.jboss.aerogear.android.store.accessor.EntityAccessors}.
+     * Models with an adapter registered on the Gson builder keep it, and
+     * the generated adapters aren't used when the builder renames fields.
+     * Don't enable them with exclusion strategies.
+     *
+     * Disabled by default.
+     *
+     * @param generatedAdapters true to use the generated adapters
+     * @return the current configuration
+     */
+    public EncryptedSQLStoreConfiguration withGeneratedAdapters(boolean generatedAdapters) {
+        this.generatedAdapters = generatedAdapters;
+        return this;
+    }
+
     public EncryptedSQLStoreConfiguration withIdGenerator(IdGenerator idGenerator) {
         this.idGenerator = idGenerator;
         return this;
     }
 
+    /**
+     * Selects how entities are encoded before they are encrypted.
+     * {@link BinaryCodec} produces smaller blobs and skips JSON text
+     * altogether. Entities stored with one codec can't be read with another.
+     *
+     * Defaults to {@link GsonCodec}.
+     *
+     * @param codec the codec to use
+     * @return the current configuration
+     */
+    public EncryptedSQLStoreConfiguration withCodec(EntityCodec codec) {
+        this.codec = codec;
+        return this;
+    }
+
     public EncryptedSQLStoreConfiguration usingPassphrase(String passphrase) {
         this.passphrase = passphrase;
         return this;
     }
 
+    /**
+     * Encrypts the entities with <code>encryptionService</code> instead of
+     * the service backed by a KeyStore the passphrase protects, ie to manage
+     * keys differently or to run on a JVM without the platform KeyStore. The
+     * passphrase isn't needed then.
+     *
+     * @param encryptionService the service that encrypts the entities
+     * @return the current configuration
+     */
+    public EncryptedSQLStoreConfiguration withEncryptionService(EncryptionService encryptionService) {
+        this.encryptionService = encryptionService;
+        return this;
+    }
+
+    /**
+     * Enables write-ahead logging. Reads on other threads then run on the
+     * framework's pool of reader connections concurrently with a writer,
+     * instead of waiting for its transaction to commit. The size of the pool
+     * is set by the platform.
+     *
+     * Disabled by default.
+     *
+     * @param writeAheadLogging true to enable write-ahead logging
+     * @return the current configuration
+     */
+    public EncryptedSQLStoreConfiguration withWriteAheadLogging(boolean writeAheadLogging) {
+        this.writeAheadLogging = writeAheadLogging;
+        return this;
+    }
+
+    /**
+     * Sets <code>PRAGMA synchronous</code> for the connection writes go
+     * through. {@link SynchronousMode#NORMAL} together with write-ahead
+     * logging avoids a sync on every commit.
+     *
+     * Defaults to the platform setting.
+     *
+     * @param synchronousMode the synchronous level
+     * @return the current configuration
+     */
+    public EncryptedSQLStoreConfiguration withSynchronousMode(SynchronousMode synchronousMode) {
+        this.synchronousMode = synchronousMode;
+        return this;
+    }
+
+    /**
+     * Sets how many pages the write-ahead log grows to before a commit
+     * copies it back into the database. 0 disables automatic checkpoints,
+     * leaving them to the store's <code>checkpoint()</code>.
+     *
+     * Only used with write-ahead logging. Defaults to the platform setting.
+     *
+     * @param pages the checkpoint threshold, in pages
+     * @return the current configuration
+     */
+    public EncryptedSQLStoreConfiguration withAutoCheckpoint(int pages) {
+        if (pages < 0) {
+            throw new IllegalArgumentException("pages can't be negative");
+        }
+        this.autoCheckpointPages = pages;
+        return this;
+    }
+
+    /**
+     * Buffers saves and removes in memory and writes them in a single
+     * transaction once <code>maxPendingWrites</code> ids are waiting or
+     * <code>maxDelay</code> after the first buffered write, whichever comes
+     * first. Repeated writes to the same id are coalesced.
+     *
+     * Reads see the buffered writes. The store's <code>flush()</code> and
+     * <code>close()</code> write whatever is still buffered; writes not
+     * flushed when the process dies are lost.
+     *
+     * Disabled by default.
+     *
+     * @param maxPendingWrites the number of buffered ids that triggers a flush
+     * @param maxDelay the longest a write stays buffered
+     * @param unit the unit of <code>maxDelay</code>
+     * @return the current configuration
+     */
+    public EncryptedSQLStoreConfiguration withWriteBehind(int maxPendingWrites, long maxDelay, TimeUnit unit) {
+        if (maxPendingWrites < 1 || maxDelay < 0) {
+            throw new IllegalArgumentException("maxPendingWrites must be positive and maxDelay can't be negative");
+        }
+        this.writeBehindMaxPending = maxPendingWrites;
+        this.writeBehindMaxDelayMillis = unit.toMillis(maxDelay);
+        return this;
+    }
+
+    /**
+     * Sets the schema version of the stored entities and the migrations
+     * that upgrade them to it, see
+     * {@link SQLStoreConfiguration#withSchemaVersion(int, Migration...)}.
+     *
+     * Defaults to version 1 without migrations.
+     *
+     * @param version the current schema version
+     * @param migrations the migrations to versions up to <code>version</code>
+     * @return the current configuration
+     */
+    public EncryptedSQLStoreConfiguration withSchemaVersion(int version, Migration... migrations) {
+        if (version < 1) {
+            throw new IllegalArgumentException("version must be positive");
+        }
+        this.schemaVersion = version;
+        this.migrations.clear();
+        this.migrations.addAll(Arrays.asList(migrations));
+        return this;
+    }
+
+    /**
+     * Sets how many entities a migration decrypts and rewrites per
+     * transaction.
+     *
+     * Defaults to 500.
+     *
+     * @param entities the number of entities per chunk
+     * @return the current configuration
+     */
+    public EncryptedSQLStoreConfiguration withMigrationChunkSize(int entities) {
+        if (entities < 1) {
+            throw new IllegalArgumentException("entities must be positive");
+        }
+        this.migrationChunkSize = entities;
+        return this;
+    }
+
+    /**
+     * Warms the store up when it is opened, moving the costs of the first
+     * read off it. Once the database is open and the encryption key loaded
+     * the store runs the cipher once, builds the Gson adapters of the model
+     * class, compiles the statements of reads and decrypts the first
+     * <code>preloadEntities</code> entities in id order, so their pages are
+     * in SQLite's cache.
+     *
+     * How long each phase took is logged and available from the store's
+     * <code>getWarmUpReport()</code>.
+     *
+     * Disabled by default.
+     *
+     * @param preloadEntities the number of entities read, 0 to skip the
+     * preload
+     * @return the current configuration
+     */
+    public EncryptedSQLStoreConfiguration withWarmUp(int preloadEntities) {
+        if (preloadEntities < 0) {
+            throw new IllegalArgumentException("preloadEntities can't be negative");
+        }
+        this.warmUpPreloadEntities = preloadEntities;
+        return this;
+    }
+
+    public Context getContext() {
+        return context;
+    }
+
+    public GsonBuilder getGsonBuilder() {
+        return builder;
+    }
+
+    public boolean isGeneratedAdapters() {
+        return generatedAdapters;
+    }
+
+    public IdGenerator getIdGenerator() {
+        return idGenerator;
+    }
+
+    public EntityCodec getCodec() {
+        return codec;
+    }
+
+    public String getPassphrase() {
+        return passphrase;
+    }
+
+    public EncryptionService getEncryptionService() {
+        return encryptionService;
+    }
+
+    public boolean isWriteAheadLogging() {
+        return writeAheadLogging;
+    }
+
+    public SynchronousMode getSynchronousMode() {
+        return synchronousMode;
+    }
+
+    public int getAutoCheckpoint() {
+        return autoCheckpointPages;
+    }
+
+    public int getWriteBehindMaxPending() {
+        return writeBehindMaxPending;
+    }
+
+    public long getWriteBehindMaxDelayMillis() {
+        return writeBehindMaxDelayMillis;
+    }
+
+    public int getSchemaVersion() {
+        return schemaVersion;
+    }
+
+    public List<Migration> getMigrations() {
+        return Collections.unmodifiableList(migrations);
+    }
+
+    public int getMigrationChunkSize() {
+        return migrationChunkSize;
+    }
+
+    public boolean isWarmUp() {
+        return warmUpPreloadEntities >= 0;
+    }
+
+    public int getWarmUpPreloadEntities() {
+        return Math.max(warmUpPreloadEntities, 0);
+    }
+
+    JournalSettings getJournalSettings() {
+        return new JournalSettings(writeAheadLogging, synchronousMode, autoCheckpointPages);
+    }
+
     @Override
     protected <TYPE> Store<TYPE> buildStore(Class<TYPE> klass) {
-        if((klass == null) || (passphrase == null) || (context == null)) {
+        if((klass == null) || ((passphrase == null) && (encryptionService == null)) || (context == null)) {
             throw new IllegalStateException("Klass, Passphrase and Context are mandatory");
         }
 
-        return new EncryptedSQLStore<>(klass, context, builder, idGenerator, passphrase);
+        return new EncryptedSQLStore<>(klass, this);
     }
 
 }
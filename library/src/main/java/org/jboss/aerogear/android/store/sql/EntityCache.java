@@ -0,0 +1,104 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.sql;
+
+import android.util.LruCache;
+
+import java.io.Serializable;
+
+/**
+ * Least recently used cache of deserialized entities, keyed by the text of
+ * their id and bounded either by entry count or by estimated bytes.
+ *
+ * Every invalidation bumps a version. A reader takes the version before it
+ * queries the database and only caches its result if no write was
+ * invalidated in between, so a slow read never caches a stale entity.
+ */
+final class EntityCache<T> {
+
+    private static final class Entry<T> {
+
+        final T item;
+        final int size;
+
+        Entry(T item, int size) {
+            this.item = item;
+            this.size = size;
+        }
+
+    }
+
+    private final LruCache<String, Entry<T>> entries;
+    private long version;
+
+    /**
+     * @param maxSize the most entries, or estimated bytes, kept
+     * @param sizeInBytes true if <code>maxSize</code> is in estimated bytes
+     */
+    EntityCache(int maxSize, final boolean sizeInBytes) {
+        this.entries = new LruCache<String, Entry<T>>(maxSize) {
+            @Override
+            protected int sizeOf(String key, Entry<T> entry) {
+                return sizeInBytes ? entry.size : 1;
+            }
+        };
+    }
+
+    /**
+     * @return the cached entity, or null on a miss
+     */
+    T get(Serializable id) {
+        Entry<T> entry = entries.get(id.toString());
+        return (entry == null) ? null : entry.item;
+    }
+
+    /**
+     * @return the version to hand back to {@link #put(Serializable, Object, int, long)}
+     */
+    synchronized long version() {
+        return version;
+    }
+
+    /**
+     * Caches an entity read from the database, unless an invalidation
+     * happened since <code>version</code> was taken.
+     */
+    synchronized void put(Serializable id, T item, int estimatedBytes, long version) {
+        if (this.version == version) {
+            entries.put(id.toString(), new Entry<T>(item, Math.max(estimatedBytes, 1)));
+        }
+    }
+
+    synchronized void invalidate(Serializable id) {
+        version++;
+        entries.remove(id.toString());
+    }
+
+    synchronized void clear() {
+        version++;
+        entries.evictAll();
+    }
+
+    long hits() {
+        return entries.hitCount();
+    }
+
+    long misses() {
+        return entries.missCount();
+    }
+
+}
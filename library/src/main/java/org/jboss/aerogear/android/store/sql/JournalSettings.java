@@ -0,0 +1,109 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.sql;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteTransactionListener;
+
+/**
+ * Journal options shared by the SQL stores.
+ */
+final class JournalSettings {
+
+    static final int DEFAULT_AUTO_CHECKPOINT = -1;
+
+    private final boolean writeAheadLogging;
+    private final SynchronousMode synchronousMode;
+    private final int autoCheckpointPages;
+
+    JournalSettings(boolean writeAheadLogging, SynchronousMode synchronousMode, int autoCheckpointPages) {
+        this.writeAheadLogging = writeAheadLogging;
+        this.synchronousMode = synchronousMode;
+        this.autoCheckpointPages = autoCheckpointPages;
+    }
+
+    boolean isWriteAheadLogging() {
+        return writeAheadLogging;
+    }
+
+    /**
+     * Must be called before the helper opens its database.
+     */
+    void applyTo(SQLiteOpenHelper helper) {
+        helper.setWriteAheadLoggingEnabled(writeAheadLogging);
+    }
+
+    /**
+     * Applies the pragmas to the primary connection, the only one the
+     * framework writes through. Called from
+     * {@link SQLiteOpenHelper#onConfigure(SQLiteDatabase)}, after the
+     * framework set its own defaults.
+     */
+    void configure(SQLiteDatabase db) {
+        if (synchronousMode != null) {
+            db.execSQL("PRAGMA synchronous = " + synchronousMode.name());
+        }
+        if (writeAheadLogging && autoCheckpointPages != DEFAULT_AUTO_CHECKPOINT) {
+            // Returns the new value, which execSQL refuses
+            Cursor cursor = db.rawQuery("PRAGMA wal_autocheckpoint = " + autoCheckpointPages, null);
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Copies as many committed pages from the write-ahead log into the
+     * database as possible without waiting on readers or the writer.
+     */
+    void checkpoint(SQLiteDatabase db) {
+        if (!writeAheadLogging) {
+            return;
+        }
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Starts a write transaction. With write-ahead logging the transaction is
+     * IMMEDIATE so readers on other connections keep going while it runs.
+     */
+    void beginTransaction(SQLiteDatabase db) {
+        beginTransaction(db, null);
+    }
+
+    /**
+     * Starts a write transaction reporting its outcome to
+     * <code>listener</code>, which may be null.
+     */
+    void beginTransaction(SQLiteDatabase db, SQLiteTransactionListener listener) {
+        if (writeAheadLogging) {
+            db.beginTransactionWithListenerNonExclusive(listener);
+        } else {
+            db.beginTransactionWithListener(listener);
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.sql;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Upgrades a stored entity from the schema version before
+ * {@link #getVersion()} to that version.
+ *
+ * Migrations run on a background thread, see
+ * {@link SQLStoreConfiguration#withSchemaVersion(int, Migration...)}. They
+ * may also run on the thread reading an entity that has not been migrated
+ * yet, so they must not depend on the order entities are migrated in.
+ */
+public interface Migration {
+
+    /**
+     * @return the schema version the entities are in once migrated, greater
+     * than 1
+     */
+    int getVersion();
+
+    /**
+     * Rewrites one entity.
+     *
+     * @param entity the entity as serialized by the previous version
+     * @return the entity as the new version serializes it, possibly
+     * <code>entity</code> itself
+     */
+    JsonObject migrate(JsonObject entity);
+
+}
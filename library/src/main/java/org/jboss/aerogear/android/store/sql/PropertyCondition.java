@@ -0,0 +1,229 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.sql;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * One term of a ReadFilter where clause: a property path, a comparison and
+ * the value it is compared with.
+ *
+ * Nested objects in the where clause extend the path, except objects whose
+ * keys are all operators, which compare the property they are attached to:
+ * <code>{"age": {"$gte": 18, "$lt": 65}}</code>.
+ *
+ * Values compare the way SQLite orders them: numbers compare numerically,
+ * strings and booleans compare as text, and every number sorts before every
+ * text value.
+ */
+final class PropertyCondition {
+
+    enum Operator {
+        EQ(null, "="),
+        NE("$ne", "!="),
+        GT("$gt", ">"),
+        GTE("$gte", ">="),
+        LT("$lt", "<"),
+        LTE("$lte", "<=");
+
+        private final String key;
+        private final String sql;
+
+        Operator(String key, String sql) {
+            this.key = key;
+            this.sql = sql;
+        }
+
+        static Operator forKey(String key) {
+            for (Operator operator : values()) {
+                if (key.equals(operator.key)) {
+                    return operator;
+                }
+            }
+            throw new IllegalArgumentException(key + " isn't a supported operator");
+        }
+
+        boolean accepts(int comparison) {
+            switch (this) {
+                case NE:
+                    return comparison != 0;
+                case GT:
+                    return comparison > 0;
+                case GTE:
+                    return comparison >= 0;
+                case LT:
+                    return comparison < 0;
+                case LTE:
+                    return comparison <= 0;
+                default:
+                    return comparison == 0;
+            }
+        }
+    }
+
+    private final String name;
+    private final Operator operator;
+    private final JsonPrimitive value;
+
+    private PropertyCondition(String name, Operator operator, JsonPrimitive value) {
+        this.name = name;
+        this.operator = operator;
+        this.value = value;
+    }
+
+    /**
+     * Flattens a where clause into the conditions every matching entity has
+     * to satisfy.
+     *
+     * @param where the where clause of a ReadFilter
+     * @return the conditions, in the order they appear in the clause
+     * @throws IllegalArgumentException if the clause holds arrays, nulls or
+     * unknown operators
+     */
+    static List<PropertyCondition> parse(JsonObject where) {
+        List<PropertyCondition> conditions = new ArrayList<PropertyCondition>();
+        parse(where, "", conditions);
+        return conditions;
+    }
+
+    private static void parse(JsonObject where, String parentPath, List<PropertyCondition> conditions) {
+        String pathVar = parentPath.isEmpty() ? "" : ".";// Set a dot if parent path is not empty
+        for (Entry<String, JsonElement> entry : where.entrySet()) {
+            String path = parentPath + pathVar + entry.getKey();
+            JsonElement jsonValue = entry.getValue();
+            if (jsonValue.isJsonObject()) {
+                JsonObject object = jsonValue.getAsJsonObject();
+                if (isOperatorObject(object)) {
+                    for (Entry<String, JsonElement> comparison : object.entrySet()) {
+                        conditions.add(new PropertyCondition(path, Operator.forKey(comparison.getKey()),
+                                                             primitive(comparison.getValue())));
+                    }
+                } else {
+                    parse(object, path, conditions);
+                }
+            } else {
+                conditions.add(new PropertyCondition(path, Operator.EQ, primitive(jsonValue)));
+            }
+        }
+    }
+
+    private static boolean isOperatorObject(JsonObject object) {
+        int operators = 0;
+        for (Entry<String, JsonElement> entry : object.entrySet()) {
+            if (entry.getKey().startsWith("$")) {
+                operators++;
+            }
+        }
+        if (operators > 0 && operators < object.size()) {
+            throw new IllegalArgumentException(object + " mixes operators and properties");
+        }
+        return operators > 0;
+    }
+
+    private static JsonPrimitive primitive(JsonElement jsonValue) {
+        if (!jsonValue.isJsonPrimitive()) {
+            throw new IllegalArgumentException(jsonValue + " isn't a JsonPrimitive");
+        }
+        return jsonValue.getAsJsonPrimitive();
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Only a '%' makes a name a LIKE pattern. Other names, including those
+     * holding a '_', are compared exactly and case sensitively.
+     *
+     * @return true if the property name is matched with LIKE
+     */
+    boolean isPattern() {
+        return name.indexOf('%') >= 0;
+    }
+
+    /**
+     * Appends a select of the PARENT_ID of every row of
+     * <code>propertyTable</code> satisfying this condition.
+     *
+     * Numbers are bound as text and turned back into numbers by
+     * <code>(? + 0)</code>, an expression without affinity, so SQLite can
+     * still compare it against the (PROPERTY_NAME, PROPERTY_VALUE) index.
+     * Ranges are bounded by the empty string, which sorts after every number
+     * and before every text value, so they never cross storage classes.
+     *
+     * @param names the dictionary <code>propertyTable</code> references its
+     * names by id into, or null if it holds them as text
+     */
+    void appendSql(StringBuilder sql, String propertyTable, PropertyNames names, List<String> bindArgs) {
+        boolean number = value.isNumber();
+        sql.append("select PARENT_ID from ").append(propertyTable).append(" where ");
+        if (names == null) {
+            sql.append("PROPERTY_NAME ").append(isPattern() ? "LIKE" : "=").append(" ?");
+            bindArgs.add(name);
+        } else if (isPattern()) {
+            sql.append("NAME_ID in (select NAME_ID from ").append(names.getTable()).append(" where NAME LIKE ?)");
+            bindArgs.add(name);
+        } else {
+            // A name no entity holds matches no row
+            Long id = names.find(name);
+            sql.append("NAME_ID = ?");
+            bindArgs.add(String.valueOf((id == null) ? -1 : id));
+        }
+        sql.append(" and PROPERTY_VALUE ").append(operator.sql).append(number ? " (? + 0)" : " ?");
+        bindArgs.add(number ? value.getAsNumber().toString() : SQLStore.toPropertyValue(value));
+
+        if (number && (operator == Operator.GT || operator == Operator.GTE)) {
+            sql.append(" and PROPERTY_VALUE < ''");
+        } else if (!number && (operator == Operator.LT || operator == Operator.LTE)) {
+            sql.append(" and PROPERTY_VALUE >= ''");
+        }
+    }
+
+    /**
+     * Evaluates this condition against a stored value, the same way the SQL
+     * from {@link #appendSql(StringBuilder, String, PropertyNames, List)} does.
+     */
+    boolean accepts(JsonPrimitive stored) {
+        int comparison;
+        if (stored.isNumber() != value.isNumber()) {
+            comparison = stored.isNumber() ? -1 : 1;
+        } else if (stored.isNumber()) {
+            comparison = compareNumbers(stored.getAsNumber(), value.getAsNumber());
+        } else {
+            comparison = SQLStore.toPropertyValue(stored).compareTo(SQLStore.toPropertyValue(value));
+        }
+        return operator.accepts(comparison);
+    }
+
+    private static int compareNumbers(Number stored, Number expected) {
+        double storedDouble = stored.doubleValue();
+        double expectedDouble = expected.doubleValue();
+        if (storedDouble != expectedDouble || Double.isInfinite(storedDouble) || Double.isNaN(storedDouble)) {
+            return Double.compare(storedDouble, expectedDouble);
+        }
+        // Equal as doubles, longs past 2^53 may still differ
+        return new BigDecimal(stored.toString()).compareTo(new BigDecimal(expected.toString()));
+    }
+
+}
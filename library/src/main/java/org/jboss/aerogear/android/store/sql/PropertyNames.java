@@ -0,0 +1,140 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.sql;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.database.sqlite.SQLiteTransactionListener;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The dictionary of property names used by
+ * {@link StorageMode#ENCODED_PROPERTIES}, mirrored in memory.
+ *
+ * Names are added by the transaction saving the first entity holding them.
+ * Until that transaction commits they are only visible to it, so a rollback
+ * never leaves an id in memory that the database doesn't hold. Transactions
+ * that may add names have to be started with this dictionary as their
+ * listener.
+ */
+final class PropertyNames implements SQLiteTransactionListener {
+
+    private final String table;
+    private final Map<String, Long> ids = new ConcurrentHashMap<String, Long>();
+    private final Map<Long, String> names = new ConcurrentHashMap<Long, String>();
+    private final Map<String, Long> pendingIds = new ConcurrentHashMap<String, Long>();
+    private final Map<Long, String> pendingNames = new ConcurrentHashMap<Long, String>();
+
+    /**
+     * @param table the table holding the dictionary
+     */
+    PropertyNames(String table) {
+        this.table = table;
+    }
+
+    String getTable() {
+        return table;
+    }
+
+    void createTable(SQLiteDatabase db) {
+        db.execSQL("create table if not exists " + table + " ( NAME_ID integer primary key,"
+                + " NAME text not null unique )");
+    }
+
+    /**
+     * Replaces the names in memory with the ones stored.
+     */
+    void load(SQLiteDatabase db) {
+        ids.clear();
+        names.clear();
+        pendingIds.clear();
+        pendingNames.clear();
+        Cursor cursor = db.rawQuery("select NAME_ID, NAME from " + table, null);
+        try {
+            while (cursor.moveToNext()) {
+                ids.put(cursor.getString(1), cursor.getLong(0));
+                names.put(cursor.getLong(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the id of the name, added to the dictionary if it is new
+     */
+    long intern(SQLiteDatabase db, String name) {
+        Long id = find(name);
+        if (id != null) {
+            return id;
+        }
+        SQLiteStatement insert = db.compileStatement("insert into " + table + " (NAME) values (?)");
+        try {
+            insert.bindString(1, name);
+            id = insert.executeInsert();
+        } finally {
+            insert.close();
+        }
+        pendingIds.put(name, id);
+        pendingNames.put(id, name);
+        return id;
+    }
+
+    /**
+     * @return the id of the name, or null if no entity holds it
+     */
+    Long find(String name) {
+        Long id = ids.get(name);
+        return (id != null) ? id : pendingIds.get(name);
+    }
+
+    /**
+     * @throws IllegalStateException if the id isn't in the dictionary
+     */
+    String nameOf(long id) {
+        String name = names.get(id);
+        if (name == null) {
+            name = pendingNames.get(id);
+        }
+        if (name == null) {
+            throw new IllegalStateException("Unknown property name id " + id + " in " + table);
+        }
+        return name;
+    }
+
+    @Override
+    public void onBegin() {
+    }
+
+    @Override
+    public void onCommit() {
+        ids.putAll(pendingIds);
+        names.putAll(pendingNames);
+        pendingIds.clear();
+        pendingNames.clear();
+    }
+
+    @Override
+    public void onRollback() {
+        pendingIds.clear();
+        pendingNames.clear();
+    }
+
+}
@@ -0,0 +1,162 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.sql;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.util.Set;
+
+/**
+ * A parsed <code>PROPERTY_NAME</code> such as <code>nested.list[2].name</code>.
+ *
+ * Each segment of the path is one node; the parse happens once per distinct
+ * name so hydrating a row only walks the nodes.
+ */
+final class PropertyPath {
+
+    private static final int APPEND = -1;
+
+    private final String name;
+    private final boolean array;
+    private final int index;
+    private final PropertyPath child;
+
+    private PropertyPath(String name, boolean array, int index, PropertyPath child) {
+        this.name = name;
+        this.array = array;
+        this.index = index;
+        this.child = child;
+    }
+
+    /**
+     * Parses a stored property name.
+     *
+     * A dotted segment is only treated as a nested object when it names one of
+     * the <code>fieldNames</code>; otherwise the rest of the path is kept as a
+     * single property name, so map keys containing dots survive a round trip.
+     *
+     * @param path the stored property name
+     * @param fieldNames the fields declared by the entity class
+     * @return the parsed path
+     */
+    static PropertyPath parse(String path, Set<String> fieldNames) {
+        int dot = path.indexOf('.');
+        if (dot < 0) {
+            int bracket = path.indexOf('[');
+            if (bracket < 0) {
+                return new PropertyPath(path, false, APPEND, null);
+            }
+            return new PropertyPath(path.substring(0, bracket), true, parseIndex(path, bracket), null);
+        }
+
+        String head = path.substring(0, dot);
+        String rest = path.substring(dot + 1);
+        int bracket = head.indexOf('[');
+        if (bracket >= 0) {
+            int index = parseIndex(head, bracket);
+            if (index == APPEND) {
+                throw new IllegalArgumentException(path + " has an invalid array index");
+            }
+            return new PropertyPath(head.substring(0, bracket), true, index, parse(rest, fieldNames));
+        }
+
+        if (fieldNames.contains(head)) {
+            return new PropertyPath(head, false, APPEND, parse(rest, fieldNames));
+        }
+        return new PropertyPath(path, false, APPEND, null);
+    }
+
+    /**
+     * Reads the digits between <code>[</code> and <code>]</code>.
+     *
+     * @return the index, or {@link #APPEND} if the brackets do not hold a
+     * non-negative integer
+     */
+    private static int parseIndex(String segment, int bracket) {
+        int end = segment.indexOf(']', bracket);
+        if (end <= bracket + 1) {
+            return APPEND;
+        }
+        int index = 0;
+        for (int i = bracket + 1; i < end; i++) {
+            char digit = segment.charAt(i);
+            if (digit < '0' || digit > '9' || index > (Integer.MAX_VALUE - 9) / 10) {
+                return APPEND;
+            }
+            index = index * 10 + (digit - '0');
+        }
+        return index;
+    }
+
+    /**
+     * Stores <code>value</code> at this path below <code>target</code>,
+     * creating the intermediate objects and arrays as needed.
+     */
+    void addTo(JsonObject target, String value) {
+        JsonObject current = target;
+        PropertyPath node = this;
+        while (node.child != null) {
+            if (node.array) {
+                JsonArray items = arrayIn(current, node.name);
+                while (items.size() <= node.index) {
+                    items.add(new JsonObject());
+                }
+                current = items.get(node.index).getAsJsonObject();
+            } else {
+                JsonObject nested = (JsonObject) current.get(node.name);
+                if (nested == null) {
+                    nested = new JsonObject();
+                    current.add(node.name, nested);
+                }
+                current = nested;
+            }
+            node = node.child;
+        }
+
+        if (!node.array) {
+            current.addProperty(node.name, value);
+            return;
+        }
+
+        JsonArray items = arrayIn(current, node.name);
+        JsonElement element = new JsonPrimitive(value);
+        if (node.index == APPEND || node.index == items.size()) {
+            items.add(element);
+        } else if (node.index < items.size()) {
+            items.set(node.index, element);
+        } else {
+            while (items.size() < node.index) {
+                items.add(JsonNull.INSTANCE);
+            }
+            items.add(element);
+        }
+    }
+
+    private static JsonArray arrayIn(JsonObject object, String name) {
+        JsonArray array = object.getAsJsonArray(name);
+        if (array == null) {
+            array = new JsonArray();
+            object.add(name, array);
+        }
+        return array;
+    }
+
+}
@@ -0,0 +1,104 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.sql;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The property paths a projection read hydrates.
+ *
+ * A path selects the property of that name and everything below it:
+ * <code>address</code> selects <code>address.city</code> and
+ * <code>items</code> selects <code>items[0].sku</code>.
+ */
+final class PropertyProjection {
+
+    private final List<String> paths;
+
+    /**
+     * @param idPath the record id, always selected so the entities keep their id
+     * @param paths the requested paths
+     */
+    PropertyProjection(String idPath, String... paths) {
+        if (paths.length == 0) {
+            throw new IllegalArgumentException("at least one property path is required");
+        }
+        Set<String> unique = new LinkedHashSet<String>();
+        unique.add(idPath);
+        for (String path : paths) {
+            if (path == null || path.isEmpty()) {
+                throw new IllegalArgumentException("property paths can't be empty");
+            }
+            unique.add(path);
+        }
+        this.paths = new ArrayList<String>(unique);
+    }
+
+    /**
+     * Appends a condition restricting the property rows to the selected
+     * properties.
+     *
+     * @param names the dictionary the rows reference their names by id
+     * into, or null if they hold <code>PROPERTY_NAME</code> as text
+     */
+    void appendSql(StringBuilder sql, PropertyNames names, List<String> bindArgs) {
+        String column = "PROPERTY_NAME";
+        if (names != null) {
+            column = "NAME";
+            sql.append("NAME_ID in (select NAME_ID from ").append(names.getTable()).append(" where ");
+        }
+        sql.append("(");
+        for (int i = 0; i < paths.size(); i++) {
+            String path = paths.get(i);
+            if (i > 0) {
+                sql.append(" or ");
+            }
+            sql.append(column).append(" = ? or substr(").append(column).append(", 1, ?) in (?, ?)");
+            bindArgs.add(path);
+            bindArgs.add(String.valueOf(path.length() + 1));
+            bindArgs.add(path + ".");
+            bindArgs.add(path + "[");
+        }
+        sql.append(")");
+        if (names != null) {
+            sql.append(")");
+        }
+    }
+
+    /**
+     * Evaluates the condition from {@link #appendSql(StringBuilder, PropertyNames, List)}
+     * against a property name.
+     */
+    boolean includes(String propertyName) {
+        for (String path : paths) {
+            if (propertyName.startsWith(path)) {
+                if (propertyName.length() == path.length()) {
+                    return true;
+                }
+                char next = propertyName.charAt(path.length());
+                if (next == '.' || next == '[') {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+}
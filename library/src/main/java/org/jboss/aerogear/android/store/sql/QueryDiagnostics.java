@@ -0,0 +1,233 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.sql;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the generated statements of a store, timing and counting them when
+ * diagnostics are enabled. The first execution of every distinct statement
+ * is explained with <code>EXPLAIN QUERY PLAN</code>; executions over the
+ * slow query threshold are logged with the plan and the shape of their
+ * bound arguments, never their values.
+ *
+ * Disabled diagnostics run the statements as they are.
+ */
+final class QueryDiagnostics {
+
+    private static final String TAG = QueryDiagnostics.class.getSimpleName();
+    private static final Pattern PARAMETER_LIST = Pattern.compile("\\?(\\s*,\\s*\\?)+");
+    private static final QueryDiagnostics DISABLED = new QueryDiagnostics(null, -1);
+
+    private final String storeName;
+    private final long slowQueryNanos;
+    private final ConcurrentHashMap<String, QueryStatistics> statistics = new ConcurrentHashMap<String, QueryStatistics>();
+
+    /**
+     * @param slowQueryMillis executions taking at least this long are
+     * logged, -1 to disable diagnostics
+     */
+    private QueryDiagnostics(String storeName, long slowQueryMillis) {
+        this.storeName = storeName;
+        this.slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryMillis);
+    }
+
+    static QueryDiagnostics of(String storeName, SQLStoreConfiguration configuration) {
+        return configuration.isQueryDiagnostics()
+                ? new QueryDiagnostics(storeName, configuration.getSlowQueryThresholdMillis())
+                : DISABLED;
+    }
+
+    static QueryDiagnostics disabled() {
+        return DISABLED;
+    }
+
+    boolean isEnabled() {
+        return slowQueryNanos >= 0;
+    }
+
+    /**
+     * Like {@link SQLiteDatabase#rawQuery(String, String[])}. With
+     * diagnostics enabled the query runs before the cursor is returned, so
+     * its time is measured here rather than on the first move of the cursor.
+     */
+    Cursor rawQuery(SQLiteDatabase database, String sql, String[] bindArgs) {
+        if (!isEnabled()) {
+            return database.rawQuery(sql, bindArgs);
+        }
+        long start = System.nanoTime();
+        Cursor cursor = database.rawQuery(sql, bindArgs);
+        cursor.getCount();
+        record(database, sql, bindArgs, System.nanoTime() - start);
+        return cursor;
+    }
+
+    /**
+     * Like {@link DatabaseUtils#longForQuery(SQLiteDatabase, String, String[])}.
+     */
+    long longForQuery(SQLiteDatabase database, String sql, String[] bindArgs) {
+        if (!isEnabled()) {
+            return DatabaseUtils.longForQuery(database, sql, bindArgs);
+        }
+        long start = System.nanoTime();
+        long result = DatabaseUtils.longForQuery(database, sql, bindArgs);
+        record(database, sql, bindArgs, System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Like {@link SQLiteDatabase#execSQL(String, Object[])}.
+     *
+     * @param bindArgs the arguments, or null if there are none
+     */
+    void execSQL(SQLiteDatabase database, String sql, Object[] bindArgs) {
+        long start = isEnabled() ? System.nanoTime() : 0;
+        if (bindArgs == null) {
+            database.execSQL(sql);
+        } else {
+            database.execSQL(sql, bindArgs);
+        }
+        if (!isEnabled()) {
+            return;
+        }
+        record(database, sql, bindArgs, System.nanoTime() - start);
+    }
+
+    /**
+     * @return the statements run so far, the longest running in total first
+     */
+    List<QueryStatistics> getStatistics() {
+        List<QueryStatistics> result = new ArrayList<QueryStatistics>(statistics.values());
+        Collections.sort(result, new Comparator<QueryStatistics>() {
+            @Override
+            public int compare(QueryStatistics left, QueryStatistics right) {
+                int byTime = compareLongs(right.getTotalMillis(), left.getTotalMillis());
+                return (byTime != 0) ? byTime : compareLongs(right.getExecutions(), left.getExecutions());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Long.compare, which needs API 19.
+     */
+    private static int compareLongs(long a, long b) {
+        return (a < b) ? -1 : (a == b ? 0 : 1);
+    }
+
+    private void record(SQLiteDatabase database, String sql, Object[] bindArgs, long nanos) {
+        String key = PARAMETER_LIST.matcher(sql).replaceAll("?, ...");
+        QueryStatistics statement = statistics.get(key);
+        if (statement == null) {
+            statement = new QueryStatistics(key);
+            QueryStatistics previous = statistics.putIfAbsent(key, statement);
+            if (previous == null) {
+                statement.setQueryPlan(explain(database, sql, bindArgs));
+            } else {
+                statement = previous;
+            }
+        }
+
+        boolean slow = nanos >= slowQueryNanos;
+        statement.record(nanos, slow);
+        if (slow) {
+            Log.w(TAG, String.format("Slow statement on %s, %d ms: %s, bound %s, plan: %s", storeName,
+                                     TimeUnit.NANOSECONDS.toMillis(nanos), key, bindShape(bindArgs),
+                                     statement.getQueryPlan()));
+        }
+    }
+
+    /**
+     * @return the steps of the plan of <code>sql</code>, one per line, or
+     * null if SQLite couldn't explain it
+     */
+    private static String explain(SQLiteDatabase database, String sql, Object[] bindArgs) {
+        String[] planArgs = null;
+        if (bindArgs != null) {
+            planArgs = new String[bindArgs.length];
+            for (int i = 0; i < bindArgs.length; i++) {
+                planArgs[i] = (bindArgs[i] == null) ? "" : bindArgs[i].toString();
+            }
+        }
+
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor;
+        try {
+            cursor = database.rawQuery("explain query plan " + sql, planArgs);
+        } catch (SQLiteException e) {
+            Log.d(TAG, "Couldn't explain " + sql, e);
+            return null;
+        }
+        try {
+            int detail = cursor.getColumnIndex("detail");
+            if (detail < 0) {
+                detail = cursor.getColumnCount() - 1;
+            }
+            while (cursor.moveToNext()) {
+                if (plan.length() > 0) {
+                    plan.append('\n');
+                }
+                plan.append(cursor.getString(detail));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+
+    /**
+     * @return the storage class of every bound argument, with the length of
+     * text and blobs, ie <code>[text(36), integer, null]</code>
+     */
+    static String bindShape(Object[] bindArgs) {
+        if (bindArgs == null) {
+            return "[]";
+        }
+        StringBuilder shape = new StringBuilder("[");
+        for (int i = 0; i < bindArgs.length; i++) {
+            if (i > 0) {
+                shape.append(", ");
+            }
+            Object arg = bindArgs[i];
+            if (arg == null) {
+                shape.append("null");
+            } else if (arg instanceof byte[]) {
+                shape.append("blob(").append(((byte[]) arg).length).append(')');
+            } else if (arg instanceof Double || arg instanceof Float) {
+                shape.append("real");
+            } else if (arg instanceof Number) {
+                shape.append("integer");
+            } else {
+                shape.append("text(").append(arg.toString().length()).append(')');
+            }
+        }
+        return shape.append(']').toString();
+    }
+
+}
@@ -0,0 +1,100 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.sql;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The executions of one statement of a SQL store, see
+ * {@link SQLStoreConfiguration#withQueryDiagnostics(long, TimeUnit)}.
+ *
+ * Statements differing only in the length of a parameter list, ie
+ * <code>in (?,?,?)</code>, are counted as one.
+ */
+public final class QueryStatistics {
+
+    private final String sql;
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong slowExecutions = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private volatile String queryPlan;
+
+    QueryStatistics(String sql) {
+        this.sql = sql;
+    }
+
+    void record(long nanos, boolean slow) {
+        executions.incrementAndGet();
+        if (slow) {
+            slowExecutions.incrementAndGet();
+        }
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    void setQueryPlan(String queryPlan) {
+        this.queryPlan = queryPlan;
+    }
+
+    /**
+     * @return the statement, parameter lists shortened to <code>?, ...</code>
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    public long getExecutions() {
+        return executions.get();
+    }
+
+    /**
+     * @return the executions that took at least the slow query threshold
+     */
+    public long getSlowExecutions() {
+        return slowExecutions.get();
+    }
+
+    public long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalNanos.get());
+    }
+
+    public long getMaxMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+    }
+
+    /**
+     * @return the <code>EXPLAIN QUERY PLAN</code> of the first execution,
+     * one step per line, ie <code>SEARCH TABLE Data_property USING INDEX
+     * Data_property_name_value_index (PROPERTY_NAME=? AND PROPERTY_VALUE=?)</code>,
+     * or null if SQLite couldn't explain it
+     */
+    public String getQueryPlan() {
+        return queryPlan;
+    }
+
+    @Override
+    public String toString() {
+        return sql + ": " + getExecutions() + " executions, " + getSlowExecutions() + " slow, "
+                + getTotalMillis() + " ms total, " + getMaxMillis() + " ms max";
+    }
+
+}
@@ -18,10 +18,12 @@ package org.jboss.aerogear.android.store.sql;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.database.sqlite.SQLiteTransactionListener;
 import android.os.AsyncTask;
-import android.text.TextUtils;
 import android.util.Log;
 import android.util.Pair;
 
@@ -30,69 +32,218 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
 
 import org.jboss.aerogear.android.core.Callback;
 import org.jboss.aerogear.android.core.ReadFilter;
-import org.jboss.aerogear.android.core.reflection.Property;
-import org.jboss.aerogear.android.core.reflection.Scan;
+import org.jboss.aerogear.android.store.CloseableIterator;
 import org.jboss.aerogear.android.store.Store;
+import org.jboss.aerogear.android.store.accessor.EntityAccessor;
+import org.jboss.aerogear.android.store.accessor.EntityAccessors;
+import org.jboss.aerogear.android.store.codec.EntityCodec;
 import org.jboss.aerogear.android.store.generator.DefaultIdGenerator;
 import org.jboss.aerogear.android.store.generator.IdGenerator;
+import org.jboss.aerogear.android.store.metrics.OperationRecorder;
+import org.jboss.aerogear.android.store.metrics.StoreOperation;
+import org.jboss.aerogear.android.store.util.MainThreadExecutor;
 
 import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
 
 public class SQLStore<T> extends SQLiteOpenHelper implements Store<T> {
 
     private static final String TAG = SQLStore.class.getSimpleName();
     private final Class<T> klass;
     private final String className;
+    // PROPERTY_VALUE has no declared type, so numbers keep their INTEGER or
+    // REAL storage class instead of being coerced to text
     private final static String CREATE_PROPERTIES_TABLE = "create table if not exists %s_property "
             + " ( _ID integer primary key autoincrement,"
             + "  PARENT_ID text not null,"
             + "  PROPERTY_NAME text not null,"
-            + "  PROPERTY_VALUE text )";
-    private final static String CREATE_PROPERTIES_INDEXES = "create index  if not exists %s_property_name_index "
-            + " ON %s_property (PROPERTY_NAME);"
-            + "create index if not exists %s_property_name_value_index "
-            + " ON %s_property (PROPERTY_NAME, PROPERTY_VALUE) ;"
-            + "create index  if not exists %s_property_parent_index "
-            + " ON %s_property (PARENT_ID);";
+            + "  PROPERTY_VALUE )";
+    private final static String[] CREATE_PROPERTIES_INDEXES = {
+            "create index if not exists %s_property_name_index ON %s_property (PROPERTY_NAME)",
+            "create index if not exists %s_property_name_value_index ON %s_property (PROPERTY_NAME, PROPERTY_VALUE)",
+            "create index if not exists %s_property_parent_index ON %s_property (PARENT_ID)"
+    };
+    private final static String CREATE_ENCODED_PROPERTIES_TABLE = "create table if not exists %s_encoded_property "
+            + " ( _ID integer primary key autoincrement,"
+            + "  PARENT_ID text not null,"
+            + "  NAME_ID integer not null,"
+            + "  PROPERTY_VALUE )";
+    private final static String[] CREATE_ENCODED_PROPERTIES_INDEXES = {
+            "create index if not exists %s_encoded_property_name_value_index ON %s_encoded_property (NAME_ID, PROPERTY_VALUE)",
+            "create index if not exists %s_encoded_property_parent_index ON %s_encoded_property (PARENT_ID)"
+    };
+    private final static String CREATE_DOCUMENTS_TABLE = "create table if not exists %s_document "
+            + " ( PARENT_ID text primary key,"
+            + "  DOCUMENT text not null )";
+    // Rows of the declared indexed paths only, so filters on them search a
+    // B-tree holding nothing else
+    private final static String CREATE_INDEX_TABLE = "create table if not exists %s_index "
+            + " ( PARENT_ID text not null,"
+            + "  PROPERTY_NAME text not null,"
+            + "  PROPERTY_VALUE )";
+    private final static String[] CREATE_INDEX_INDEXES = {
+            "create index if not exists %s_index_name_value_index ON %s_index (PROPERTY_NAME, PROPERTY_VALUE, PARENT_ID)",
+            "create index if not exists %s_index_parent_index ON %s_index (PARENT_ID)"
+    };
+    private final static String CREATE_INDEX_PATHS_TABLE = "create table if not exists %s_index_path "
+            + " ( PATH text primary key )";
+    // Full-text rows are keyed by the DOC_ID of the entity, an FTS table
+    // holding no column that is not tokenized
+    private final static String CREATE_FULL_TEXT_IDS_TABLE = "create table if not exists %s_fts_id "
+            + " ( DOC_ID integer primary key autoincrement,"
+            + "  PARENT_ID text not null unique )";
+    // Virtual tables only take "if not exists" from SQLite 3.7.11 on
+    private final static String CREATE_FULL_TEXT_TABLE = "create virtual table %s_fts using fts4 ( CONTENT )";
+    private final static String CREATE_FULL_TEXT_PATHS_TABLE = "create table if not exists %s_fts_path "
+            + " ( PATH text primary key )";
+    // Okapi BM25 parameters, the usual defaults
+    private final static double BM25_K1 = 1.2;
+    private final static double BM25_B = 0.75;
+    private final static int DATABASE_VERSION = 4;
+    private final static int MAX_CACHED_PROPERTY_PATHS = 4096;
+    // Stays below SQLITE_MAX_VARIABLE_NUMBER, 999 on every platform version
+    private final static int MAX_BOUND_IDS = 500;
+    private final static BigDecimal MIN_LONG = BigDecimal.valueOf(Long.MIN_VALUE);
+    private final static BigDecimal MAX_LONG = BigDecimal.valueOf(Long.MAX_VALUE);
     private SQLiteDatabase database;
     private final Gson gson;
     private final IdGenerator generator;
+    private final StorageMode storageMode;
+    private final EntityCodec codec;
+    private final String propertyTable;
+    private final String propertyNameColumn;
+    private final PropertyNames propertyNames;
+    private final String selectPropertiesSql;
+    private final String readPropertiesSql;
+    private final String readDocumentSql;
+    private final String insertPropertySql;
+    private final String insertRowsPrefixSql;
+    private final String insertDocumentSql;
+    private final String selectPropertiesForUpdateSql;
+    private final String updatePropertySql;
+    private final String deletePropertySql;
+    private final String existsPropertiesSql;
+    private final Set<String> fieldNames;
+    private final Set<String> indexedProperties;
+    private final String insertIndexSql;
+    private final String deleteIndexSql;
+    private final Set<String> fullTextProperties;
+    private final String insertFullTextIdSql;
+    private final String insertFullTextSql;
+    private final String deleteFullTextSql;
+    private final JournalSettings journalSettings;
+    private final WriteBehindQueue<JsonObject> writeBehind;
+    private final EntityCache<T> entityCache;
+    private final SchemaMigration schemaMigration;
+    private final SchemaMigration typedValues;
+    private final boolean warmUp;
+    private final int warmUpPreloadEntities;
+    private volatile WarmUpReport warmUpReport;
+    private final OperationRecorder recorder;
+    private final QueryDiagnostics queryDiagnostics;
+    private final Map<String, PropertyPath> propertyPaths = new ConcurrentHashMap<String, PropertyPath>();
 
     public SQLStore(Class<T> klass, Context context) {
-        super(context, klass.getSimpleName(), null, 1);
-        this.klass = klass;
-        this.className = klass.getSimpleName();
-        this.gson = new Gson();
-        this.generator = new DefaultIdGenerator();
+        this(klass, context, new GsonBuilder(), new DefaultIdGenerator());
     }
 
     public SQLStore(Class<T> klass, Context context, GsonBuilder builder, IdGenerator generator) {
-        super(context, klass.getSimpleName(), null, 1);
-        this.klass = klass;
-        this.className = klass.getSimpleName();
-        this.gson = builder.create();
-        this.generator = generator;
+        this(klass, context, builder, generator, klass.getSimpleName());
     }
 
     public SQLStore(Class<T> klass, Context context, GsonBuilder builder, IdGenerator generator, String databaseName) {
-        super(context, databaseName, null, 1);
+        this(klass, context, databaseName, new SQLStoreConfiguration()
+                .withGsonBuilder(builder)
+                .withIdGenerator(generator));
+    }
+
+    public SQLStore(Class<T> klass, SQLStoreConfiguration configuration) {
+        this(klass, configuration.getContext(), klass.getSimpleName(), configuration);
+    }
+
+    private SQLStore(Class<T> klass, Context context, String databaseName, SQLStoreConfiguration configuration) {
+        super(context, databaseName, null, DATABASE_VERSION);
         this.klass = klass;
         this.className = databaseName;
-        this.gson = builder.create();
-        this.generator = generator;
+        this.gson = EntityAccessors.createGson(configuration.getGsonBuilder(), configuration.isGeneratedAdapters());
+        this.generator = configuration.getIdGenerator();
+        this.storageMode = configuration.getStorageMode();
+        this.codec = configuration.getCodec();
+        if (storageMode == StorageMode.ENCODED_PROPERTIES) {
+            this.propertyTable = className + "_encoded_property";
+            this.propertyNameColumn = "NAME_ID";
+            this.propertyNames = new PropertyNames(className + "_property_name");
+        } else {
+            this.propertyTable = className + "_property";
+            this.propertyNameColumn = "PROPERTY_NAME";
+            this.propertyNames = null;
+        }
+        this.selectPropertiesSql = String.format("select PARENT_ID, %s, PROPERTY_VALUE from %s", propertyNameColumn, propertyTable);
+        this.readPropertiesSql = String.format("Select %s, PROPERTY_VALUE from %s where PARENT_ID = ?", propertyNameColumn, propertyTable);
+        this.readDocumentSql = String.format("Select DOCUMENT from %s_document where PARENT_ID = ?", className);
+        this.insertPropertySql = String.format("insert into %s (%s, PROPERTY_VALUE, PARENT_ID) values (?,?,?)", propertyTable, propertyNameColumn);
+        this.insertRowsPrefixSql = String.format("insert into %s (%s, PROPERTY_VALUE, PARENT_ID) ", propertyTable, propertyNameColumn);
+        this.insertDocumentSql = String.format("insert or replace into %s_document (PARENT_ID, DOCUMENT) values (?,?)", className);
+        this.selectPropertiesForUpdateSql = String.format("select _ID, %s, PROPERTY_VALUE from %s where PARENT_ID = ? order by _ID", propertyNameColumn, propertyTable);
+        this.updatePropertySql = String.format("update %s set PROPERTY_VALUE = ? where _ID = ?", propertyTable);
+        this.deletePropertySql = String.format("delete from %s where _ID = ?", propertyTable);
+        this.existsPropertiesSql = String.format("select exists (select 1 from %s where PARENT_ID = ?)", propertyTable);
+        this.fieldNames = declaredFieldNames(klass);
+        this.indexedProperties = new HashSet<String>(configuration.getIndexedProperties());
+        this.insertIndexSql = String.format("insert into %s_index (PROPERTY_NAME, PROPERTY_VALUE, PARENT_ID) values (?,?,?)", className);
+        this.deleteIndexSql = String.format("delete from %s_index where PARENT_ID = ?", className);
+        this.fullTextProperties = new HashSet<String>(configuration.getFullTextProperties());
+        this.insertFullTextIdSql = String.format("insert or ignore into %s_fts_id (PARENT_ID) values (?)", className);
+        this.insertFullTextSql = String.format("insert into %1$s_fts (docid, CONTENT) "
+                + "select DOC_ID, ? from %1$s_fts_id where PARENT_ID = ?", className);
+        this.deleteFullTextSql = String.format("delete from %1$s_fts "
+                + "where docid = (select DOC_ID from %1$s_fts_id where PARENT_ID = ?)", className);
+        this.journalSettings = configuration.getJournalSettings();
+        this.journalSettings.applyTo(this);
+        this.writeBehind = (configuration.getWriteBehindMaxPending() > 0)
+                ? new WriteBehindQueue<JsonObject>(new WriteBehindQueue.Sink<JsonObject>() {
+                    @Override
+                    public void write(Map<String, JsonObject> saves, List<Serializable> removes) {
+                        writeBatch(saves, removes);
+                    }
+                }, configuration.getWriteBehindMaxPending(), configuration.getWriteBehindMaxDelayMillis())
+                : null;
+        this.schemaMigration = new SchemaMigration(className, configuration.getSchemaVersion(),
+                configuration.getMigrations(), configuration.getMigrationChunkSize(), new StoredEntities());
+        this.typedValues = new SchemaMigration(className + "_values", TypedValues.VERSION,
+                Collections.<Migration>singletonList(new TypedValues()), configuration.getMigrationChunkSize(),
+                new UntypedEntities());
+        this.entityCache = (configuration.getEntityCacheSize() > 0)
+                ? new EntityCache<T>(configuration.getEntityCacheSize(), configuration.isEntityCacheInBytes())
+                : null;
+        this.warmUp = configuration.isWarmUp();
+        this.warmUpPreloadEntities = configuration.getWarmUpPreloadEntities();
+        this.recorder = OperationRecorder.of(configuration, klass);
+        this.queryDiagnostics = QueryDiagnostics.of(className, configuration);
     }
 
     /**
@@ -100,46 +251,147 @@ public class SQLStore<T> extends SQLiteOpenHelper implements Store<T> {
      */
     @Override
     public Collection<T> readAll() {
+        long start = recorder.begin();
+        Collection<T> result = readAllEntities();
+        recorder.end(StoreOperation.READ_ALL, start, result.size());
+        return result;
+    }
+
+    private Collection<T> readAllEntities() {
         ensureOpen();
+        flushWriteBehind();
 
-        String sql = String.format("Select PROPERTY_NAME, PROPERTY_VALUE,PARENT_ID from %s_property", className);
-        Cursor cursor = database.rawQuery(sql, new String[0]);
-        HashMap<String, JsonObject> objects = new HashMap<String, JsonObject>(cursor.getCount());
-        try {
-            while (cursor.moveToNext()) {
-                String id = cursor.getString(2);
-                JsonObject object = objects.get(id);
-                if (object == null) {
-                    object = new JsonObject();
-                    objects.put(id, object);
-                }
-                add(object, cursor.getString(0), cursor.getString(1));
-            }
-            ArrayList<T> data = new ArrayList<T>(cursor.getCount());
-            for (JsonObject object : objects.values()) {
-                data.add(gson.fromJson(object, klass));
+        return schemaMigration.read(new SchemaMigration.Read<Collection<T>>() {
+            @Override
+            public Collection<T> run() {
+                return queryAllEntities();
             }
+        });
+    }
 
-            return data;
+    private Collection<T> queryAllEntities() {
+        if (storageMode == StorageMode.DOCUMENT) {
+            return readAllDocuments();
+        }
 
+        String sql = selectPropertiesSql + " order by PARENT_ID, _ID";
+        Cursor cursor = queryDiagnostics.rawQuery(database, sql, new String[0]);
+        try {
+            return hydrate(cursor);
         } finally {
             cursor.close();
         }
 
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Property rows are walked in PARENT_ID order, so only the entity being
+     * assembled is held in memory.
+     */
+    @Override
+    public CloseableIterator<T> iterator() {
+        long start = recorder.begin();
+        CloseableIterator<T> result = openIterator();
+        recorder.end(StoreOperation.ITERATOR, start, 0);
+        return result;
+    }
+
+    private CloseableIterator<T> openIterator() {
+        ensureOpen();
+        flushWriteBehind();
+
+        if (schemaMigration.isRunning()) {
+            // A streamed read can't be retried if a migration chunk commits
+            return CursorIterator.over(readAllEntities());
+        }
+
+        if (storageMode == StorageMode.DOCUMENT) {
+            String sql = String.format("Select PARENT_ID, DOCUMENT from %s_document order by PARENT_ID", className);
+            return new CursorIterator<T>(queryDiagnostics.rawQuery(database, sql, new String[0])) {
+                @Override
+                protected T read(Cursor cursor) {
+                    T item = fromDocument(cursor.getString(0), cursor, 1, null);
+                    cursor.moveToNext();
+                    return item;
+                }
+            };
+        }
+
+        String sql = selectPropertiesSql + " order by PARENT_ID, _ID";
+        return new CursorIterator<T>(queryDiagnostics.rawQuery(database, sql, new String[0])) {
+            @Override
+            protected T read(Cursor cursor) {
+                return readEntity(cursor);
+            }
+        };
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public T read(Serializable id) {
+        long start = recorder.begin();
+        T result = readById(id);
+        recorder.end(StoreOperation.READ, start, (result == null) ? 0 : 1);
+        return result;
+    }
+
+    private T readById(Serializable id) {
         ensureOpen();
 
-        String sql = String.format("Select PROPERTY_NAME, PROPERTY_VALUE from %s_property where PARENT_ID = ?", className);
+        if (writeBehind != null) {
+            WriteBehindQueue.Entry<JsonObject> pending = writeBehind.lookup(id);
+            if (pending != null) {
+                recorder.addCacheHit();
+                return (pending.item == null) ? null : gson.fromJson(pending.item, klass);
+            }
+        }
+
+        if (entityCache == null) {
+            return readFromDatabase(id, null);
+        }
+
+        T cached = entityCache.get(id);
+        if (cached != null) {
+            recorder.addCacheHit();
+            return cached;
+        }
+
+        long version = entityCache.version();
+        int[] estimatedBytes = new int[1];
+        T result = readFromDatabase(id, estimatedBytes);
+        if (result != null) {
+            entityCache.put(id, result, estimatedBytes[0], version);
+        }
+        return result;
+    }
+
+    /**
+     * @param estimatedBytes if not null, receives two bytes per character
+     * read for the entity
+     */
+    private T readFromDatabase(final Serializable id, final int[] estimatedBytes) {
+        return schemaMigration.read(new SchemaMigration.Read<T>() {
+            @Override
+            public T run() {
+                return queryEntity(id, estimatedBytes);
+            }
+        });
+    }
+
+    private T queryEntity(Serializable id, int[] estimatedBytes) {
+        if (storageMode == StorageMode.DOCUMENT) {
+            return readDocument(id, estimatedBytes);
+        }
+
         String[] bindArgs = new String[1];
         bindArgs[0] = id.toString();
         JsonObject result = new JsonObject();
-        Cursor cursor = database.rawQuery(sql, bindArgs);
+        Cursor cursor = queryDiagnostics.rawQuery(database, readPropertiesSql, bindArgs);
+        int characters = 0;
 
         try {
             if (cursor.getCount() == 0) {
@@ -147,335 +399,1854 @@ public class SQLStore<T> extends SQLiteOpenHelper implements Store<T> {
             }
 
             while (cursor.moveToNext()) {
-                add(result, cursor.getString(0), cursor.getString(1));
+                String name = propertyName(cursor, 0);
+                String value = propertyValue(cursor, 1);
+                characters += name.length() + ((value == null) ? 0 : value.length());
+                add(result, name, value);
             }
         } finally {
             cursor.close();
         }
 
-        return gson.fromJson(result, klass);
+        if (estimatedBytes != null) {
+            estimatedBytes[0] = 2 * characters;
+        }
+        return gson.fromJson(schemaMigration.upgrade(id.toString(), result), klass);
 
     }
 
     /**
      * {@inheritDoc}
+     *
+     * The filter's limit and offset are applied in SQL over the matching ids
+     * ordered by their text value, so only the requested page is read.
+     *
+     * Besides equality, a property of the where clause can be compared with
+     * the <code>$gt</code>, <code>$gte</code>, <code>$lt</code>,
+     * <code>$lte</code> and <code>$ne</code> operators, ie
+     * <code>{"timestamp": {"$gt": 1420070400000}}</code>. Numbers compare
+     * numerically, strings and booleans as text.
+     *
+     * Numbers are stored as INTEGER or REAL values, so a number given as a
+     * string, ie <code>{"age": "30"}</code>, is compared as text and
+     * doesn't match them. Booleans are stored as the text
+     * <code>true</code> or <code>false</code> rather than 0 or 1: the rows
+     * don't record the type of the field they came from, and hydration
+     * has to hand Gson a boolean, not a number.
+     *
+     * Conditions on a path declared with
+     * {@link SQLStoreConfiguration#withIndexedProperties(String...)} are
+     * answered from that path's index.
      */
     @Override
     public List<T> readWithFilter(ReadFilter filter) {
-        ensureOpen();
+        long start = recorder.begin();
+        List<T> result = readWithFilter(filter, null);
+        recorder.end(StoreOperation.READ_WITH_FILTER, start, result.size());
+        return result;
+    }
 
-        if (filter == null) {
-            filter = new ReadFilter();
+    /**
+     * Reads the entities {@link #readWithFilter(ReadFilter)} returns, with
+     * only the given property paths and the record id populated. Every other
+     * field keeps the value Gson leaves it with.
+     *
+     * A path selects the property and everything below it, so
+     * <code>"address"</code> hydrates <code>address.city</code> and
+     * <code>"items"</code> the whole list. Only the rows of the selected
+     * properties are read; in document mode the documents are still read,
+     * but only the selected properties are deserialized.
+     *
+     * @param filter a filter to use to fetch the entities
+     * @param propertyPaths the property paths to hydrate
+     * @return the partially populated entities
+     */
+    public List<T> readProjection(ReadFilter filter, String... propertyPaths) {
+        long start = recorder.begin();
+        List<T> result = readWithFilter(filter,
+                new PropertyProjection(EntityAccessors.of(klass).getRecordIdName(), propertyPaths));
+        recorder.end(StoreOperation.READ_WITH_FILTER, start, result.size());
+        return result;
+    }
+
+    /**
+     * Searches the full-text index of the paths declared with
+     * {@link SQLStoreConfiguration#withFullTextProperties(String...)}.
+     *
+     * @param query a query in the SQLite FTS syntax, ie <code>shoe*</code>
+     * or <code>"red shoes"</code>
+     * @return every match, best ranked first
+     * @throws IllegalStateException if no full-text path is declared
+     */
+    public List<T> search(String query) {
+        return search(query, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Searches the full-text index of the paths declared with
+     * {@link SQLStoreConfiguration#withFullTextProperties(String...)}.
+     *
+     * Matches come from the index alone and are ranked by BM25 over the
+     * match statistics SQLite reports for them. Only the best
+     * <code>limit</code> entities are read.
+     *
+     * @param query a query in the SQLite FTS syntax, ie <code>shoe*</code>
+     * or <code>"red shoes"</code>
+     * @param limit the most entities returned
+     * @return the best ranked matches, best first
+     * @throws IllegalStateException if no full-text path is declared
+     */
+    public List<T> search(String query, int limit) {
+        if (fullTextProperties.isEmpty()) {
+            throw new IllegalStateException("No full-text properties are declared");
         }
-        String sql = String.format("select PARENT_ID from %s_property where PROPERTY_NAME LIKE ? and PROPERTY_VALUE = ?", className);
-        JsonObject where = (JsonObject) new JsonParser().parse(filter.getWhere().toString());
-        List<Pair<String, String>> queryList = new ArrayList<Pair<String, String>>();
-        Map<String, AtomicInteger> resultCount = new HashMap<String, AtomicInteger>();
-        buildKeyValuePairs(where, queryList, "");
+        long start = recorder.begin();
+        ensureOpen();
+        flushWriteBehind();
 
-        if (queryList.isEmpty()) {// there is no query
-            return new ArrayList<T>(readAll());
-        } else {
-            for (Pair<String, String> kv : queryList) {
-                String[] bindArgs = new String[]{kv.first, kv.second};
-                Cursor cursor = database.rawQuery(sql, bindArgs);
-                while (cursor.moveToNext()) {
-                    String id = cursor.getString(0);
-                    AtomicInteger count = resultCount.get(id);
-                    if (count == null) {
-                        count = new AtomicInteger(0);
-                        resultCount.put(id, count);
-                    }
-                    count.incrementAndGet();
-                }
-                cursor.close();
+        final Map<String, Double> scores = new HashMap<String, Double>();
+        String sql = String.format("select i.PARENT_ID, matchinfo(%1$s_fts, 'pcnalx') from %1$s_fts "
+                + "join %1$s_fts_id i on i.DOC_ID = %1$s_fts.docid where %1$s_fts match ?", className);
+        Cursor cursor = queryDiagnostics.rawQuery(database, sql, new String[]{query});
+        try {
+            while (cursor.moveToNext()) {
+                scores.put(cursor.getString(0), bm25(cursor.getBlob(1)));
             }
+        } finally {
+            cursor.close();
         }
-        List<T> results = new ArrayList<T>();
 
-        for (String id : resultCount.keySet()) {
-            if (resultCount.get(id).get() == queryList.size()) {// There are as many objects as queries which meant a result was returned for every query
-                results.add(read(id));
+        List<String> ids = new ArrayList<String>(scores.keySet());
+        Collections.sort(ids, new Comparator<String>() {
+            @Override
+            public int compare(String left, String right) {
+                int byScore = Double.compare(scores.get(right), scores.get(left));
+                return (byScore != 0) ? byScore : left.compareTo(right);
             }
+        });
+        if (ids.size() > limit) {
+            ids = ids.subList(0, Math.max(limit, 0));
         }
 
+        Map<String, T> entities = readByIds(ids);
+        List<T> results = new ArrayList<T>(ids.size());
+        for (String id : ids) {
+            T entity = entities.get(id);
+            if (entity != null) {
+                results.add(entity);
+            }
+        }
+        recorder.end(StoreOperation.SEARCH, start, results.size());
         return results;
     }
 
     /**
-     * {@inheritDoc}
+     * Scores a row from its <code>matchinfo(..., 'pcnalx')</code> blob, an
+     * array of native order 32 bit integers.
      */
-    @Override
-    public void save(T item) {
-        ensureOpen();
-
-        this.database.beginTransaction();
-        try {
-            saveItem(item);
-            this.database.setTransactionSuccessful();
-        } finally {
-            this.database.endTransaction();
+    private static double bm25(byte[] matchinfo) {
+        IntBuffer info = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phrases = info.get(0);
+        int columns = info.get(1);
+        double rows = info.get(2);
+        int averageLengths = 3;
+        int lengths = averageLengths + columns;
+        int hits = lengths + columns;
+
+        double score = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns; column++) {
+                int hit = hits + 3 * (phrase * columns + column);
+                double frequency = info.get(hit);
+                if (frequency == 0) {
+                    continue;
+                }
+                double matchingRows = info.get(hit + 2);
+                double idf = Math.log(1 + (rows - matchingRows + 0.5) / (matchingRows + 0.5));
+                double relativeLength = info.get(lengths + column) / Math.max(info.get(averageLengths + column), 1.0);
+                score += idf * frequency * (BM25_K1 + 1)
+                        / (frequency + BM25_K1 * (1 - BM25_B + BM25_B * relativeLength));
+            }
         }
+        return score;
     }
 
     /**
-     * {@inheritDoc}
+     * @return the stored entities among <code>ids</code>, keyed by id
      */
-    @Override
-    public void save(Collection<T> items) {
-        ensureOpen();
+    private Map<String, T> readByIds(final List<String> ids) {
+        return schemaMigration.read(new SchemaMigration.Read<Map<String, T>>() {
+            @Override
+            public Map<String, T> run() {
+                return queryByIds(ids);
+            }
+        });
+    }
 
-        this.database.beginTransaction();
-        try {
-            for (T item : items) {
-                saveItem(item);
+    private Map<String, T> queryByIds(List<String> ids) {
+        Map<String, T> entities = new HashMap<String, T>(ids.size() * 2);
+        for (int start = 0; start < ids.size(); start += MAX_BOUND_IDS) {
+            List<String> chunk = ids.subList(start, Math.min(start + MAX_BOUND_IDS, ids.size()));
+            String[] bindArgs = chunk.toArray(new String[chunk.size()]);
+            if (storageMode == StorageMode.DOCUMENT) {
+                String sql = String.format("select PARENT_ID, DOCUMENT from %s_document where PARENT_ID in (%s)",
+                                           className, parameters(chunk.size()));
+                Cursor cursor = queryDiagnostics.rawQuery(database, sql, bindArgs);
+                try {
+                    while (cursor.moveToNext()) {
+                        entities.put(cursor.getString(0), fromDocument(cursor.getString(0), cursor, 1, null));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } else {
+                String sql = String.format("%s where PARENT_ID in (%s) order by PARENT_ID, _ID",
+                                           selectPropertiesSql, parameters(chunk.size()));
+                Cursor cursor = queryDiagnostics.rawQuery(database, sql, bindArgs);
+                try {
+                    if (cursor.moveToFirst()) {
+                        while (!cursor.isAfterLast()) {
+                            String id = cursor.getString(0);
+                            entities.put(id, readEntity(cursor));
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
             }
-            this.database.setTransactionSuccessful();
-        } finally {
-            this.database.endTransaction();
         }
+        return entities;
     }
 
-    private void saveItem(T item) {
-        String recordIdFieldName = Scan.recordIdFieldNameIn(item.getClass());
-        Property property = new Property(item.getClass(), recordIdFieldName);
-        Serializable idValue = (Serializable) property.getValue(item);
+    /**
+     * @param projection the properties to hydrate, or null for all of them
+     */
+    private List<T> readWithFilter(final ReadFilter filter, final PropertyProjection projection) {
+        return schemaMigration.read(new SchemaMigration.Read<List<T>>() {
+            @Override
+            public List<T> run() {
+                return queryWithFilter(filter, projection);
+            }
+        });
+    }
 
-        if (idValue == null) {
-            idValue = generator.generate();
-            property.setValue(item, idValue);
+    private List<T> queryWithFilter(ReadFilter filter, PropertyProjection projection) {
+        ensureOpen();
+        flushWriteBehind();
+
+        if (filter == null) {
+            filter = new ReadFilter();
+        }
+        JsonObject where = (JsonObject) new JsonParser().parse(filter.getWhere().toString());
+        List<PropertyCondition> queryList = PropertyCondition.parse(where);
+
+        int limit = toSqlLimit(filter.getLimit());
+        int offset = (filter.getOffset() == null) ? 0 : Math.max(filter.getOffset(), 0);
+
+        if (queryList.isEmpty() && limit < 0 && offset == 0 && projection == null) {// there is no query
+            return new ArrayList<T>(readAllEntities());
+        } else if (storageMode == StorageMode.DOCUMENT) {
+            return readDocumentsWithFilter(queryList, limit, offset, projection);
         }
 
-        JsonObject serialized = (JsonObject) gson.toJsonTree(item, klass);
-        database.beginTransaction();
+        List<String> bindArgs = new ArrayList<String>(queryList.size() * 2 + 2);
+        String idsQuery = queryList.isEmpty()
+                ? "select distinct PARENT_ID from " + propertyTable
+                : buildIdsQuery(queryList, bindArgs);
+        bindArgs.add(String.valueOf(limit));
+        bindArgs.add(String.valueOf(offset));
+
+        StringBuilder sql = new StringBuilder(String.format("%s where PARENT_ID in "
+                + "(select PARENT_ID from (%s) order by PARENT_ID limit ? offset ?) ", selectPropertiesSql, idsQuery));
+        if (projection != null) {
+            sql.append("and ");
+            projection.appendSql(sql, propertyNames, bindArgs);
+        }
+        sql.append(" order by PARENT_ID, _ID");
+        Cursor cursor = queryDiagnostics.rawQuery(database, sql.toString(), bindArgs.toArray(new String[bindArgs.size()]));
         try {
-            saveElement(serialized, "", idValue);
-            database.setTransactionSuccessful();
+            return hydrate(cursor);
         } finally {
-            database.endTransaction();
+            cursor.close();
         }
     }
 
-    private void saveElement(JsonElement serialized, String path, Serializable id) {
-        String sql = String.format("insert into %s_property (PROPERTY_NAME, PROPERTY_VALUE, PARENT_ID) values (?,?,?)", className);
-
-        if (serialized.isJsonObject()) {
-            Set<Entry<String, JsonElement>> members = ((JsonObject) serialized).entrySet();
-            String pathVar = path.isEmpty() ? "" : ".";
-
-            for (Entry<String, JsonElement> member : members) {
-                JsonElement jsonValue = member.getValue();
-                String propertyName = member.getKey();
+    /**
+     * Maps a ReadFilter limit to its SQL counterpart, -1 meaning no limit.
+     */
+    private static int toSqlLimit(Integer limit) {
+        if (limit == null || limit < 0 || limit == Integer.MAX_VALUE) {
+            return -1;
+        }
+        return limit;
+    }
 
-                if (jsonValue.isJsonArray()) {
-                    JsonArray jsonArray = jsonValue.getAsJsonArray();
-                    for (int index = 0; index < jsonArray.size(); index++) {
-                        saveElement(jsonArray.get(index), path + pathVar + propertyName + String.format("[%d]", index), id);
-                    }
-                } else {
-                    saveElement(jsonValue, path + pathVar + propertyName, id);
-                }
+    /**
+     * Compiles the where clause into a single statement returning the ids
+     * that match every condition: one indexed lookup per condition,
+     * intersected by SQLite. Keys containing '%' are matched with LIKE, other
+     * keys exactly.
+     *
+     * Exact keys are case sensitive and '_' is an ordinary character in
+     * them, so <code>{"Name": ...}</code> doesn't match a <code>name</code>
+     * property and <code>{"na_e": ...}</code> doesn't match it either, the
+     * way the memory store compares keys. Keys holding a '%' keep LIKE's
+     * semantics: '_' matches any one character and ASCII letters match
+     * regardless of case.
+     */
+    private String buildIdsQuery(List<PropertyCondition> queryList, List<String> bindArgs) {
+        StringBuilder sql = new StringBuilder();
+        for (PropertyCondition condition : queryList) {
+            if (sql.length() > 0) {
+                sql.append(" intersect ");
             }
-        } else if (serialized.isJsonPrimitive()) {
-            JsonPrimitive primitive = serialized.getAsJsonPrimitive();
-            if (primitive.isBoolean()) {
-                String value = primitive.getAsBoolean() ? "true" : "false";
-                database.execSQL(sql, new Object[]{path, value, id});
-            } else if (primitive.isNumber()) {
-                Number value = primitive.getAsNumber();
-                database.execSQL(sql, new Object[]{path, value, id});
-            } else if (primitive.isString()) {
-                String value = primitive.getAsString();
-                database.execSQL(sql, new Object[]{path, value, id});
+            if (isIndexed(condition)) {
+                condition.appendSql(sql, className + "_index", null, bindArgs);
             } else {
-                throw new IllegalArgumentException(serialized + " isn't a number, boolean, or string");
+                condition.appendSql(sql, propertyTable, propertyNames, bindArgs);
             }
-        } else {
-            throw new IllegalArgumentException(serialized + " isn't a JsonObject or JsonPrimitive");
         }
+        return sql.toString();
     }
 
     /**
-     * {@inheritDoc}
+     * @return true if every condition can be answered from the index table
      */
-    @Override
-    public void reset() {
-        ensureOpen();
-
-        String sql = String.format("Delete from %s_property", className);
-        database.execSQL(sql);
+    private boolean isIndexed(List<PropertyCondition> queryList) {
+        for (PropertyCondition condition : queryList) {
+            if (!isIndexed(condition)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
-     * {@inheritDoc}
+     * A condition can be answered from the index table when its name, array
+     * indices left out, is a declared path. LIKE names qualify only if their
+     * wildcards are all inside brackets, otherwise they could match names
+     * that are not indexed.
      */
-    @Override
-    public boolean isEmpty() {
-        ensureOpen();
-
-        String sql = String.format("Select count(_ID) from %s_property", className);
-        Cursor cursor = database.rawQuery(sql, null);
-        cursor.moveToFirst();
-        boolean result = (cursor.getInt(0) == 0);
-        cursor.close();
-        return result;
+    private boolean isIndexed(PropertyCondition condition) {
+        if (indexedProperties.isEmpty()) {
+            return false;
+        }
+        String path = indexedPath(condition.getName());
+        if (condition.isPattern() && (path.indexOf('%') >= 0 || path.indexOf('_') >= 0)) {
+            return false;
+        }
+        return indexedProperties.contains(path);
     }
 
     /**
-     * {@inheritDoc}
+     * @return the property name without its array indices, ie
+     * <code>items.sku</code> for <code>items[2].sku</code>
      */
-    @Override
-    public void remove(Serializable id) {
-        ensureOpen();
+    private static String indexedPath(String propertyName) {
+        int bracket = propertyName.indexOf('[');
+        if (bracket < 0) {
+            return propertyName;
+        }
+        StringBuilder path = new StringBuilder(propertyName.length());
+        int start = 0;
+        while (bracket >= 0) {
+            path.append(propertyName, start, bracket);
+            int end = propertyName.indexOf(']', bracket);
+            if (end < 0) {
+                return propertyName;
+            }
+            start = end + 1;
+            bracket = propertyName.indexOf('[', start);
+        }
+        path.append(propertyName, start, propertyName.length());
+        return path.toString();
+    }
 
-        String sql = String.format("Delete from %s_property where PARENT_ID = ?", className);
-        Object[] bindArgs = new Object[1];
-        bindArgs[0] = id;
-        database.execSQL(sql, bindArgs);
+    /**
+     * Assembles entities from a cursor of (PARENT_ID, PROPERTY_NAME,
+     * PROPERTY_VALUE) rows ordered by PARENT_ID.
+     */
+    private List<T> hydrate(Cursor cursor) {
+        List<T> results = new ArrayList<T>();
+        if (cursor.moveToFirst()) {
+            while (!cursor.isAfterLast()) {
+                results.add(readEntity(cursor));
+            }
+        }
+        return results;
     }
 
     /**
-     * {@inheritDoc}
+     * Assembles the entity whose rows start at the current position of the
+     * cursor, leaving it on the first row of the next entity.
      */
-    @Override
-    public void onCreate(SQLiteDatabase db) {
-        db.execSQL(String.format(CREATE_PROPERTIES_TABLE, className));
-        db.execSQL(String.format(CREATE_PROPERTIES_INDEXES, className, className, className, className, className, className));
+    private T readEntity(Cursor cursor) {
+        String id = cursor.getString(0);
+        return gson.fromJson(schemaMigration.upgrade(id, readJson(cursor)), klass);
     }
 
     /**
-     * {@inheritDoc }
+     * @return the property name in <code>column</code>, decoded from the
+     * dictionary in {@link StorageMode#ENCODED_PROPERTIES}
      */
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    private String propertyName(Cursor cursor, int column) {
+        return propertyName(cursor, column, propertyNames);
     }
 
-    public void open(final Callback<SQLStore<T>> onReady) {
-        new AsyncTask<Void, Void, Void>() {
-            private Exception exception;
+    private static String propertyName(Cursor cursor, int column, PropertyNames names) {
+        return (names == null) ? cursor.getString(column) : names.nameOf(cursor.getLong(column));
+    }
 
-            @Override
-            protected Void doInBackground(Void... params) {
-                try {
-                    SQLStore.this.database = getWritableDatabase();
-                } catch (Exception e) {
-                    this.exception = e;
-                    Log.e(TAG, "There was an error loading the database", e);
-                }
-                return null;
-            }
+    private void bindPropertyName(SQLiteStatement statement, int index, String name) {
+        if (propertyNames == null) {
+            statement.bindString(index, name);
+        } else {
+            statement.bindLong(index, propertyNames.intern(database, name));
+        }
+    }
 
-            @Override
-            protected void onPostExecute(Void result) {
-                if (exception != null) {
-                    onReady.onFailure(exception);
-                } else {
-                    onReady.onSuccess(SQLStore.this);
-                }
-            }
-        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, (Void[]) null);
+    /**
+     * @return the table holding one or more rows per entity
+     */
+    private String entityTable() {
+        return (storageMode == StorageMode.DOCUMENT) ? className + "_document" : propertyTable;
     }
 
-    public void openSync() {
-        this.database = getWritableDatabase();
+    private JsonObject readJson(Cursor cursor) {
+        return readJson(cursor, propertyNames);
+    }
+
+    /**
+     * @param names the dictionary the rows reference their names by id
+     * into, or null if they hold them as text
+     */
+    private JsonObject readJson(Cursor cursor, PropertyNames names) {
+        String id = cursor.getString(0);
+        JsonObject result = new JsonObject();
+        do {
+            add(result, propertyName(cursor, 1, names), propertyValue(cursor, 2));
+        } while (cursor.moveToNext() && id.equals(cursor.getString(0)));
+        return result;
     }
 
+    /**
+     * {@inheritDoc}
+     */
     @Override
-    public void close() {
-        if (this.database != null && this.database.isOpen()) {
-            this.database.close();
-        }
+    public void save(T item) {
+        save(Collections.singletonList(item));
     }
 
-    private void add(JsonObject result, String propertyName, String propertyValue) {
-        if (!propertyName.contains(".")) {
-            if (propertyName.contains("[")) {
-                String unArrayPropertyName = propertyName.split("\\[")[0];
-                if (!result.has(unArrayPropertyName)) {
-                    result.add(unArrayPropertyName, new JsonArray());
-                }
-                JsonArray array = result.getAsJsonArray(unArrayPropertyName);
-                array.add(gson.toJsonTree(propertyValue));
-            } else {
-                result.addProperty(propertyName, propertyValue);
+    /**
+     * {@inheritDoc}
+     *
+     * Items whose id is already stored are upserted: only the properties
+     * whose value changed are rewritten and properties that disappeared are
+     * deleted. Which items are stored is looked up for the whole collection
+     * at once, new property rows are inserted a hundred per statement, and
+     * the whole collection is written in a single transaction.
+     *
+     * With write-behind enabled the items are only buffered, see
+     * {@link SQLStoreConfiguration#withWriteBehind(int, long, java.util.concurrent.TimeUnit)}.
+     */
+    @Override
+    public void save(Collection<T> items) {
+        long start = recorder.begin();
+        ensureOpen();
+
+        if (writeBehind != null) {
+            for (T item : items) {
+                writeBehind.save(idOf(item), serialize(item));
             }
         } else {
-            String[] names = propertyName.split("\\.", 2);
-
-            if (names[0].contains("[")) {
-                String key = names[0].split("\\[")[0];
-                Integer index = Integer.parseInt(names[0].split("\\[")[1].split("\\]")[0]);
-                JsonArray subObject = result.getAsJsonArray(key);
+            writeBatch(serialize(items), Collections.<Serializable>emptyList());
+        }
+        recorder.end(StoreOperation.SAVE, start, items.size());
+    }
 
-                if (subObject == null) {
-                    subObject = new JsonArray();
-                    result.add(key, subObject);
-                }
+    private JsonObject serialize(T item) {
+        return (JsonObject) gson.toJsonTree(item, klass);
+    }
 
-                if ((index) >= subObject.size()) {
-                    for (int i = subObject.size(); i < (index + 1); i++) {
-                        subObject.add(new JsonObject());
-                    }
+    /**
+     * @return the serialized items by the text of their id, the last one
+     * kept when an id repeats
+     */
+    private Map<String, JsonObject> serialize(Collection<T> items) {
+        Map<String, JsonObject> serialized = new LinkedHashMap<String, JsonObject>(items.size() * 2);
+        for (T item : items) {
+            serialized.put(idOf(item).toString(), serialize(item));
+        }
+        return serialized;
+    }
+
+    /**
+     * Writes saves and removes in a single transaction.
+     *
+     * @param saves the serialized entities by the text of their id
+     */
+    private void writeBatch(Map<String, JsonObject> saves, Collection<? extends Serializable> removes) {
+        PropertyStatements statements = new PropertyStatements();
+        journalSettings.beginTransaction(this.database, propertyNames);
+        try {
+            if (!removes.isEmpty()) {
+                deleteItems(removes);
+            }
+            if (storageMode != StorageMode.DOCUMENT && saves.size() > 1) {
+                statements.storedIds = storedIds(saves.keySet());
+            }
+            for (Entry<String, JsonObject> save : saves.entrySet()) {
+                schemaMigration.markSaved(database, save.getKey());
+                saveJson(save.getKey(), save.getValue(), statements);
+            }
+            statements.flushInserts();
+            this.database.setTransactionSuccessful();
+        } finally {
+            this.database.endTransaction();
+            statements.close();
+            if (entityCache != null) {
+                // After the commit, so a read racing the transaction can't keep an old entity
+                for (Serializable id : removes) {
+                    entityCache.invalidate(id);
+                }
+                for (String id : saves.keySet()) {
+                    entityCache.invalidate(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the id of the item, generating and setting one if it has none
+     */
+    private Serializable idOf(T item) {
+        @SuppressWarnings("unchecked")
+        EntityAccessor<T> accessor = EntityAccessors.of((Class<T>) item.getClass());
+        Serializable idValue = accessor.getRecordId(item);
+
+        if (idValue == null) {
+            idValue = generator.generate();
+            accessor.setRecordId(item, idValue);
+        }
+        return idValue;
+    }
+
+    private void saveJson(String id, JsonObject serialized, PropertyStatements statements) {
+        List<Pair<String, JsonPrimitive>> properties = null;
+
+        if (storageMode == StorageMode.DOCUMENT) {
+            SQLiteStatement insert = statements.insert();
+            insert.bindString(1, id);
+            byte[] document = codec.encodeTree(serialized);
+            recorder.addBytes(document.length);
+            insert.bindBlob(2, document);
+            insert.executeInsert();
+        } else {
+            properties = new ArrayList<Pair<String, JsonPrimitive>>();
+            flatten(serialized, "", properties);
+            saveElement(properties, id, statements);
+        }
+
+        if (!indexedProperties.isEmpty()) {
+            if (properties == null) {
+                properties = new ArrayList<Pair<String, JsonPrimitive>>();
+                flatten(serialized, "", properties);
+            }
+            saveIndexedProperties(properties, id, statements);
+        }
+
+        if (!fullTextProperties.isEmpty()) {
+            if (properties == null) {
+                properties = new ArrayList<Pair<String, JsonPrimitive>>();
+                flatten(serialized, "", properties);
+            }
+            SQLiteStatement delete = statements.deleteFullText();
+            delete.bindString(1, id);
+            delete.executeUpdateDelete();
+            insertFullText(statements.insertFullTextId(), statements.insertFullText(), id, fullTextOf(properties));
+        }
+    }
+
+    /**
+     * @return the string values of the full-text paths, one per line
+     */
+    private String fullTextOf(List<Pair<String, JsonPrimitive>> properties) {
+        StringBuilder content = new StringBuilder();
+        for (Pair<String, JsonPrimitive> property : properties) {
+            if (property.second.isString() && fullTextProperties.contains(indexedPath(property.first))) {
+                content.append(property.second.getAsString()).append('\n');
+            }
+        }
+        return content.toString();
+    }
+
+    private static void insertFullText(SQLiteStatement insertId, SQLiteStatement insert, String id, String content) {
+        if (content.isEmpty()) {
+            return;
+        }
+        insertId.bindString(1, id);
+        insertId.executeInsert();
+        insert.bindString(1, content);
+        insert.bindString(2, id);
+        insert.executeInsert();
+    }
+
+    /**
+     * Replaces the index rows of an entity with its current values for the
+     * declared paths.
+     */
+    private void saveIndexedProperties(List<Pair<String, JsonPrimitive>> properties, String id, PropertyStatements statements) {
+        SQLiteStatement delete = statements.deleteIndex();
+        delete.bindString(1, id);
+        delete.executeUpdateDelete();
+
+        for (Pair<String, JsonPrimitive> property : properties) {
+            if (indexedProperties.contains(indexedPath(property.first))) {
+                SQLiteStatement insert = statements.insertIndex();
+                insert.bindString(1, property.first);
+                bindPropertyValue(insert, 2, property.second);
+                insert.bindString(3, id);
+                insert.executeInsert();
+            }
+        }
+    }
+
+    /**
+     * Diffs the serialized entity against the rows already stored for its
+     * id. Unchanged rows are left alone, changed values are updated in place
+     * (so the row order array hydration relies on is kept) and rows whose
+     * path disappeared, or duplicates left by older versions, are deleted.
+     */
+    private void saveElement(List<Pair<String, JsonPrimitive>> properties, String id, PropertyStatements statements) {
+        Map<String, JsonPrimitive> pending = new LinkedHashMap<String, JsonPrimitive>(properties.size());
+        for (Pair<String, JsonPrimitive> property : properties) {
+            pending.put(property.first, property.second);
+        }
+
+        if (statements.isStored(id)) {
+            // The rows of an id saved earlier in the batch may still be buffered
+            statements.flushInserts();
+            diffStoredProperties(id, pending, statements);
+        }
+
+        for (Entry<String, JsonPrimitive> property : pending.entrySet()) {
+            statements.insert(id, property.getKey(), property.getValue());
+        }
+    }
+
+    /**
+     * Applies the changes between the stored rows of an entity and its new
+     * properties, removing from pending every property that needs no insert.
+     */
+    private void diffStoredProperties(String id, Map<String, JsonPrimitive> pending, PropertyStatements statements) {
+        Cursor cursor = queryDiagnostics.rawQuery(database, selectPropertiesForUpdateSql, new String[]{id});
+        try {
+            while (cursor.moveToNext()) {
+                long rowId = cursor.getLong(0);
+                String name = propertyName(cursor, 1);
+
+                if (!pending.containsKey(name)) {
+                    SQLiteStatement delete = statements.delete();
+                    delete.bindLong(1, rowId);
+                    delete.executeUpdateDelete();
+                    continue;
+                }
+
+                JsonPrimitive value = pending.remove(name);
+                if (!isStoredValue(cursor, 2, value)) {
+                    SQLiteStatement update = statements.update();
+                    bindPropertyValue(update, 1, value);
+                    update.bindLong(2, rowId);
+                    update.executeUpdateDelete();
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Walks a serialized entity and collects every leaf value along with its
+     * property path (ie "address.street" or "items[2].sku").
+     */
+    private void flatten(JsonElement serialized, String path, List<Pair<String, JsonPrimitive>> properties) {
+        if (serialized.isJsonObject()) {
+            Set<Entry<String, JsonElement>> members = ((JsonObject) serialized).entrySet();
+            String pathVar = path.isEmpty() ? "" : ".";
+
+            for (Entry<String, JsonElement> member : members) {
+                JsonElement jsonValue = member.getValue();
+                String propertyName = member.getKey();
+
+                if (jsonValue.isJsonArray()) {
+                    JsonArray jsonArray = jsonValue.getAsJsonArray();
+                    for (int index = 0; index < jsonArray.size(); index++) {
+                        flatten(jsonArray.get(index), path + pathVar + propertyName + "[" + index + "]", properties);
+                    }
+                } else {
+                    flatten(jsonValue, path + pathVar + propertyName, properties);
+                }
+            }
+        } else if (serialized.isJsonPrimitive()) {
+            properties.add(new Pair<String, JsonPrimitive>(path, serialized.getAsJsonPrimitive()));
+        } else {
+            throw new IllegalArgumentException(serialized + " isn't a JsonObject or JsonPrimitive");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset() {
+        long start = recorder.begin();
+        ensureOpen();
+
+        if (writeBehind != null) {
+            writeBehind.clear();
+        }
+
+        String sql = "Delete from " + entityTable();
+        queryDiagnostics.execSQL(database, sql, null);
+        if (!indexedProperties.isEmpty()) {
+            queryDiagnostics.execSQL(database, String.format("Delete from %s_index", className), null);
+        }
+        if (!fullTextProperties.isEmpty()) {
+            queryDiagnostics.execSQL(database, String.format("Delete from %s_fts", className), null);
+            queryDiagnostics.execSQL(database, String.format("Delete from %s_fts_id", className), null);
+        }
+        if (entityCache != null) {
+            entityCache.clear();
+        }
+        recorder.end(StoreOperation.RESET, start, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty() {
+        long start = recorder.begin();
+        ensureOpen();
+        flushWriteBehind();
+
+        String sql = String.format("Select exists (select 1 from %s)", entityTable());
+        boolean result = queryDiagnostics.longForQuery(database, sql, null) == 0;
+        recorder.end(StoreOperation.IS_EMPTY, start, 0);
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count() {
+        long start = recorder.begin();
+        long result = countAll();
+        recorder.end(StoreOperation.COUNT, start, result);
+        return result;
+    }
+
+    private long countAll() {
+        ensureOpen();
+        flushWriteBehind();
+
+        String sql;
+        if (storageMode == StorageMode.DOCUMENT) {
+            sql = String.format("Select count(*) from %s_document", className);
+        } else {
+            sql = "Select count(distinct PARENT_ID) from " + propertyTable;
+        }
+        return queryDiagnostics.longForQuery(database, sql, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Matches are counted by SQL over the ids, the way
+     * {@link #readWithFilter(ReadFilter)} selects them. Document mode filters
+     * on paths that are not indexed still parse every document, but none of
+     * them is deserialized into an entity.
+     */
+    @Override
+    public long count(ReadFilter filter) {
+        long start = recorder.begin();
+        long result = countMatches(filter);
+        recorder.end(StoreOperation.COUNT, start, result);
+        return result;
+    }
+
+    private long countMatches(ReadFilter filter) {
+        ensureOpen();
+        flushWriteBehind();
+
+        if (filter == null) {
+            filter = new ReadFilter();
+        }
+        JsonObject where = (JsonObject) new JsonParser().parse(filter.getWhere().toString());
+        List<PropertyCondition> queryList = PropertyCondition.parse(where);
+
+        int limit = toSqlLimit(filter.getLimit());
+        int offset = (filter.getOffset() == null) ? 0 : Math.max(filter.getOffset(), 0);
+
+        long matches;
+        if (queryList.isEmpty()) {
+            matches = countAll();
+        } else if (storageMode == StorageMode.DOCUMENT && !isIndexed(queryList)) {
+            return scanDocuments(queryList, limit, offset, null);
+        } else {
+            List<String> bindArgs = new ArrayList<String>(queryList.size() * 2);
+            String idsQuery = buildIdsQuery(queryList, bindArgs);
+            String sql = (storageMode == StorageMode.DOCUMENT)
+                    ? String.format("select count(*) from %s_document where PARENT_ID in (%s)", className, idsQuery)
+                    : String.format("select count(*) from (%s)", idsQuery);
+            matches = queryDiagnostics.longForQuery(database, sql, bindArgs.toArray(new String[bindArgs.size()]));
+        }
+
+        long paged = Math.max(matches - offset, 0);
+        return (limit < 0) ? paged : Math.min(paged, limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The entity and its index and full text rows are deleted in a single
+     * transaction.
+     */
+    @Override
+    public void remove(Serializable id) {
+        long start = recorder.begin();
+        ensureOpen();
+
+        if (writeBehind != null) {
+            writeBehind.remove(id);
+        } else {
+            journalSettings.beginTransaction(this.database);
+            try {
+                deleteItem(id);
+                this.database.setTransactionSuccessful();
+            } finally {
+                this.database.endTransaction();
+                if (entityCache != null) {
+                    // After the commit, so a read racing the transaction can't keep a removed entity
+                    entityCache.invalidate(id);
+                }
+            }
+        }
+        recorder.end(StoreOperation.REMOVE, start, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The ids are deleted with one statement per table for every few
+     * hundred ids, in a single transaction.
+     */
+    @Override
+    public void remove(Collection<? extends Serializable> ids) {
+        long start = recorder.begin();
+        ensureOpen();
+
+        if (writeBehind != null) {
+            for (Serializable id : ids) {
+                writeBehind.remove(id);
+            }
+        } else {
+            writeBatch(Collections.<String, JsonObject>emptyMap(), ids);
+        }
+        recorder.end(StoreOperation.REMOVE, start, ids.size());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The matching ids are selected the way {@link #readWithFilter(ReadFilter)}
+     * selects them, without reading the entities, and deleted in the same
+     * transaction.
+     */
+    @Override
+    public void removeWithFilter(ReadFilter filter) {
+        long start = recorder.begin();
+        ensureOpen();
+        flushWriteBehind();
+
+        if (filter == null) {
+            filter = new ReadFilter();
+        }
+        JsonObject where = (JsonObject) new JsonParser().parse(filter.getWhere().toString());
+        List<PropertyCondition> queryList = PropertyCondition.parse(where);
+
+        int limit = toSqlLimit(filter.getLimit());
+        int offset = (filter.getOffset() == null) ? 0 : Math.max(filter.getOffset(), 0);
+
+        List<String> ids;
+        journalSettings.beginTransaction(this.database);
+        try {
+            ids = selectIds(queryList, limit, offset);
+            if (!ids.isEmpty()) {
+                deleteItems(ids);
+            }
+            this.database.setTransactionSuccessful();
+        } finally {
+            this.database.endTransaction();
+        }
+        if (entityCache != null) {
+            // After the commit, so a read racing the transaction can't keep a removed entity
+            for (Serializable id : ids) {
+                entityCache.invalidate(id);
+            }
+        }
+        recorder.end(StoreOperation.REMOVE_WITH_FILTER, start, ids.size());
+    }
+
+    /**
+     * @return the ids of the page of entities matching every condition, in
+     * id order
+     */
+    private List<String> selectIds(List<PropertyCondition> queryList, int limit, int offset) {
+        List<String> ids = new ArrayList<String>();
+        if (storageMode == StorageMode.DOCUMENT && !queryList.isEmpty() && !isIndexed(queryList)) {
+            scanDocuments(queryList, limit, offset, ids);
+            return ids;
+        }
+
+        List<String> bindArgs = new ArrayList<String>(queryList.size() * 2 + 2);
+        String sql;
+        if (storageMode == StorageMode.DOCUMENT) {
+            sql = queryList.isEmpty()
+                    ? String.format("select PARENT_ID from %s_document", className)
+                    : String.format("select PARENT_ID from %s_document where PARENT_ID in (%s)",
+                                    className, buildIdsQuery(queryList, bindArgs));
+        } else {
+            sql = queryList.isEmpty()
+                    ? "select distinct PARENT_ID from " + propertyTable
+                    : buildIdsQuery(queryList, bindArgs);
+        }
+        bindArgs.add(String.valueOf(limit));
+        bindArgs.add(String.valueOf(offset));
+
+        Cursor cursor = queryDiagnostics.rawQuery(database,
+                                                  "select PARENT_ID from (" + sql + ") order by PARENT_ID limit ? offset ?",
+                                                  bindArgs.toArray(new String[bindArgs.size()]));
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    /**
+     * @return the ids among <code>savedIds</code> that already have property
+     * rows, looked up with one query per {@link #MAX_BOUND_IDS} ids instead
+     * of one per item
+     */
+    private Set<String> storedIds(Collection<String> savedIds) {
+        List<String> ids = new ArrayList<String>(savedIds);
+        Set<String> stored = new HashSet<String>();
+        for (int start = 0; start < ids.size(); start += MAX_BOUND_IDS) {
+            List<String> chunk = ids.subList(start, Math.min(start + MAX_BOUND_IDS, ids.size()));
+            String sql = String.format("select distinct PARENT_ID from %s where PARENT_ID in (%s)",
+                                       propertyTable, parameters(chunk.size()));
+            Cursor cursor = queryDiagnostics.rawQuery(database, sql, chunk.toArray(new String[chunk.size()]));
+            try {
+                while (cursor.moveToNext()) {
+                    stored.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return stored;
+    }
+
+    private void deleteItems(Collection<? extends Serializable> ids) {
+        deleteWhereIn(database, queryDiagnostics, String.format("delete from %s where PARENT_ID in (%%s)", entityTable()), ids);
+        if (!indexedProperties.isEmpty()) {
+            deleteWhereIn(database, queryDiagnostics, String.format("delete from %s_index where PARENT_ID in (%%s)", className), ids);
+        }
+        if (!fullTextProperties.isEmpty()) {
+            deleteWhereIn(database, queryDiagnostics, String.format("delete from %1$s_fts where docid in "
+                    + "(select DOC_ID from %1$s_fts_id where PARENT_ID in (%%s))", className), ids);
+            deleteWhereIn(database, queryDiagnostics, String.format("delete from %s_fts_id where PARENT_ID in (%%s)", className), ids);
+        }
+    }
+
+    /**
+     * Runs <code>deleteSql</code> once per {@link #MAX_BOUND_IDS} ids, with
+     * its <code>%s</code> replaced by a parameter list binding them.
+     */
+    static void deleteWhereIn(SQLiteDatabase database, QueryDiagnostics diagnostics, String deleteSql,
+                              Collection<? extends Serializable> ids) {
+        List<String> chunk = new ArrayList<String>(Math.min(ids.size(), MAX_BOUND_IDS));
+        for (Serializable id : ids) {
+            chunk.add(id.toString());
+            if (chunk.size() == MAX_BOUND_IDS) {
+                diagnostics.execSQL(database, String.format(deleteSql, parameters(chunk.size())), chunk.toArray());
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            diagnostics.execSQL(database, String.format(deleteSql, parameters(chunk.size())), chunk.toArray());
+        }
+    }
+
+    /**
+     * @return <code>count</code> comma separated parameters
+     */
+    private static String parameters(int count) {
+        StringBuilder parameters = new StringBuilder(count * 2);
+        parameters.append('?');
+        for (int i = 1; i < count; i++) {
+            parameters.append(",?");
+        }
+        return parameters.toString();
+    }
+
+    private void deleteItem(Serializable id) {
+        String sql = String.format("Delete from %s where PARENT_ID = ?", entityTable());
+        Object[] bindArgs = new Object[1];
+        bindArgs[0] = id;
+        queryDiagnostics.execSQL(database, sql, bindArgs);
+        if (!indexedProperties.isEmpty()) {
+            queryDiagnostics.execSQL(database, deleteIndexSql, bindArgs);
+        }
+        if (!fullTextProperties.isEmpty()) {
+            queryDiagnostics.execSQL(database, deleteFullTextSql, bindArgs);
+            queryDiagnostics.execSQL(database, String.format("delete from %s_fts_id where PARENT_ID = ?", className), bindArgs);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Applies the synchronous level and checkpoint threshold from the
+     * configuration.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        journalSettings.configure(db);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL(String.format(CREATE_PROPERTIES_TABLE, className));
+        createPropertiesIndexes(db);
+        db.execSQL(String.format(CREATE_DOCUMENTS_TABLE, className));
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            db.execSQL(String.format(CREATE_DOCUMENTS_TABLE, className));
+        }
+        if (oldVersion < 3) {
+            // Version 1 ran every index in a single execSQL call, which only
+            // executes the first statement of the batch.
+            createPropertiesIndexes(db);
+        }
+        if (oldVersion < 4) {
+            dropTextAffinity(db);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Brings the index and full-text tables in line with the declared paths.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        if (!db.isReadOnly()) {
+            if (propertyNames != null) {
+                db.execSQL(String.format(CREATE_ENCODED_PROPERTIES_TABLE, className));
+                for (String index : CREATE_ENCODED_PROPERTIES_INDEXES) {
+                    db.execSQL(String.format(index, className, className));
                 }
+                propertyNames.createTable(db);
+                propertyNames.load(db);
+            }
+            syncIndexedProperties(db);
+            syncFullTextProperties(db);
+            schemaMigration.open(db);
+            typedValues.open(db);
+        }
+    }
+
+    /**
+     * Backfills the paths declared since the last open and drops the rows of
+     * paths no longer declared. The paths the index table holds are kept in
+     * <code>%s_index_path</code>.
+     */
+    private void syncIndexedProperties(SQLiteDatabase db) {
+        if (indexedProperties.isEmpty()) {
+            db.execSQL(String.format("drop table if exists %s_index", className));
+            db.execSQL(String.format("drop table if exists %s_index_path", className));
+            return;
+        }
+
+        db.beginTransaction();
+        try {
+            db.execSQL(String.format(CREATE_INDEX_TABLE, className));
+            for (String index : CREATE_INDEX_INDEXES) {
+                db.execSQL(String.format(index, className, className));
+            }
+            db.execSQL(String.format(CREATE_INDEX_PATHS_TABLE, className));
+
+            Set<String> stored = new HashSet<String>();
+            Cursor cursor = db.rawQuery(String.format("select PATH from %s_index_path", className), null);
+            try {
+                while (cursor.moveToNext()) {
+                    stored.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            Set<String> added = new HashSet<String>(indexedProperties);
+            added.removeAll(stored);
+            Set<String> dropped = new HashSet<String>(stored);
+            dropped.removeAll(indexedProperties);
+
+            if (!dropped.isEmpty()) {
+                String names = String.format("select distinct PROPERTY_NAME from %s_index", className);
+                for (String name : distinctNamesOn(db, names, dropped)) {
+                    db.execSQL(String.format("delete from %s_index where PROPERTY_NAME = ?", className), new Object[]{name});
+                }
+                for (String path : dropped) {
+                    db.execSQL(String.format("delete from %s_index_path where PATH = ?", className), new Object[]{path});
+                }
+            }
+
+            if (!added.isEmpty()) {
+                if (storageMode == StorageMode.DOCUMENT) {
+                    backfillIndexedDocuments(db, added);
+                } else {
+                    String names = (propertyNames == null)
+                            ? "select distinct PROPERTY_NAME from " + propertyTable
+                            : "select NAME from " + propertyNames.getTable();
+                    for (String name : distinctNamesOn(db, names, added)) {
+                        Object storedName = (propertyNames == null) ? name : propertyNames.find(name);
+                        db.execSQL(String.format("insert into %s_index (PARENT_ID, PROPERTY_NAME, PROPERTY_VALUE) "
+                                + "select PARENT_ID, ?, PROPERTY_VALUE from %s where %s = ?",
+                                className, propertyTable, propertyNameColumn), new Object[]{name, storedName});
+                    }
+                }
+                for (String path : added) {
+                    db.execSQL(String.format("insert into %s_index_path (PATH) values (?)", className), new Object[]{path});
+                }
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @param namesQuery a query selecting property names
+     * @return the names it selects whose indexed path is one of
+     * <code>paths</code>
+     */
+    private List<String> distinctNamesOn(SQLiteDatabase db, String namesQuery, Set<String> paths) {
+        List<String> names = new ArrayList<String>();
+        Cursor cursor = db.rawQuery(namesQuery, null);
+        try {
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(0);
+                if (paths.contains(indexedPath(name))) {
+                    names.add(name);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    private void backfillIndexedDocuments(SQLiteDatabase db, Set<String> paths) {
+        SQLiteStatement insert = db.compileStatement(insertIndexSql);
+        Cursor cursor = db.rawQuery(String.format("select PARENT_ID, DOCUMENT from %s_document", className), null);
+        List<Pair<String, JsonPrimitive>> properties = new ArrayList<Pair<String, JsonPrimitive>>();
+        try {
+            while (cursor.moveToNext()) {
+                properties.clear();
+                flatten(readDocumentTree(cursor, 1), "", properties);
+                for (Pair<String, JsonPrimitive> property : properties) {
+                    if (paths.contains(indexedPath(property.first))) {
+                        insert.bindString(1, property.first);
+                        bindPropertyValue(insert, 2, property.second);
+                        insert.bindString(3, cursor.getString(0));
+                        insert.executeInsert();
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+            insert.close();
+        }
+    }
+
+    /**
+     * Rebuilds the full-text index when the declared paths differ from the
+     * ones it was built for, kept in <code>%s_fts_path</code>.
+     */
+    private void syncFullTextProperties(SQLiteDatabase db) {
+        if (fullTextProperties.isEmpty()) {
+            db.execSQL(String.format("drop table if exists %s_fts", className));
+            db.execSQL(String.format("drop table if exists %s_fts_id", className));
+            db.execSQL(String.format("drop table if exists %s_fts_path", className));
+            return;
+        }
+
+        db.beginTransaction();
+        try {
+            db.execSQL(String.format(CREATE_FULL_TEXT_IDS_TABLE, className));
+            if (DatabaseUtils.longForQuery(db, "select count(*) from sqlite_master where type = 'table' and name = ?",
+                                           new String[]{className + "_fts"}) == 0) {
+                db.execSQL(String.format(CREATE_FULL_TEXT_TABLE, className));
+            }
+            db.execSQL(String.format(CREATE_FULL_TEXT_PATHS_TABLE, className));
+
+            Set<String> stored = new HashSet<String>();
+            Cursor cursor = db.rawQuery(String.format("select PATH from %s_fts_path", className), null);
+            try {
+                while (cursor.moveToNext()) {
+                    stored.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            if (!stored.equals(fullTextProperties)) {
+                db.execSQL(String.format("delete from %s_fts", className));
+                db.execSQL(String.format("delete from %s_fts_id", className));
+                db.execSQL(String.format("delete from %s_fts_path", className));
+                backfillFullText(db);
+                for (String path : fullTextProperties) {
+                    db.execSQL(String.format("insert into %s_fts_path (PATH) values (?)", className), new Object[]{path});
+                }
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void backfillFullText(SQLiteDatabase db) {
+        SQLiteStatement insertId = db.compileStatement(insertFullTextIdSql);
+        SQLiteStatement insert = db.compileStatement(insertFullTextSql);
+        List<Pair<String, JsonPrimitive>> properties = new ArrayList<Pair<String, JsonPrimitive>>();
+        Cursor cursor;
+        if (storageMode == StorageMode.DOCUMENT) {
+            cursor = db.rawQuery(String.format("select PARENT_ID, DOCUMENT from %s_document", className), null);
+        } else {
+            cursor = db.rawQuery(selectPropertiesSql + " order by PARENT_ID, _ID", null);
+        }
+        try {
+            if (cursor.moveToFirst()) {
+                while (!cursor.isAfterLast()) {
+                    String id = cursor.getString(0);
+                    JsonElement entity;
+                    if (storageMode == StorageMode.DOCUMENT) {
+                        entity = readDocumentTree(cursor, 1);
+                        cursor.moveToNext();
+                    } else {
+                        entity = readJson(cursor);
+                    }
+                    properties.clear();
+                    flatten(entity, "", properties);
+                    insertFullText(insertId, insert, id, fullTextOf(properties));
+                }
+            }
+        } finally {
+            cursor.close();
+            insertId.close();
+            insert.close();
+        }
+    }
+
+    /**
+     * Copies the property table of a version 3 database, whose
+     * PROPERTY_VALUE column had text affinity, into a table without
+     * affinity, with a single statement run by SQLite. The values are still
+     * text; {@link TypedValues} types them in the background once the
+     * database is open.
+     */
+    private void dropTextAffinity(SQLiteDatabase db) {
+        String typedClassName = className + "_typed";
+        db.execSQL(String.format(CREATE_PROPERTIES_TABLE, typedClassName));
+        db.execSQL(String.format("insert into %s_property (_ID, PARENT_ID, PROPERTY_NAME, PROPERTY_VALUE) "
+                + "select _ID, PARENT_ID, PROPERTY_NAME, PROPERTY_VALUE from %s_property", typedClassName, className));
+        db.execSQL(String.format("drop table %s_property", className));
+        db.execSQL(String.format("alter table %s_property rename to %s_property", typedClassName, className));
+        createPropertiesIndexes(db);
+    }
+
+    private void createPropertiesIndexes(SQLiteDatabase db) {
+        for (String index : CREATE_PROPERTIES_INDEXES) {
+            db.execSQL(String.format(index, className, className));
+        }
+    }
+
+    public void open(Callback<SQLStore<T>> onReady) {
+        open(AsyncTask.THREAD_POOL_EXECUTOR, onReady);
+    }
+
+    /**
+     * Opens the database on <code>executor</code> and calls
+     * <code>onReady</code> on the main thread.
+     *
+     * @param executor the executor the database is opened on
+     * @param onReady called once the store can be used
+     */
+    public void open(Executor executor, final Callback<SQLStore<T>> onReady) {
+        final Executor mainThread = new MainThreadExecutor();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    openDatabase();
+                } catch (final Exception e) {
+                    Log.e(TAG, "There was an error loading the database", e);
+                    mainThread.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            onReady.onFailure(e);
+                        }
+                    });
+                    return;
+                }
+                mainThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onReady.onSuccess(SQLStore.this);
+                    }
+                });
+            }
+        });
+    }
+
+    public void openSync() {
+        openDatabase();
+    }
+
+    private void openDatabase() {
+        WarmUpReport.Timer timer = new WarmUpReport.Timer();
+        this.database = getWritableDatabase();
+        if (warmUp) {
+            timer.end(WarmUpReport.Phase.OPEN);
+            warmUpReport = warmUp(timer);
+            Log.d(TAG, "Warmed up " + className + ": " + warmUpReport);
+        }
+        schemaMigration.start();
+        if (storageMode == StorageMode.PROPERTIES) {
+            typedValues.start();
+        }
+    }
+
+    /**
+     * Runs the phases of {@link SQLStoreConfiguration#withWarmUp(int)}
+     * before a schema migration starts competing for the database.
+     *
+     * Compiling a statement once leaves it in the prepared statement cache
+     * of the connection, so the reads and batches that compile the same SQL
+     * later don't parse it again. The preload reads the first entities in
+     * id order, which also pulls the leading pages of the tables and their
+     * indexes into SQLite's page cache.
+     */
+    private WarmUpReport warmUp(WarmUpReport.Timer timer) {
+        gson.getAdapter(klass);
+        EntityAccessors.of(klass);
+        timer.end(WarmUpReport.Phase.SERIALIZERS);
+
+        List<String> statements = new ArrayList<String>();
+        if (storageMode == StorageMode.DOCUMENT) {
+            statements.add(readDocumentSql);
+            statements.add(insertDocumentSql);
+        } else {
+            statements.add(readPropertiesSql);
+            statements.add(selectPropertiesSql + " order by PARENT_ID, _ID");
+            statements.add(insertPropertySql);
+            statements.add(selectPropertiesForUpdateSql);
+            statements.add(updatePropertySql);
+            statements.add(deletePropertySql);
+            statements.add(existsPropertiesSql);
+        }
+        if (!indexedProperties.isEmpty()) {
+            statements.add(insertIndexSql);
+            statements.add(deleteIndexSql);
+        }
+        if (!fullTextProperties.isEmpty()) {
+            statements.add(insertFullTextIdSql);
+            statements.add(insertFullTextSql);
+            statements.add(deleteFullTextSql);
+        }
+        for (String sql : statements) {
+            database.compileStatement(sql).close();
+        }
+        timer.end(WarmUpReport.Phase.STATEMENTS);
+
+        int preloaded = 0;
+        if (warmUpPreloadEntities > 0) {
+            String sql = (storageMode == StorageMode.DOCUMENT)
+                    ? String.format("select PARENT_ID from %s_document order by PARENT_ID limit ?", className)
+                    : String.format("select distinct PARENT_ID from %s order by PARENT_ID limit ?", propertyTable);
+            Cursor cursor = database.rawQuery(sql, new String[]{String.valueOf(warmUpPreloadEntities)});
+            try {
+                while (cursor.moveToNext()) {
+                    if (readById(cursor.getString(0)) != null) {
+                        preloaded++;
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        timer.end(WarmUpReport.Phase.PRELOAD);
+        return timer.report(preloaded);
+    }
+
+    /**
+     * Copies the committed pages of the write-ahead log back into the
+     * database without blocking readers or the writer. Does nothing unless
+     * write-ahead logging is enabled.
+     *
+     * Useful after a burst of writes when automatic checkpoints are disabled
+     * with {@link SQLStoreConfiguration#withAutoCheckpoint(int)}.
+     */
+    public void checkpoint() {
+        ensureOpen();
+        journalSettings.checkpoint(database);
+    }
+
+    /**
+     * Writes the saves and removes buffered by write-behind, if enabled.
+     */
+    public void flush() {
+        ensureOpen();
+        flushWriteBehind();
+    }
+
+    /**
+     * @return how many reads by id were answered by the entity cache, see
+     * {@link SQLStoreConfiguration#withEntityCache(int)}
+     */
+    public long getCacheHitCount() {
+        return (entityCache == null) ? 0 : entityCache.hits();
+    }
+
+    /**
+     * @return how many reads by id went to the database with the entity
+     * cache enabled
+     */
+    public long getCacheMissCount() {
+        return (entityCache == null) ? 0 : entityCache.misses();
+    }
+
+    /**
+     * @return how long the phases of the last warm-up took, null until the
+     * store is opened with {@link SQLStoreConfiguration#withWarmUp(int)}
+     */
+    public WarmUpReport getWarmUpReport() {
+        return warmUpReport;
+    }
 
-                JsonObject arrayItem = subObject.get(index).getAsJsonObject();
+    /**
+     * @return the executions and plan of every statement run so far, the
+     * longest running in total first, see
+     * {@link SQLStoreConfiguration#withQueryDiagnostics(long, java.util.concurrent.TimeUnit)}.
+     * Empty unless diagnostics are enabled.
+     */
+    public List<QueryStatistics> getQueryStatistics() {
+        return queryDiagnostics.getStatistics();
+    }
 
-                add(arrayItem, names[1], propertyValue);
+    /**
+     * @return the schema version every stored entity has reached, see
+     * {@link SQLStoreConfiguration#withSchemaVersion(int, Migration...)}
+     */
+    public int getSchemaVersion() {
+        return schemaMigration.getVersion();
+    }
 
-            } else {
+    /**
+     * @return true while stored entities are being migrated to the
+     * configured schema version, or while the values a version 3 database
+     * stored as text are being typed
+     */
+    public boolean isMigrating() {
+        return schemaMigration.isRunning() || (storageMode == StorageMode.PROPERTIES && typedValues.isRunning());
+    }
 
-                JsonObject subObject = (JsonObject) result.get(names[0]);
-                if (hasField(names[0])) {
-                    if (subObject == null) {
-                        subObject = new JsonObject();
-                        result.add(names[0], subObject);
-                    }
+    private void flushWriteBehind() {
+        if (writeBehind != null) {
+            writeBehind.flush();
+        }
+    }
 
-                    add(subObject, names[1], propertyValue);
-                } else {
-                    result.addProperty(TextUtils.join(".", names), propertyValue);
+    /**
+     * Flushes the writes buffered by write-behind and closes the database.
+     */
+    @Override
+    public void close() {
+        if (this.database != null && this.database.isOpen()) {
+            if (writeBehind != null) {
+                writeBehind.close();
+            }
+            schemaMigration.close();
+            typedValues.close();
+            this.database.close();
+        }
+    }
+
+    private void add(JsonObject result, String propertyName, String propertyValue) {
+        PropertyPath path = propertyPaths.get(propertyName);
+        if (path == null) {
+            path = PropertyPath.parse(propertyName, fieldNames);
+            if (propertyPaths.size() < MAX_CACHED_PROPERTY_PATHS) {
+                propertyPaths.put(propertyName, path);
+            }
+        }
+        path.addTo(result, propertyValue);
+    }
+
+    private static Set<String> declaredFieldNames(Class<?> klass) {
+        Set<String> names = new HashSet<String>();
+        for (Field field : klass.getDeclaredFields()) {
+            names.add(field.getName());
+        }
+        return names;
+    }
+
+    /**
+     * @return the text form of a primitive, as stored for booleans and strings
+     */
+    static String toPropertyValue(JsonPrimitive primitive) {
+        if (primitive.isBoolean()) {
+            return primitive.getAsBoolean() ? "true" : "false";
+        } else if (primitive.isNumber()) {
+            return primitive.getAsNumber().toString();
+        } else if (primitive.isString()) {
+            return primitive.getAsString();
+        } else {
+            throw new IllegalArgumentException(primitive + " isn't a number, boolean, or string");
+        }
+    }
+
+    /**
+     * Binds a leaf value with its native storage class: numbers as INTEGER
+     * or REAL, strings and booleans as text. Numbers that would lose
+     * precision as a double are kept as text.
+     */
+    private static void bindPropertyValue(SQLiteStatement statement, int index, JsonPrimitive value) {
+        Number number = value.isNumber() ? toSqlNumber(value.getAsNumber()) : null;
+        if (number instanceof Long) {
+            statement.bindLong(index, number.longValue());
+        } else if (number instanceof Double) {
+            statement.bindDouble(index, number.doubleValue());
+        } else {
+            statement.bindString(index, value.isNumber() ? value.getAsNumber().toString() : toPropertyValue(value));
+        }
+    }
+
+    /**
+     * @return the number as a Long or a Double, or null if neither holds it
+     * exactly
+     */
+    private static Number toSqlNumber(Number number) {
+        if (number instanceof Integer || number instanceof Long
+                || number instanceof Short || number instanceof Byte) {
+            return number.longValue();
+        } else if (number instanceof Float) {
+            // Widen through the decimal form so 1.1f is stored as 1.1
+            return Double.valueOf(number.toString());
+        } else if (number instanceof Double) {
+            double value = number.doubleValue();
+            return (Double.isNaN(value) || Double.isInfinite(value)) ? null : value;
+        }
+
+        BigDecimal decimal;
+        try {
+            decimal = new BigDecimal(number.toString());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (decimal.signum() == 0 || decimal.stripTrailingZeros().scale() <= 0) {
+            if (decimal.compareTo(MIN_LONG) >= 0 && decimal.compareTo(MAX_LONG) <= 0) {
+                return decimal.longValue();
+            }
+        }
+        double value = decimal.doubleValue();
+        if (!Double.isInfinite(value) && BigDecimal.valueOf(value).compareTo(decimal) == 0) {
+            return value;
+        }
+        return null;
+    }
+
+    /**
+     * Reads a PROPERTY_VALUE as the text hydration expects. REAL values are
+     * formatted by Java, SQLite would round them to 15 digits.
+     */
+    private static String propertyValue(Cursor cursor, int column) {
+        if (cursor.getType(column) == Cursor.FIELD_TYPE_FLOAT) {
+            return Double.toString(cursor.getDouble(column));
+        }
+        return cursor.getString(column);
+    }
+
+    private static boolean isStoredValue(Cursor cursor, int column, JsonPrimitive value) {
+        Number number = value.isNumber() ? toSqlNumber(value.getAsNumber()) : null;
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return number instanceof Long && cursor.getLong(column) == number.longValue();
+            case Cursor.FIELD_TYPE_FLOAT:
+                return number instanceof Double && cursor.getDouble(column) == number.doubleValue();
+            case Cursor.FIELD_TYPE_STRING:
+                String text = value.isNumber() ? value.getAsNumber().toString() : toPropertyValue(value);
+                return number == null && text.equals(cursor.getString(column));
+            default:
+                return false;
+        }
+    }
+
+    private List<T> readAllDocuments() {
+        String sql = String.format("Select PARENT_ID, DOCUMENT from %s_document", className);
+        Cursor cursor = queryDiagnostics.rawQuery(database, sql, new String[0]);
+        try {
+            ArrayList<T> data = new ArrayList<T>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                data.add(fromDocument(cursor.getString(0), cursor, 1, null));
+            }
+            return data;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private T readDocument(Serializable id, int[] estimatedBytes) {
+        Cursor cursor = queryDiagnostics.rawQuery(database, readDocumentSql, new String[]{id.toString()});
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            if (estimatedBytes != null) {
+                estimatedBytes[0] = (cursor.getType(0) == Cursor.FIELD_TYPE_BLOB)
+                        ? cursor.getBlob(0).length
+                        : 2 * cursor.getString(0).length();
+            }
+            return fromDocument(id.toString(), cursor, 0, null);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * When every condition is on a declared indexed path the matching ids
+     * come from the index table. Otherwise every document is parsed and
+     * checked against the where clause using the same name matching the
+     * property table query uses.
+     */
+    private List<T> readDocumentsWithFilter(List<PropertyCondition> queryList, int limit, int offset,
+                                            PropertyProjection projection) {
+        if (queryList.isEmpty()) {
+            String sql = String.format("Select PARENT_ID, DOCUMENT from %s_document order by PARENT_ID limit ? offset ?", className);
+            Cursor cursor = queryDiagnostics.rawQuery(database, sql, new String[]{String.valueOf(limit), String.valueOf(offset)});
+            try {
+                List<T> results = new ArrayList<T>(cursor.getCount());
+                while (cursor.moveToNext()) {
+                    results.add(fromDocument(cursor.getString(0), cursor, 1, projection));
+                }
+                return results;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        if (isIndexed(queryList)) {
+            List<String> bindArgs = new ArrayList<String>(queryList.size() * 2 + 2);
+            String sql = String.format("Select PARENT_ID, DOCUMENT from %s_document where PARENT_ID in (%s) "
+                    + "order by PARENT_ID limit ? offset ?", className, buildIdsQuery(queryList, bindArgs));
+            bindArgs.add(String.valueOf(limit));
+            bindArgs.add(String.valueOf(offset));
+            Cursor cursor = queryDiagnostics.rawQuery(database, sql, bindArgs.toArray(new String[bindArgs.size()]));
+            try {
+                List<T> results = new ArrayList<T>(cursor.getCount());
+                while (cursor.moveToNext()) {
+                    results.add(fromDocument(cursor.getString(0), cursor, 1, projection));
+                }
+                return results;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        List<Pattern> namePatterns = new ArrayList<Pattern>(queryList.size());
+        for (PropertyCondition condition : queryList) {
+            namePatterns.add(condition.isPattern() ? likePattern(condition.getName()) : null);
+        }
+
+        String sql = String.format("Select PARENT_ID, DOCUMENT from %s_document order by PARENT_ID", className);
+        Cursor cursor = queryDiagnostics.rawQuery(database, sql, new String[0]);
+        List<T> results = new ArrayList<T>();
+        int skipped = 0;
+        try {
+            while ((limit < 0 || results.size() < limit) && cursor.moveToNext()) {
+                JsonObject document = readDocumentTree(cursor, 1).getAsJsonObject();
+                if (matches(document, queryList, namePatterns)) {
+                    if (skipped < offset) {
+                        skipped++;
+                    } else {
+                        results.add(fromDocument(cursor.getString(0), document, projection));
+                    }
                 }
             }
+        } finally {
+            cursor.close();
+        }
+        return results;
+    }
+
+    private T fromDocument(String id, Cursor cursor, int column, PropertyProjection projection) {
+        if (projection == null && !schemaMigration.isRunning()) {
+            if (cursor.getType(column) == Cursor.FIELD_TYPE_BLOB) {
+                byte[] document = cursor.getBlob(column);
+                recorder.addBytes(document.length);
+                return codec.decode(gson, document, klass);
+            }
+            String json = cursor.getString(column);
+            recorder.addBytes(json.length());
+            return gson.fromJson(json, klass);
+        }
+        return fromDocument(id, readDocumentTree(cursor, column).getAsJsonObject(), projection);
+    }
+
+    /**
+     * Reads a document written by the codec, or as JSON text by a version
+     * predating codecs.
+     */
+    private JsonElement readDocumentTree(Cursor cursor, int column) {
+        if (cursor.getType(column) == Cursor.FIELD_TYPE_BLOB) {
+            byte[] document = cursor.getBlob(column);
+            recorder.addBytes(document.length);
+            return codec.decodeTree(document);
+        }
+        String json = cursor.getString(column);
+        recorder.addBytes(json.length());
+        return new JsonParser().parse(json);
+    }
+
+    /**
+     * Deserializes the document, or only its properties selected by
+     * <code>projection</code> if it isn't null.
+     */
+    private T fromDocument(String id, JsonObject document, PropertyProjection projection) {
+        document = schemaMigration.upgrade(id, document);
+        if (projection == null) {
+            return gson.fromJson(document, klass);
+        }
+        List<Pair<String, JsonPrimitive>> properties = new ArrayList<Pair<String, JsonPrimitive>>();
+        flatten(document, "", properties);
+        JsonObject projected = new JsonObject();
+        for (Pair<String, JsonPrimitive> property : properties) {
+            if (projection.includes(property.first)) {
+                add(projected, property.first, toPropertyValue(property.second));
+            }
         }
+        return gson.fromJson(projected, klass);
     }
 
-    private boolean hasField(String name) {
+    /**
+     * Walks the documents in id order, counting those matching every
+     * condition within the page given by <code>limit</code> and
+     * <code>offset</code>. Matching documents are parsed but never
+     * deserialized.
+     *
+     * @param ids if not null, receives the ids of the counted documents
+     * @return the number of matching documents in the page
+     */
+    private long scanDocuments(List<PropertyCondition> queryList, int limit, int offset, List<String> ids) {
+        List<Pattern> namePatterns = new ArrayList<Pattern>(queryList.size());
+        for (PropertyCondition condition : queryList) {
+            namePatterns.add(condition.isPattern() ? likePattern(condition.getName()) : null);
+        }
+
+        String sql = String.format("Select PARENT_ID, DOCUMENT from %s_document order by PARENT_ID", className);
+        Cursor cursor = queryDiagnostics.rawQuery(database, sql, new String[0]);
+        long matches = 0;
+        int skipped = 0;
         try {
-            klass.getDeclaredField(name);
-            return true;
-        } catch (NoSuchFieldException e) {
-            return false;
+            while ((limit < 0 || matches < limit) && cursor.moveToNext()) {
+                JsonObject document = readDocumentTree(cursor, 1).getAsJsonObject();
+                if (matches(document, queryList, namePatterns)) {
+                    if (skipped < offset) {
+                        skipped++;
+                    } else {
+                        matches++;
+                        if (ids != null) {
+                            ids.add(cursor.getString(0));
+                        }
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
         }
+        return matches;
     }
 
-    private void buildKeyValuePairs(JsonObject where, List<Pair<String, String>> keyValues, String parentPath) {
-        Set<Entry<String, JsonElement>> keys = where.entrySet();
-        String pathVar = parentPath.isEmpty() ? "" : ".";// Set a dot if parent path is not empty
-        for (Entry<String, JsonElement> entry : keys) {
-            String key = entry.getKey();
-            String path = parentPath + pathVar + key;
-            JsonElement jsonValue = entry.getValue();
-            if (jsonValue.isJsonObject()) {
-                buildKeyValuePairs((JsonObject) jsonValue, keyValues, path);
-            } else if (jsonValue.isJsonPrimitive()) {
-                JsonPrimitive primitive = jsonValue.getAsJsonPrimitive();
-                if (primitive.isBoolean()) {
-                    String value = primitive.getAsBoolean() ? "true" : "false";
-                    keyValues.add(new Pair<String, String>(path, value));
-                } else if (primitive.isNumber()) {
-                    Number value = primitive.getAsNumber();
-                    keyValues.add(new Pair<String, String>(path, value.toString()));
-                } else if (primitive.isString()) {
-                    String value = primitive.getAsString();
-                    keyValues.add(new Pair<String, String>(path, value));
-                } else {
-                    throw new IllegalArgumentException(jsonValue + " isn't a number, boolean, or string");
+    private boolean matches(JsonObject document, List<PropertyCondition> queryList, List<Pattern> namePatterns) {
+        List<Pair<String, JsonPrimitive>> properties = new ArrayList<Pair<String, JsonPrimitive>>();
+        flatten(document, "", properties);
+
+        for (int i = 0; i < queryList.size(); i++) {
+            PropertyCondition condition = queryList.get(i);
+            String expectedName = condition.getName();
+            Pattern namePattern = namePatterns.get(i);
+            boolean found = false;
+            for (Pair<String, JsonPrimitive> property : properties) {
+                boolean nameMatches = (namePattern == null)
+                        ? expectedName.equals(property.first)
+                        : namePattern.matcher(property.first).matches();
+                if (nameMatches && condition.accepts(property.second)) {
+                    found = true;
+                    break;
                 }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
 
+    /**
+     * Translates a SQL LIKE pattern ('%' and '_' wildcards, case insensitive)
+     * into a regular expression.
+     */
+    private static Pattern likePattern(String like) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : like.toCharArray()) {
+            if (c == '%' || c == '_') {
+                regex.append(Pattern.quote(literal.toString()));
+                regex.append(c == '%' ? ".*" : ".");
+                literal.setLength(0);
             } else {
-                throw new IllegalArgumentException(jsonValue + " isn't a JsonPrimitive");
+                literal.append(c);
             }
         }
+        regex.append(Pattern.quote(literal.toString()));
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
     }
 
     private boolean isOpen() {
@@ -489,4 +2260,351 @@ public class SQLStore<T> extends SQLiteOpenHelper implements Store<T> {
         }
     }
 
+    /**
+     * Reads and rewrites entities as JSON for a schema migration.
+     */
+    private final class StoredEntities implements SchemaMigration.Entities {
+
+        @Override
+        public SQLiteTransactionListener getTransactionListener() {
+            return propertyNames;
+        }
+
+        @Override
+        public List<String> nextIds(SQLiteDatabase db, String after, int limit) {
+            String sql = (storageMode == StorageMode.DOCUMENT)
+                    ? String.format("select PARENT_ID from %s_document", className)
+                    : "select distinct PARENT_ID from " + propertyTable;
+            String[] bindArgs;
+            if (after == null) {
+                sql += " order by PARENT_ID limit ?";
+                bindArgs = new String[]{String.valueOf(limit)};
+            } else {
+                sql += " where PARENT_ID > ? order by PARENT_ID limit ?";
+                bindArgs = new String[]{after, String.valueOf(limit)};
+            }
+
+            List<String> ids = new ArrayList<String>(limit);
+            Cursor cursor = db.rawQuery(sql, bindArgs);
+            try {
+                while (cursor.moveToNext()) {
+                    ids.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+            return ids;
+        }
+
+        @Override
+        public JsonObject read(SQLiteDatabase db, String id) {
+            if (storageMode == StorageMode.DOCUMENT) {
+                Cursor cursor = db.rawQuery(String.format("select DOCUMENT from %s_document where PARENT_ID = ?", className),
+                                            new String[]{id});
+                try {
+                    return cursor.moveToFirst() ? readDocumentTree(cursor, 0).getAsJsonObject() : null;
+                } finally {
+                    cursor.close();
+                }
+            }
+
+            Cursor cursor = db.rawQuery(selectPropertiesSql + " where PARENT_ID = ? order by _ID", new String[]{id});
+            try {
+                return cursor.moveToFirst() ? readJson(cursor) : null;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        @Override
+        public void write(SQLiteDatabase db, Map<String, JsonObject> entities) {
+            PropertyStatements statements = new PropertyStatements();
+            try {
+                for (Entry<String, JsonObject> entity : entities.entrySet()) {
+                    saveJson(entity.getKey(), entity.getValue(), statements);
+                }
+                statements.flushInserts();
+            } finally {
+                statements.close();
+            }
+        }
+
+        @Override
+        public boolean isEmpty(SQLiteDatabase db) {
+            return DatabaseUtils.longForQuery(db, String.format("select exists (select 1 from %s)", entityTable()), null) == 0;
+        }
+
+    }
+
+    /**
+     * Types the values of a version 3 database, which stored every value as
+     * text. Each entity is hydrated and serialized again so numbers get
+     * their storage class from the type of the field they came from;
+     * entities the current class can no longer read keep their values as
+     * is.
+     *
+     * Runs in chunks on a background thread like the configured migrations.
+     * Until an entity is rewritten it hydrates as before, but its numbers
+     * don't match numeric filters.
+     */
+    private final class TypedValues implements Migration {
+
+        static final int VERSION = 2;
+
+        @Override
+        public int getVersion() {
+            return VERSION;
+        }
+
+        @Override
+        public JsonObject migrate(JsonObject entity) {
+            try {
+                return gson.toJsonTree(gson.fromJson(entity, klass), klass).getAsJsonObject();
+            } catch (JsonParseException e) {
+                Log.w(TAG, "Keeping the stored values of an entity that can't be read as " + klass.getName(), e);
+                return entity;
+            }
+        }
+
+    }
+
+    /**
+     * The rows of the text-named property table, brought to the configured
+     * schema version before they are typed so {@link TypedValues} hydrates
+     * them with the current class. They are then saved like any entity.
+     */
+    private final class UntypedEntities implements SchemaMigration.Entities {
+
+        private final StoredEntities stored = new StoredEntities();
+
+        @Override
+        public SQLiteTransactionListener getTransactionListener() {
+            return stored.getTransactionListener();
+        }
+
+        @Override
+        public List<String> nextIds(SQLiteDatabase db, String after, int limit) {
+            return stored.nextIds(db, after, limit);
+        }
+
+        @Override
+        public JsonObject read(SQLiteDatabase db, String id) {
+            JsonObject entity = stored.read(db, id);
+            return (entity == null) ? null : schemaMigration.upgrade(id, entity);
+        }
+
+        @Override
+        public void write(SQLiteDatabase db, Map<String, JsonObject> entities) {
+            stored.write(db, entities);
+            for (String id : entities.keySet()) {
+                schemaMigration.markSaved(db, id);
+            }
+        }
+
+        @Override
+        public boolean isEmpty(SQLiteDatabase db) {
+            return DatabaseUtils.longForQuery(db, String.format("select exists (select 1 from %s_property)", className), null) == 0;
+        }
+
+    }
+
+    /**
+     * Statements used while saving a batch, compiled the first time they are
+     * needed and reused for every row of the batch.
+     *
+     * Property rows are buffered and inserted {@link #ROWS_PER_INSERT} at a
+     * time from a <code>union all</code> of selects, which unlike a multi-row
+     * <code>values</code> list every SQLite version parses. Rows keep their
+     * order, which array hydration relies on.
+     */
+    private final class PropertyStatements {
+
+        // Stays below SQLITE_MAX_VARIABLE_NUMBER at 3 parameters a row, and
+        // below SQLITE_MAX_COMPOUND_SELECT
+        private static final int ROWS_PER_INSERT = 100;
+
+        private SQLiteStatement insert;
+        private SQLiteStatement update;
+        private SQLiteStatement delete;
+        private SQLiteStatement exists;
+        private SQLiteStatement insertIndex;
+        private SQLiteStatement deleteIndex;
+        private SQLiteStatement insertFullTextId;
+        private SQLiteStatement insertFullText;
+        private SQLiteStatement deleteFullText;
+        private SQLiteStatement insertRows;
+        private final List<String> pendingIds = new ArrayList<String>(ROWS_PER_INSERT);
+        private final List<String> pendingNames = new ArrayList<String>(ROWS_PER_INSERT);
+        private final List<JsonPrimitive> pendingValues = new ArrayList<JsonPrimitive>(ROWS_PER_INSERT);
+        // The ids with property rows when the batch started, null if unknown
+        Set<String> storedIds;
+
+        /**
+         * Buffers a property row, inserting the buffer once it is full.
+         */
+        void insert(String id, String name, JsonPrimitive value) {
+            pendingIds.add(id);
+            pendingNames.add(name);
+            pendingValues.add(value);
+            if (pendingIds.size() == ROWS_PER_INSERT) {
+                flushInserts();
+            }
+        }
+
+        /**
+         * Inserts the buffered property rows.
+         */
+        void flushInserts() {
+            int rows = pendingIds.size();
+            if (rows == 0) {
+                return;
+            }
+            SQLiteStatement statement;
+            if (rows == ROWS_PER_INSERT) {
+                if (insertRows == null) {
+                    insertRows = database.compileStatement(insertRowsSql(ROWS_PER_INSERT));
+                }
+                statement = insertRows;
+            } else if (rows == 1) {
+                statement = insert();
+            } else {
+                statement = database.compileStatement(insertRowsSql(rows));
+            }
+            try {
+                for (int row = 0; row < rows; row++) {
+                    bindPropertyName(statement, 3 * row + 1, pendingNames.get(row));
+                    bindPropertyValue(statement, 3 * row + 2, pendingValues.get(row));
+                    statement.bindString(3 * row + 3, pendingIds.get(row));
+                }
+                statement.executeInsert();
+            } finally {
+                if (statement != insertRows && statement != insert) {
+                    statement.close();
+                }
+            }
+            pendingIds.clear();
+            pendingNames.clear();
+            pendingValues.clear();
+        }
+
+        private String insertRowsSql(int rows) {
+            StringBuilder sql = new StringBuilder(insertRowsPrefixSql).append("select ?,?,?");
+            for (int row = 1; row < rows; row++) {
+                sql.append(" union all select ?,?,?");
+            }
+            return sql.toString();
+        }
+
+        /**
+         * @return true if the entity has property rows. Ids saved within
+         * the batch count as stored from then on.
+         */
+        boolean isStored(String id) {
+            if (storedIds == null) {
+                SQLiteStatement exists = exists();
+                exists.bindString(1, id);
+                return exists.simpleQueryForLong() != 0;
+            }
+            return !storedIds.add(id);
+        }
+
+        SQLiteStatement insert() {
+            if (insert == null) {
+                String sql = (storageMode == StorageMode.DOCUMENT) ? insertDocumentSql : insertPropertySql;
+                insert = database.compileStatement(sql);
+            }
+            return insert;
+        }
+
+        SQLiteStatement update() {
+            if (update == null) {
+                update = database.compileStatement(updatePropertySql);
+            }
+            return update;
+        }
+
+        SQLiteStatement delete() {
+            if (delete == null) {
+                delete = database.compileStatement(deletePropertySql);
+            }
+            return delete;
+        }
+
+        SQLiteStatement exists() {
+            if (exists == null) {
+                exists = database.compileStatement(existsPropertiesSql);
+            }
+            return exists;
+        }
+
+        SQLiteStatement insertIndex() {
+            if (insertIndex == null) {
+                insertIndex = database.compileStatement(insertIndexSql);
+            }
+            return insertIndex;
+        }
+
+        SQLiteStatement deleteIndex() {
+            if (deleteIndex == null) {
+                deleteIndex = database.compileStatement(deleteIndexSql);
+            }
+            return deleteIndex;
+        }
+
+        SQLiteStatement insertFullTextId() {
+            if (insertFullTextId == null) {
+                insertFullTextId = database.compileStatement(insertFullTextIdSql);
+            }
+            return insertFullTextId;
+        }
+
+        SQLiteStatement insertFullText() {
+            if (insertFullText == null) {
+                insertFullText = database.compileStatement(insertFullTextSql);
+            }
+            return insertFullText;
+        }
+
+        SQLiteStatement deleteFullText() {
+            if (deleteFullText == null) {
+                deleteFullText = database.compileStatement(deleteFullTextSql);
+            }
+            return deleteFullText;
+        }
+
+        void close() {
+            if (insert != null) {
+                insert.close();
+            }
+            if (insertRows != null) {
+                insertRows.close();
+            }
+            if (update != null) {
+                update.close();
+            }
+            if (delete != null) {
+                delete.close();
+            }
+            if (exists != null) {
+                exists.close();
+            }
+            if (insertIndex != null) {
+                insertIndex.close();
+            }
+            if (deleteIndex != null) {
+                deleteIndex.close();
+            }
+            if (insertFullTextId != null) {
+                insertFullTextId.close();
+            }
+            if (insertFullText != null) {
+                insertFullText.close();
+            }
+            if (deleteFullText != null) {
+                deleteFullText.close();
+            }
+        }
+
+    }
+
 }
@@ -23,15 +23,44 @@ import com.google.gson.GsonBuilder;
 import org.jboss.aerogear.android.core.Config;
 import org.jboss.aerogear.android.store.Store;
 import org.jboss.aerogear.android.store.StoreConfiguration;
+import org.jboss.aerogear.android.store.codec.EntityCodec;
+import org.jboss.aerogear.android.store.codec.GsonCodec;
 import org.jboss.aerogear.android.store.generator.DefaultIdGenerator;
 import org.jboss.aerogear.android.store.generator.IdGenerator;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
 public final class SQLStoreConfiguration extends StoreConfiguration<SQLStoreConfiguration>
         implements Config<SQLStoreConfiguration> {
 
+    static final int DEFAULT_MIGRATION_CHUNK_SIZE = 500;
+
     private Context context;
     private GsonBuilder builder = new GsonBuilder();
     private IdGenerator idGenerator = new DefaultIdGenerator();
+    private StorageMode storageMode = StorageMode.PROPERTIES;
+    private EntityCodec codec = new GsonCodec();
+    private final Set<String> indexedProperties = new LinkedHashSet<String>();
+    private final Set<String> fullTextProperties = new LinkedHashSet<String>();
+    private boolean writeAheadLogging;
+    private SynchronousMode synchronousMode;
+    private int autoCheckpointPages = JournalSettings.DEFAULT_AUTO_CHECKPOINT;
+    private int writeBehindMaxPending;
+    private long writeBehindMaxDelayMillis;
+    private int entityCacheSize;
+    private boolean entityCacheInBytes;
+    private int schemaVersion = 1;
+    private final List<Migration> migrations = new ArrayList<Migration>();
+    private int migrationChunkSize = DEFAULT_MIGRATION_CHUNK_SIZE;
+    private int warmUpPreloadEntities = -1;
+    private long slowQueryThresholdMillis = -1;
+    private boolean generatedAdapters;
 
     public SQLStoreConfiguration withContext(Context context) {
         this.context = context;
@@ -43,18 +72,404 @@ public final class SQLStoreConfiguration extends StoreConfiguration<SQLStoreConf
         return this;
     }
 
+    /**
+     * Serializes the model classes with the adapters generated at compile
+     * time instead of Gson's reflective ones, see
+     * {@link org.jboss.aerogear.android.store.accessor.EntityAccessors}.
+     * Models with an adapter registered on the Gson builder keep it, and
+     * the generated adapters aren't used when the builder renames fields.
+     * Don't enable them with exclusion strategies.
+     *
+     * Disabled by default.
+     *
+     * @param generatedAdapters true to use the generated adapters
+     * @return the current configuration
+     */
+    public SQLStoreConfiguration withGeneratedAdapters(boolean generatedAdapters) {
+        this.generatedAdapters = generatedAdapters;
+        return this;
+    }
+
     public SQLStoreConfiguration withIdGenerator(IdGenerator idGenerator) {
         this.idGenerator = idGenerator;
         return this;
     }
 
+    /**
+     * Selects the table layout used by the store.
+     *
+     * Defaults to {@link StorageMode#PROPERTIES}.
+     *
+     * @param storageMode the layout to use
+     * @return the current configuration
+     */
+    public SQLStoreConfiguration withStorageMode(StorageMode storageMode) {
+        this.storageMode = storageMode;
+        return this;
+    }
+
+    /**
+     * Selects how {@link StorageMode#DOCUMENT} documents are written, ie a
+     * {@link org.jboss.aerogear.android.store.codec.BinaryCodec} for smaller
+     * documents that skip JSON parsing on reads. The property layouts store
+     * every value in its own row and don't use the codec.
+     *
+     * Documents written as JSON text by earlier versions stay readable.
+     * Defaults to {@link GsonCodec}.
+     *
+     * @param codec the codec of the documents
+     * @return the current configuration
+     */
+    public SQLStoreConfiguration withCodec(EntityCodec codec) {
+        this.codec = codec;
+        return this;
+    }
+
+    /**
+     * Declares property paths the store keeps a dedicated index for, ie
+     * <code>"name"</code> or <code>"address.city"</code>. Array indices are
+     * left out of the path: <code>"items.sku"</code> indexes
+     * <code>items[0].sku</code>, <code>items[1].sku</code> and so on.
+     *
+     * Filters on a declared path are answered from its index instead of the
+     * table holding every property. Paths declared on a later open are
+     * backfilled, and paths no longer declared are dropped.
+     *
+     * @param propertyPaths the paths to index
+     * @return the current configuration
+     */
+    public SQLStoreConfiguration withIndexedProperties(String... propertyPaths) {
+        this.indexedProperties.addAll(Arrays.asList(propertyPaths));
+        return this;
+    }
+
+    /**
+     * Declares string property paths the store keeps a full-text index for,
+     * searched with {@link SQLStore#search(String, int)}. Paths are written
+     * the way {@link #withIndexedProperties(String...)} takes them, and only
+     * string values are indexed.
+     *
+     * The index is rebuilt on the next open when the declared paths change.
+     *
+     * @param propertyPaths the paths to index
+     * @return the current configuration
+     */
+    public SQLStoreConfiguration withFullTextProperties(String... propertyPaths) {
+        this.fullTextProperties.addAll(Arrays.asList(propertyPaths));
+        return this;
+    }
+
+    /**
+     * Enables write-ahead logging. Reads on other threads then run on the
+     * framework's pool of reader connections concurrently with a writer,
+     * instead of waiting for its transaction to commit. The size of the pool
+     * is set by the platform.
+     *
+     * Disabled by default.
+     *
+     * @param writeAheadLogging true to enable write-ahead logging
+     * @return the current configuration
+     */
+    public SQLStoreConfiguration withWriteAheadLogging(boolean writeAheadLogging) {
+        this.writeAheadLogging = writeAheadLogging;
+        return this;
+    }
+
+    /**
+     * Sets <code>PRAGMA synchronous</code> for the connection writes go
+     * through. {@link SynchronousMode#NORMAL} together with write-ahead
+     * logging avoids a sync on every commit.
+     *
+     * Defaults to the platform setting.
+     *
+     * @param synchronousMode the synchronous level
+     * @return the current configuration
+     */
+    public SQLStoreConfiguration withSynchronousMode(SynchronousMode synchronousMode) {
+        this.synchronousMode = synchronousMode;
+        return this;
+    }
+
+    /**
+     * Sets how many pages the write-ahead log grows to before a commit
+     * copies it back into the database. 0 disables automatic checkpoints,
+     * leaving them to the store's <code>checkpoint()</code>.
+     *
+     * Only used with write-ahead logging. Defaults to the platform setting.
+     *
+     * @param pages the checkpoint threshold, in pages
+     * @return the current configuration
+     */
+    public SQLStoreConfiguration withAutoCheckpoint(int pages) {
+        if (pages < 0) {
+            throw new IllegalArgumentException("pages can't be negative");
+        }
+        this.autoCheckpointPages = pages;
+        return this;
+    }
+
+    /**
+     * Buffers saves and removes in memory and writes them in a single
+     * transaction once <code>maxPendingWrites</code> ids are waiting or
+     * <code>maxDelay</code> after the first buffered write, whichever comes
+     * first. Repeated writes to the same id are coalesced.
+     *
+     * Reads see the buffered writes. The store's <code>flush()</code> and
+     * <code>close()</code> write whatever is still buffered; writes not
+     * flushed when the process dies are lost.
+     *
+     * Disabled by default.
+     *
+     * @param maxPendingWrites the number of buffered ids that triggers a flush
+     * @param maxDelay the longest a write stays buffered
+     * @param unit the unit of <code>maxDelay</code>
+     * @return the current configuration
+     */
+    public SQLStoreConfiguration withWriteBehind(int maxPendingWrites, long maxDelay, TimeUnit unit) {
+        if (maxPendingWrites < 1 || maxDelay < 0) {
+            throw new IllegalArgumentException("maxPendingWrites must be positive and maxDelay can't be negative");
+        }
+        this.writeBehindMaxPending = maxPendingWrites;
+        this.writeBehindMaxDelayMillis = unit.toMillis(maxDelay);
+        return this;
+    }
+
+    /**
+     * Keeps up to <code>maxEntries</code> of the most recently read entities
+     * in memory, so reading them again by id skips the database. Saves,
+     * removes and resets invalidate the cached entities.
+     *
+     * Cached entities are shared between readers; save an entity after
+     * changing it. Replaces a limit set with {@link #withEntityCacheBytes(int)}.
+     *
+     * Disabled by default.
+     *
+     * @param maxEntries the number of entities kept
+     * @return the current configuration
+     */
+    public SQLStoreConfiguration withEntityCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.entityCacheSize = maxEntries;
+        this.entityCacheInBytes = false;
+        return this;
+    }
+
+    /**
+     * Like {@link #withEntityCache(int)}, but bounds the cache by the
+     * estimated memory of the entities instead of their number. An entity is
+     * estimated at two bytes for every character of its stored properties.
+     *
+     * @param maxBytes the estimated bytes kept
+     * @return the current configuration
+     */
+    public SQLStoreConfiguration withEntityCacheBytes(int maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.entityCacheSize = maxBytes;
+        this.entityCacheInBytes = true;
+        return this;
+    }
+
+    /**
+     * Sets the schema version of the stored entities and the migrations
+     * that upgrade them to it. Data stored before a store declares a version
+     * is at version 1.
+     *
+     * When the store is opened on data of an older version, the migrations
+     * to the versions in between rewrite every entity on a background
+     * thread, in chunks of {@link #withMigrationChunkSize(int)} entities per
+     * transaction. An interrupted migration resumes on the next open. The
+     * store can be used meanwhile: saves are written in the new layout and
+     * entities not rewritten yet are migrated in memory when read. Filters
+     * are evaluated on the stored layout until the migration finishes.
+     *
+     * Defaults to version 1 without migrations.
+     *
+     * @param version the current schema version
+     * @param migrations the migrations to versions up to <code>version</code>
+     * @return the current configuration
+     */
+    public SQLStoreConfiguration withSchemaVersion(int version, Migration... migrations) {
+        if (version < 1) {
+            throw new IllegalArgumentException("version must be positive");
+        }
+        this.schemaVersion = version;
+        this.migrations.clear();
+        this.migrations.addAll(Arrays.asList(migrations));
+        return this;
+    }
+
+    /**
+     * Sets how many entities a migration rewrites per transaction. Writes
+     * of the store wait for the chunk being rewritten.
+     *
+     * Defaults to 500.
+     *
+     * @param entities the number of entities per chunk
+     * @return the current configuration
+     */
+    public SQLStoreConfiguration withMigrationChunkSize(int entities) {
+        if (entities < 1) {
+            throw new IllegalArgumentException("entities must be positive");
+        }
+        this.migrationChunkSize = entities;
+        return this;
+    }
+
+    /**
+     * Warms the store up when it is opened, moving the costs of the first
+     * read off it. Once the database is open the store builds the Gson
+     * adapters of the model class, compiles the statements of reads and
+     * saves and reads the first <code>preloadEntities</code> entities in id
+     * order, so their pages are in SQLite's cache and, with
+     * {@link #withEntityCache(int)}, the entities in the entity cache.
+     *
+     * How long each phase took is logged and available from the store's
+     * <code>getWarmUpReport()</code>.
+     *
+     * Disabled by default.
+     *
+     * @param preloadEntities the number of entities read, 0 to skip the
+     * preload
+     * @return the current configuration
+     */
+    public SQLStoreConfiguration withWarmUp(int preloadEntities) {
+        if (preloadEntities < 0) {
+            throw new IllegalArgumentException("preloadEntities can't be negative");
+        }
+        this.warmUpPreloadEntities = preloadEntities;
+        return this;
+    }
+
+    /**
+     * Times and counts the statements the store generates for reads,
+     * filters, counts and removes. The first execution of every distinct
+     * statement is explained with <code>EXPLAIN QUERY PLAN</code>, so the
+     * store's <code>getQueryStatistics()</code> shows whether a filter is
+     * answered from an index or by scanning a table. Executions taking at
+     * least <code>slowQueryThreshold</code> are logged with their plan and
+     * the types and lengths of their bound arguments.
+     *
+     * Queries run to completion before their cursor is returned to be
+     * timed, so iterators no longer stream. Meant for debugging.
+     *
+     * Disabled by default.
+     *
+     * @param slowQueryThreshold the time from which an execution is logged,
+     * 0 to log every execution
+     * @param unit the unit of <code>slowQueryThreshold</code>
+     * @return the current configuration
+     */
+    public SQLStoreConfiguration withQueryDiagnostics(long slowQueryThreshold, TimeUnit unit) {
+        if (slowQueryThreshold < 0) {
+            throw new IllegalArgumentException("slowQueryThreshold can't be negative");
+        }
+        this.slowQueryThresholdMillis = unit.toMillis(slowQueryThreshold);
+        return this;
+    }
+
+    public Context getContext() {
+        return context;
+    }
+
+    public GsonBuilder getGsonBuilder() {
+        return builder;
+    }
+
+    public boolean isGeneratedAdapters() {
+        return generatedAdapters;
+    }
+
+    public IdGenerator getIdGenerator() {
+        return idGenerator;
+    }
+
+    public StorageMode getStorageMode() {
+        return storageMode;
+    }
+
+    public EntityCodec getCodec() {
+        return codec;
+    }
+
+    public Set<String> getIndexedProperties() {
+        return Collections.unmodifiableSet(indexedProperties);
+    }
+
+    public Set<String> getFullTextProperties() {
+        return Collections.unmodifiableSet(fullTextProperties);
+    }
+
+    public boolean isWriteAheadLogging() {
+        return writeAheadLogging;
+    }
+
+    public SynchronousMode getSynchronousMode() {
+        return synchronousMode;
+    }
+
+    public int getAutoCheckpoint() {
+        return autoCheckpointPages;
+    }
+
+    public int getWriteBehindMaxPending() {
+        return writeBehindMaxPending;
+    }
+
+    public long getWriteBehindMaxDelayMillis() {
+        return writeBehindMaxDelayMillis;
+    }
+
+    public int getEntityCacheSize() {
+        return entityCacheSize;
+    }
+
+    public boolean isEntityCacheInBytes() {
+        return entityCacheInBytes;
+    }
+
+    public int getSchemaVersion() {
+        return schemaVersion;
+    }
+
+    public List<Migration> getMigrations() {
+        return Collections.unmodifiableList(migrations);
+    }
+
+    public int getMigrationChunkSize() {
+        return migrationChunkSize;
+    }
+
+    public boolean isWarmUp() {
+        return warmUpPreloadEntities >= 0;
+    }
+
+    public int getWarmUpPreloadEntities() {
+        return Math.max(warmUpPreloadEntities, 0);
+    }
+
+    public boolean isQueryDiagnostics() {
+        return slowQueryThresholdMillis >= 0;
+    }
+
+    public long getSlowQueryThresholdMillis() {
+        return Math.max(slowQueryThresholdMillis, 0);
+    }
+
+    JournalSettings getJournalSettings() {
+        return new JournalSettings(writeAheadLogging, synchronousMode, autoCheckpointPages);
+    }
+
     @Override
     protected <TYPE> Store<TYPE> buildStore(Class<TYPE> klass) {
         if((klass == null) || (context == null)) {
             throw new IllegalStateException("Klass and Context are mandatory");
         }
 
-        return new SQLStore<>(klass, context, builder, idGenerator);
+        return new SQLStore<>(klass, this);
     }
 
 }
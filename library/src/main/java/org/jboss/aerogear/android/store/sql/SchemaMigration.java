@@ -0,0 +1,457 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.sql;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteTransactionListener;
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the stored entities of a SQL store at the configured schema version.
+ *
+ * Entities older than the configured version are rewritten in id order on a
+ * background thread, <code>chunkSize</code> entities per transaction. The
+ * last id rewritten is committed with every chunk, so a migration stopped by
+ * <code>close()</code> or by the process dying resumes where it stopped on
+ * the next open.
+ *
+ * The store stays usable meanwhile. Entities saved during a migration are
+ * already in the new layout; their ids are recorded so the migration skips
+ * them. Entities read before their chunk is rewritten are upgraded in memory.
+ */
+final class SchemaMigration {
+
+    private static final String TAG = SchemaMigration.class.getSimpleName();
+
+    /**
+     * The entity storage of a store, as JSON keyed by the text of the ids.
+     */
+    interface Entities {
+
+        /**
+         * @return notified of the outcome of the transaction of every chunk,
+         * or null
+         */
+        SQLiteTransactionListener getTransactionListener();
+
+        /**
+         * @param after the id to start after, or null to start at the first
+         * @return up to <code>limit</code> ids, in id order
+         */
+        List<String> nextIds(SQLiteDatabase db, String after, int limit);
+
+        /**
+         * @return the stored entity, or null if there is none
+         */
+        JsonObject read(SQLiteDatabase db, String id);
+
+        /**
+         * Replaces the stored entities, within the transaction of the chunk.
+         */
+        void write(SQLiteDatabase db, Map<String, JsonObject> entities);
+
+        boolean isEmpty(SQLiteDatabase db);
+
+    }
+
+    /**
+     * A read of stored entities, see {@link #read(Read)}.
+     */
+    interface Read<R> {
+
+        R run();
+
+    }
+
+    /**
+     * The committed progress: entities are at <code>version</code> after
+     * <code>cursor</code> and at <code>runVersion</code> up to it.
+     */
+    private static final class State {
+
+        final int version;
+        final int runVersion;
+        final String cursor;
+
+        State(int version, int runVersion, String cursor) {
+            this.version = version;
+            this.runVersion = runVersion;
+            this.cursor = cursor;
+        }
+
+    }
+
+    private final String schemaTable;
+    private final String migratedTable;
+    private final int version;
+    private final List<Migration> migrations;
+    private final int chunkSize;
+    private final Entities entities;
+    private final Set<String> migratedIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile State state;
+    // Odd while a chunk commits
+    private final AtomicLong commits = new AtomicLong();
+    private SQLiteDatabase database;
+    private ExecutorService executor;
+    private boolean closed;
+
+    /**
+     * @param tablePrefix the prefix of the tables holding the progress
+     * @param version the configured schema version
+     * @param migrations the migrations to versions up to <code>version</code>
+     * @param chunkSize the number of entities rewritten per transaction
+     * @throws IllegalArgumentException if two migrations share a version or
+     * one targets a version outside of 2 to <code>version</code>
+     */
+    SchemaMigration(String tablePrefix, int version, List<Migration> migrations, int chunkSize, Entities entities) {
+        this.schemaTable = tablePrefix + "_schema";
+        this.migratedTable = tablePrefix + "_migrated";
+        this.version = version;
+        this.chunkSize = chunkSize;
+        this.entities = entities;
+        this.state = new State(version, version, null);
+
+        Migration[] sorted = migrations.toArray(new Migration[migrations.size()]);
+        Arrays.sort(sorted, new Comparator<Migration>() {
+            @Override
+            public int compare(Migration left, Migration right) {
+                return left.getVersion() - right.getVersion();
+            }
+        });
+        for (int i = 0; i < sorted.length; i++) {
+            int target = sorted[i].getVersion();
+            if (target < 2 || target > version || (i > 0 && target == sorted[i - 1].getVersion())) {
+                throw new IllegalArgumentException("Invalid or duplicate migration to version " + target);
+            }
+        }
+        this.migrations = Arrays.asList(sorted);
+    }
+
+    /**
+     * Loads the progress of the store. Data stored before the store was
+     * versioned is at version 1, an empty store is at the configured version.
+     *
+     * @throws IllegalStateException if the data is newer than the configured
+     * version
+     */
+    synchronized void open(SQLiteDatabase db) {
+        this.database = db;
+        this.closed = false;
+
+        boolean versioned = DatabaseUtils.longForQuery(db,
+                "select count(*) from sqlite_master where type = 'table' and name = ?", new String[]{schemaTable}) > 0;
+        if (!versioned && version == 1) {
+            state = new State(1, 1, null);
+            return;
+        }
+
+        db.beginTransaction();
+        try {
+            State loaded;
+            if (!versioned) {
+                db.execSQL("create table " + schemaTable + " ( VERSION integer not null,"
+                        + " RUN_VERSION integer not null, CURSOR text )");
+                db.execSQL("create table if not exists " + migratedTable + " ( PARENT_ID text primary key )");
+                int initial = entities.isEmpty(db) ? version : 1;
+                loaded = new State(initial, initial, null);
+                db.execSQL("insert into " + schemaTable + " (VERSION, RUN_VERSION, CURSOR) values (?, ?, null)",
+                           new Object[]{initial, initial});
+            } else {
+                loaded = readState(db);
+            }
+
+            if (loaded.version > version) {
+                throw new IllegalStateException("The stored data is at schema version " + loaded.version
+                        + ", newer than the configured version " + version);
+            }
+            if (loaded.version == loaded.runVersion && loaded.version < version) {
+                loaded = new State(loaded.version, version, null);
+                writeState(db, loaded);
+            }
+
+            migratedIds.clear();
+            if (loaded.version < version) {
+                Cursor cursor = db.rawQuery("select PARENT_ID from " + migratedTable, null);
+                try {
+                    while (cursor.moveToNext()) {
+                        migratedIds.add(cursor.getString(0));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            state = loaded;
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private State readState(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("select VERSION, RUN_VERSION, CURSOR from " + schemaTable, null);
+        try {
+            cursor.moveToFirst();
+            return new State(cursor.getInt(0), cursor.getInt(1), cursor.isNull(2) ? null : cursor.getString(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void writeState(SQLiteDatabase db, State state) {
+        db.execSQL("update " + schemaTable + " set VERSION = ?, RUN_VERSION = ?, CURSOR = ?",
+                   new Object[]{state.version, state.runVersion, state.cursor});
+    }
+
+    /**
+     * Starts rewriting the entities in the background if they are behind
+     * the configured version.
+     */
+    synchronized void start() {
+        if (closed || !isRunning()) {
+            return;
+        }
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (migrateChunk()) {
+                        // Releases the lock between chunks so close() can stop the migration
+                    }
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Schema migration failed, it will resume on the next open", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return true if entities are still being rewritten
+     */
+    boolean isRunning() {
+        return state.version < version;
+    }
+
+    /**
+     * @return the schema version every stored entity has reached
+     */
+    int getVersion() {
+        return state.version;
+    }
+
+    /**
+     * Rewrites the next chunk in one transaction.
+     *
+     * The new progress is published when the transaction commits. With
+     * write-ahead logging, readers on other connections may still see the
+     * rows of before the commit meanwhile, so a commit in progress
+     * invalidates the reads of {@link #read(Read)} that overlap it.
+     *
+     * @return true if there is more to rewrite
+     */
+    private synchronized boolean migrateChunk() {
+        if (closed || !isRunning()) {
+            return false;
+        }
+
+        final State current = state;
+        final State[] next = new State[1];
+        final SQLiteTransactionListener listener = entities.getTransactionListener();
+        database.beginTransactionWithListener(new SQLiteTransactionListener() {
+            @Override
+            public void onBegin() {
+                if (listener != null) {
+                    listener.onBegin();
+                }
+            }
+
+            @Override
+            public void onCommit() {
+                if (listener != null) {
+                    listener.onCommit();
+                }
+                // Called right before COMMIT, readers retry until it is over
+                beginCommit();
+                state = next[0];
+                if (!isRunning()) {
+                    migratedIds.clear();
+                }
+            }
+
+            @Override
+            public void onRollback() {
+                if (listener != null) {
+                    listener.onRollback();
+                }
+            }
+        });
+        try {
+            List<String> ids = entities.nextIds(database, current.cursor, chunkSize);
+            Map<String, JsonObject> migrated = new LinkedHashMap<String, JsonObject>(ids.size() * 2);
+            for (String id : ids) {
+                if (!migratedIds.contains(id)) {
+                    JsonObject entity = entities.read(database, id);
+                    if (entity != null) {
+                        migrated.put(id, apply(entity, current.version, current.runVersion));
+                    }
+                }
+            }
+            entities.write(database, migrated);
+
+            if (ids.size() == chunkSize) {
+                next[0] = new State(current.version, current.runVersion, ids.get(ids.size() - 1));
+            } else if (current.runVersion < version) {
+                // An earlier run was interrupted before the configured version changed
+                next[0] = new State(current.runVersion, version, null);
+            } else {
+                next[0] = new State(version, version, null);
+                database.execSQL("delete from " + migratedTable);
+            }
+            writeState(database, next[0]);
+            database.setTransactionSuccessful();
+        } finally {
+            try {
+                database.endTransaction();
+            } catch (RuntimeException e) {
+                // The commit failed after the progress was published
+                state = current;
+                throw e;
+            } finally {
+                endCommit();
+            }
+        }
+        return isRunning();
+    }
+
+    private void beginCommit() {
+        synchronized (commits) {
+            if ((commits.get() & 1) == 0) {
+                commits.incrementAndGet();
+            }
+        }
+    }
+
+    private void endCommit() {
+        synchronized (commits) {
+            if ((commits.get() & 1) != 0) {
+                commits.incrementAndGet();
+                commits.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Runs a read whose entities are passed to {@link #upgrade(String,
+     * JsonObject)}, again if a chunk committed while it ran: the rows it
+     * read and the progress it upgraded them with might disagree.
+     */
+    <R> R read(Read<R> read) {
+        if (!isRunning()) {
+            // Nothing commits once the migration is over
+            return read.run();
+        }
+        while (true) {
+            long stamp;
+            synchronized (commits) {
+                while (((stamp = commits.get()) & 1) != 0) {
+                    try {
+                        commits.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Interrupted while waiting for a migration chunk", e);
+                    }
+                }
+            }
+            R result = read.run();
+            if (commits.get() == stamp) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Records that an entity was saved in the configured version's layout.
+     * Called within the transaction of the save.
+     */
+    void markSaved(SQLiteDatabase db, String id) {
+        if (isRunning() && !migratedIds.contains(id)) {
+            db.execSQL("insert or ignore into " + migratedTable + " (PARENT_ID) values (?)", new Object[]{id});
+            migratedIds.add(id);
+        }
+    }
+
+    /**
+     * Brings an entity read from the database to the configured version.
+     */
+    JsonObject upgrade(String id, JsonObject entity) {
+        State current = state;
+        if (current.version == version || migratedIds.contains(id)) {
+            return entity;
+        }
+        // Ids are compared as UTF-16 here and as UTF-8 by SQLite, which only
+        // disagree on characters outside the Basic Multilingual Plane
+        boolean rewritten = current.cursor != null && id.compareTo(current.cursor) <= 0;
+        return apply(entity, rewritten ? current.runVersion : current.version, version);
+    }
+
+    private JsonObject apply(JsonObject entity, int from, int to) {
+        for (Migration migration : migrations) {
+            if (migration.getVersion() > from && migration.getVersion() <= to) {
+                entity = migration.migrate(entity);
+            }
+        }
+        return entity;
+    }
+
+    /**
+     * Waits for the chunk being rewritten, if any, and stops the migration.
+     */
+    synchronized void close() {
+        closed = true;
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+}
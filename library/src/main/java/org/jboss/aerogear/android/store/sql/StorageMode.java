@@ -0,0 +1,51 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.sql;
+
+/**
+ * Table layouts supported by {@link SQLStore}.
+ */
+public enum StorageMode {
+
+    /**
+     * Every leaf value of an entity is stored as its own row in the
+     * <code>%s_property</code> table. This is the default layout.
+     */
+    PROPERTIES,
+
+    /**
+     * Like {@link #PROPERTIES}, but rows reference their property name by
+     * an integer id into the <code>%s_property_name</code> dictionary, which
+     * the store keeps in memory. Rows are stored in the
+     * <code>%s_encoded_property</code> table.
+     *
+     * Paths such as <code>items[17].sku</code> are stored once instead of in
+     * every row and in the name index, so the table, its indexes and the
+     * pages cached for them shrink.
+     */
+    ENCODED_PROPERTIES,
+
+    /**
+     * Every entity is stored as a single row in the <code>%s_document</code>
+     * table, keyed by its id and holding the serialized entity.
+     *
+     * Reads and writes cost one row per entity, but filters are evaluated
+     * against the deserialized documents instead of an index.
+     */
+    DOCUMENT
+
+}
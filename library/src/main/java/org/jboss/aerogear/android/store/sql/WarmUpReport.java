@@ -0,0 +1,127 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.sql;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long each phase of a store's warm-up took, see
+ * {@link SQLStoreConfiguration#withWarmUp(int)}.
+ */
+public final class WarmUpReport {
+
+    public enum Phase {
+        /**
+         * Opening the database, creating or upgrading its tables.
+         */
+        OPEN,
+        /**
+         * Loading the encryption key and running the cipher once. Only
+         * encrypted stores have this phase.
+         */
+        ENCRYPTION,
+        /**
+         * Building the Gson adapters and the accessor of the model class.
+         */
+        SERIALIZERS,
+        /**
+         * Compiling the statements used by reads and saves.
+         */
+        STATEMENTS,
+        /**
+         * Reading the first entities of the store.
+         */
+        PRELOAD
+    }
+
+    private final long[] nanos;
+    private final int preloadedEntities;
+
+    private WarmUpReport(long[] nanos, int preloadedEntities) {
+        this.nanos = nanos;
+        this.preloadedEntities = preloadedEntities;
+    }
+
+    /**
+     * @param phase a phase of the warm-up
+     * @return the milliseconds <code>phase</code> took, 0 if the store
+     * doesn't have that phase
+     */
+    public long getMillis(Phase phase) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos[phase.ordinal()]);
+    }
+
+    /**
+     * @return the milliseconds the whole warm-up took
+     */
+    public long getTotalMillis() {
+        long total = 0;
+        for (long phaseNanos : nanos) {
+            total += phaseNanos;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(total);
+    }
+
+    /**
+     * @return the number of entities read by the preload phase
+     */
+    public int getPreloadedEntities() {
+        return preloadedEntities;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            result.append(phase.name().toLowerCase()).append(' ').append(getMillis(phase)).append(" ms, ");
+        }
+        return result.append(preloadedEntities).append(" entities preloaded").toString();
+    }
+
+    /**
+     * Times consecutive phases of a warm-up.
+     */
+    static final class Timer {
+
+        private final long[] nanos = new long[Phase.values().length];
+        private long start = System.nanoTime();
+
+        /**
+         * Ends <code>phase</code> and starts the next one.
+         */
+        void end(Phase phase) {
+            long now = System.nanoTime();
+            nanos[phase.ordinal()] += now - start;
+            start = now;
+        }
+
+        /**
+         * Moves time measured as part of one phase to another, ie the
+         * encryption setup that happens while the database opens.
+         */
+        void move(Phase from, Phase to, long phaseNanos) {
+            long moved = Math.min(phaseNanos, nanos[from.ordinal()]);
+            nanos[from.ordinal()] -= moved;
+            nanos[to.ordinal()] += moved;
+        }
+
+        WarmUpReport report(int preloadedEntities) {
+            return new WarmUpReport(nanos.clone(), preloadedEntities);
+        }
+    }
+
+}
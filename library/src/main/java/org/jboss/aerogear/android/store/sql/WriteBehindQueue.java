@@ -0,0 +1,240 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.sql;
+
+import android.util.Log;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffers the saves and removes of a SQL store and writes them in a single
+ * transaction once <code>maxPending</code> ids are waiting, or
+ * <code>maxDelayMillis</code> after the oldest pending write.
+ *
+ * Writes to the same id are coalesced, only the last one is kept. A batch is
+ * written outside of the queue lock, so lookups and new writes don't wait
+ * for its transaction; its entries stay visible to lookups until it
+ * committed. Batches are written one at a time, in order.
+ *
+ * The queue holds the stores' serialized form of the items, so a caller
+ * changing an item after saving it doesn't change what is written or looked
+ * up.
+ */
+final class WriteBehindQueue<T> {
+
+    private static final String TAG = WriteBehindQueue.class.getSimpleName();
+
+    /**
+     * Writes a batch in one transaction.
+     */
+    interface Sink<T> {
+
+        /**
+         * @param saves the saved items, by the text of their id
+         */
+        void write(Map<String, T> saves, List<Serializable> removes);
+
+    }
+
+    /**
+     * The latest pending write of an id: a save of <code>item</code>, or a
+     * remove when <code>item</code> is null.
+     */
+    static final class Entry<T> {
+
+        final Serializable id;
+        final T item;
+
+        Entry(Serializable id, T item) {
+            this.id = id;
+            this.item = item;
+        }
+
+    }
+
+    private final Sink<T> sink;
+    private final int maxPending;
+    private final long maxDelayMillis;
+    private final Map<String, Entry<T>> pending = new LinkedHashMap<String, Entry<T>>();
+    // The batch being written, still looked up until it committed
+    private Map<String, Entry<T>> flushing = new LinkedHashMap<String, Entry<T>>();
+    // Held while a batch is written, taken before the queue lock
+    private final Object flushLock = new Object();
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> scheduledFlush;
+
+    WriteBehindQueue(Sink<T> sink, int maxPending, long maxDelayMillis) {
+        this.sink = sink;
+        this.maxPending = maxPending;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    void save(Serializable id, T item) {
+        enqueue(new Entry<T>(id, item));
+    }
+
+    void remove(Serializable id) {
+        enqueue(new Entry<T>(id, null));
+    }
+
+    private void enqueue(Entry<T> entry) {
+        boolean full;
+        synchronized (this) {
+            pending.put(entry.id.toString(), entry);
+            full = pending.size() >= maxPending;
+            if (!full && scheduledFlush == null) {
+                scheduledFlush = scheduler().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flushInBackground();
+                    }
+                }, maxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * @return the pending write of <code>id</code>, or null if the database
+     * is up to date for it
+     */
+    synchronized Entry<T> lookup(Serializable id) {
+        String key = id.toString();
+        Entry<T> entry = pending.get(key);
+        return (entry != null) ? entry : flushing.get(key);
+    }
+
+    /**
+     * Drops every pending write, for a reset of the store. Waits for the
+     * batch being written, so it can't land after the reset.
+     */
+    void clear() {
+        synchronized (flushLock) {
+            synchronized (this) {
+                pending.clear();
+                cancelScheduledFlush();
+            }
+        }
+    }
+
+    /**
+     * Writes every pending entry in one batch, after the batch being written
+     * if any. If the batch fails the entries are put back, behind any write
+     * made to the same id while it was written.
+     */
+    void flush() {
+        synchronized (flushLock) {
+            Map<String, Entry<T>> batch;
+            synchronized (this) {
+                cancelScheduledFlush();
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = new LinkedHashMap<String, Entry<T>>(pending);
+                pending.clear();
+                flushing = batch;
+            }
+
+            Map<String, T> saves = new LinkedHashMap<String, T>(batch.size() * 2);
+            List<Serializable> removes = new ArrayList<Serializable>();
+            for (Map.Entry<String, Entry<T>> entry : batch.entrySet()) {
+                if (entry.getValue().item == null) {
+                    removes.add(entry.getValue().id);
+                } else {
+                    saves.put(entry.getKey(), entry.getValue().item);
+                }
+            }
+
+            try {
+                sink.write(saves, removes);
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    for (Map.Entry<String, Entry<T>> entry : batch.entrySet()) {
+                        if (!pending.containsKey(entry.getKey())) {
+                            pending.put(entry.getKey(), entry.getValue());
+                        }
+                    }
+                }
+                throw e;
+            } finally {
+                synchronized (this) {
+                    flushing = new LinkedHashMap<String, Entry<T>>();
+                }
+            }
+        }
+    }
+
+    private void flushInBackground() {
+        synchronized (this) {
+            scheduledFlush = null;
+        }
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Pending writes could not be flushed, they will be retried on the next flush", e);
+        }
+    }
+
+    /**
+     * Flushes the pending writes and stops the flush timer.
+     */
+    void close() {
+        try {
+            flush();
+        } finally {
+            synchronized (this) {
+                if (scheduler != null) {
+                    scheduler.shutdown();
+                    scheduler = null;
+                }
+            }
+        }
+    }
+
+    private void cancelScheduledFlush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+
+    private ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return scheduler;
+    }
+
+}
@@ -18,9 +18,13 @@ package org.jboss.aerogear.android.store.util;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
 
 import org.jboss.aerogear.android.security.EncryptionService;
 import org.jboss.aerogear.android.security.InvalidKeyException;
+import org.jboss.aerogear.android.store.accessor.EntityAccessors;
+import org.jboss.aerogear.android.store.codec.EntityCodec;
+import org.jboss.aerogear.android.store.codec.GsonCodec;
 
 public class CryptoEntityUtil<T> {
 
@@ -28,29 +32,105 @@ public class CryptoEntityUtil<T> {
     private final byte[] IV;
     private final Class<T> modelClass;
     private final Gson gson;
+    private final EntityCodec codec;
 
     public CryptoEntityUtil(EncryptionService encryptionService, byte[] iv, Class<T> modelClass) {
         this(encryptionService, iv, modelClass, new GsonBuilder());
     }
 
     public CryptoEntityUtil(EncryptionService encryptionService, byte[] iv, Class<T> modelClass, GsonBuilder builder) {
+        this(encryptionService, iv, modelClass, builder, new GsonCodec());
+    }
+
+    /**
+     * @param codec encodes the entities before they are encrypted
+     */
+    public CryptoEntityUtil(EncryptionService encryptionService, byte[] iv, Class<T> modelClass, GsonBuilder builder,
+                            EntityCodec codec) {
+        this(encryptionService, iv, modelClass, builder, codec, false);
+    }
+
+    /**
+     * @param codec encodes the entities before they are encrypted
+     * @param generatedAdapters true to serialize with the adapters generated
+     * at compile time, see {@link EntityAccessors#createGson(GsonBuilder, boolean)}
+     */
+    public CryptoEntityUtil(EncryptionService encryptionService, byte[] iv, Class<T> modelClass, GsonBuilder builder,
+                            EntityCodec codec, boolean generatedAdapters) {
         this.encryptionService = encryptionService;
         this.IV = iv;
         this.modelClass = modelClass;
-        this.gson = builder.create();
+        this.gson = EntityAccessors.createGson(builder, generatedAdapters);
+        this.codec = codec;
     }
 
     public byte[] encrypt(T item) {
-        String json = gson.toJson(item);
+        return encryptionService.encrypt(IV, codec.encode(gson, item, modelClass));
+    }
+
+    public T decrypt(byte[] data) {
+        byte[] decryptedData = decryptBytes(data);
+        try {
+            return codec.decode(gson, decryptedData, modelClass);
+        } catch (RuntimeException e) {
+            throw new InvalidKeyException(e);
+        }
+    }
+
+    /**
+     * Encrypts an entity already converted to a tree, see
+     * {@link EntityCodec#encodeTree(JsonElement)}.
+     */
+    public byte[] encryptTree(JsonElement tree) {
+        return encryptionService.encrypt(IV, codec.encodeTree(tree));
+    }
+
+    /**
+     * Decrypts an entity to a tree without deserializing it.
+     */
+    public JsonElement decryptTree(byte[] data) {
+        byte[] decryptedData = decryptBytes(data);
+        try {
+            return codec.decodeTree(decryptedData);
+        } catch (RuntimeException e) {
+            throw new InvalidKeyException(e);
+        }
+    }
+
+    /**
+     * Encrypts an entity already serialized to JSON.
+     */
+    public byte[] encryptJson(String json) {
         byte[] message = json.getBytes();
         return encryptionService.encrypt(IV, message);
     }
 
-    public T decrypt(byte[] data) {
+    /**
+     * Decrypts an entity without deserializing it.
+     */
+    public String decryptJson(byte[] data) {
+        return new String(decryptBytes(data));
+    }
+
+    /**
+     * Builds the Gson adapter of the model class ahead of the first
+     * encrypted or decrypted entity.
+     */
+    public void prepareSerializer() {
+        gson.getAdapter(modelClass);
+    }
+
+    /**
+     * Encrypts and decrypts a single byte, so the cipher is initialized
+     * ahead of the first entity.
+     */
+    public void prepareCipher() {
+        decryptBytes(encryptionService.encrypt(IV, new byte[1]));
+    }
+
+    private byte[] decryptBytes(byte[] data) {
         try {
-            byte[] decryptedData = encryptionService.decrypt(IV, data);
-            String json = new String(decryptedData);
-            return gson.fromJson(json, modelClass);
+            return encryptionService.decrypt(IV, data);
         } catch (RuntimeException e) {
             throw new InvalidKeyException(e);
         }
@@ -0,0 +1,283 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
+
+/**
+ * Writes the source of the accessor of one model. Types are written fully
+ * qualified so the generated code can't clash with the names a model
+ * imports.
+ */
+final class AccessorWriter {
+
+    private static final String BASE = "org.jboss.aerogear.android.store.accessor.GeneratedEntityAccessor";
+    private static final String GSON = "com.google.gson.Gson";
+    private static final String TYPE_ADAPTER = "com.google.gson.TypeAdapter";
+
+    private final Types types;
+    private final TypeElement model;
+    private final String modelName;
+    private final String packageName;
+    private final String simpleName;
+    private final List<ModelField> fields;
+    private final ModelField id;
+    private final boolean adapter;
+    private final StringBuilder out = new StringBuilder();
+
+    /**
+     * @param accessorName the binary name of the accessor
+     * @param adapter whether to generate a type adapter
+     */
+    AccessorWriter(Types types, TypeElement model, String accessorName, List<ModelField> fields, ModelField id,
+                   boolean adapter) {
+        this.types = types;
+        this.model = model;
+        this.modelName = model.getQualifiedName().toString();
+        int dot = accessorName.lastIndexOf('.');
+        this.packageName = (dot < 0) ? null : accessorName.substring(0, dot);
+        this.simpleName = accessorName.substring(dot + 1);
+        this.fields = fields;
+        this.id = id;
+        this.adapter = adapter;
+    }
+
+    void write(Writer writer) throws IOException {
+        line(0, "// Generated by " + EntityAccessorProcessor.class.getName() + " from " + modelName + ", do not edit");
+        if (packageName != null) {
+            line(0, "package " + packageName + ";");
+        }
+        line(0, "");
+        line(0, "@SuppressWarnings({\"rawtypes\", \"unchecked\"})");
+        line(0, "public final class " + simpleName + " extends " + BASE + "<" + modelName + "> {");
+        line(0, "");
+        line(1, "public " + simpleName + "() {");
+        line(2, "super(" + modelName + ".class, \"" + id.name + "\");");
+        line(1, "}");
+        line(0, "");
+        writeRecordIdAccessors();
+        writeGetProperty();
+        if (adapter) {
+            writeAdapter();
+        }
+        line(0, "}");
+        writer.write(out.toString());
+    }
+
+    private void writeRecordIdAccessors() {
+        line(1, "@Override");
+        line(1, "public java.io.Serializable getRecordId(" + modelName + " entity) {");
+        if (id.type.getKind().isPrimitive()) {
+            line(2, "return " + boxed(id.type) + ".valueOf(entity." + id.getterName + "());");
+        } else {
+            line(2, "return (java.io.Serializable) entity." + id.getterName + "();");
+        }
+        line(1, "}");
+        line(0, "");
+        line(1, "@Override");
+        line(1, "public void setRecordId(" + modelName + " entity, java.io.Serializable id) {");
+        line(2, "entity." + id.setterName + "((" + boxed(types.erasure(id.type)) + ") id);");
+        line(1, "}");
+        line(0, "");
+    }
+
+    /**
+     * Reads the properties the reflective lookup would find, the field of a
+     * subclass hiding the one of its superclass. Others are left to the
+     * reflective lookup, which reports them.
+     */
+    private void writeGetProperty() {
+        line(1, "@Override");
+        line(1, "public Object getProperty(" + modelName + " entity, String name) {");
+        line(2, "switch (name) {");
+        Set<String> names = new HashSet<String>();
+        for (ModelField field : fields) {
+            if (names.add(field.name) && field.hasProperty()) {
+                line(3, "case \"" + field.name + "\":");
+                line(4, "return entity." + field.getterName + "();");
+            }
+        }
+        line(3, "default:");
+        line(4, "return super.getProperty(entity, name);");
+        line(2, "}");
+        line(1, "}");
+        line(0, "");
+    }
+
+    private void writeAdapter() {
+        line(1, "@Override");
+        line(1, "public " + TYPE_ADAPTER + "<" + modelName + "> createTypeAdapter(" + GSON + " gson) {");
+        line(2, "return new Adapter(gson);");
+        line(1, "}");
+        line(0, "");
+        line(1, "private static final class Adapter extends " + BASE + ".GeneratedTypeAdapter<" + modelName + "> {");
+        line(0, "");
+        for (int i = 0; i < fields.size(); i++) {
+            ModelField field = fields.get(i);
+            if (field.serialized) {
+                line(2, "private final " + TYPE_ADAPTER + "<" + boxed(field.type) + "> adapter" + i + ";");
+            }
+        }
+        line(0, "");
+        line(2, "Adapter(" + GSON + " gson) {");
+        line(3, "super(gson);");
+        for (int i = 0; i < fields.size(); i++) {
+            ModelField field = fields.get(i);
+            if (field.serialized) {
+                line(3, "this.adapter" + i + " = gson.getAdapter(" + typeToken(field.type) + ");");
+            }
+        }
+        line(2, "}");
+        line(0, "");
+        writeAdapterWrite();
+        writeAdapterRead();
+        line(1, "}");
+        line(0, "");
+    }
+
+    private void writeAdapterWrite() {
+        line(2, "@Override");
+        line(2, "public void write(com.google.gson.stream.JsonWriter out, " + modelName + " value) throws java.io.IOException {");
+        line(3, "if (value == null) {");
+        line(4, "out.nullValue();");
+        line(4, "return;");
+        line(3, "}");
+        line(3, "out.beginObject();");
+        for (int i = 0; i < fields.size(); i++) {
+            ModelField field = fields.get(i);
+            if (!field.serialized) {
+                continue;
+            }
+            String read = field.visible ? "value." + field.name : "value." + field.getterName + "()";
+            String name = "out.name(\"" + escape(field.serializedNames.get(0)) + "\");";
+            String write = writesRuntimeType(field.type)
+                    ? "writeField(out, adapter" + i + ", " + types.erasure(field.type) + ".class, fieldValue" + i + ");"
+                    : "adapter" + i + ".write(out, fieldValue" + i + ");";
+            line(3, boxed(field.type) + " fieldValue" + i + " = " + read + ";");
+            if (!field.type.getKind().isPrimitive()
+                    && types.isAssignable(model.asType(), types.erasure(field.type))) {
+                // Gson skips a field referencing the entity itself
+                line(3, "if (fieldValue" + i + " != value) {");
+                line(4, name);
+                line(4, write);
+                line(3, "}");
+            } else {
+                line(3, name);
+                line(3, write);
+            }
+        }
+        line(3, "out.endObject();");
+        line(2, "}");
+        line(0, "");
+    }
+
+    private void writeAdapterRead() {
+        line(2, "@Override");
+        line(2, "public " + modelName + " read(com.google.gson.stream.JsonReader in) throws java.io.IOException {");
+        line(3, "if (in.peek() == com.google.gson.stream.JsonToken.NULL) {");
+        line(4, "in.nextNull();");
+        line(4, "return null;");
+        line(3, "}");
+        line(3, modelName + " entity = new " + modelName + "();");
+        line(3, "in.beginObject();");
+        line(3, "while (in.hasNext()) {");
+        line(4, "switch (in.nextName()) {");
+        for (int i = 0; i < fields.size(); i++) {
+            ModelField field = fields.get(i);
+            if (!field.serialized) {
+                continue;
+            }
+            for (String name : field.serializedNames) {
+                line(5, "case \"" + escape(name) + "\":");
+            }
+            line(5, "{");
+            line(6, boxed(field.type) + " fieldValue = adapter" + i + ".read(in);");
+            String assign = (field.visible && field.writable)
+                    ? "entity." + field.name + " = fieldValue;"
+                    : "entity." + field.setterName + "(fieldValue);";
+            if (field.type.getKind().isPrimitive()) {
+                // Gson leaves a primitive field untouched when it reads null
+                line(6, "if (fieldValue != null) {");
+                line(7, assign);
+                line(6, "}");
+            } else {
+                line(6, assign);
+            }
+            line(6, "break;");
+            line(5, "}");
+        }
+        line(5, "default:");
+        line(6, "in.skipValue();");
+        line(4, "}");
+        line(3, "}");
+        line(3, "in.endObject();");
+        line(3, "return entity;");
+        line(2, "}");
+    }
+
+    /**
+     * @return whether Gson would write a value of the field with the adapter
+     * of its runtime type, which it does for fields declared as a class
+     * that can be extended
+     */
+    private boolean writesRuntimeType(TypeMirror type) {
+        if (type.getKind() != TypeKind.DECLARED) {
+            return false;
+        }
+        DeclaredType declared = (DeclaredType) type;
+        return declared.getTypeArguments().isEmpty()
+                && !declared.asElement().getModifiers().contains(Modifier.FINAL);
+    }
+
+    private String typeToken(TypeMirror type) {
+        if (type.getKind() == TypeKind.DECLARED && !((DeclaredType) type).getTypeArguments().isEmpty()) {
+            return "new com.google.gson.reflect.TypeToken<" + type + ">() { }";
+        }
+        return type + ".class";
+    }
+
+    private String boxed(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return types.boxedClass((PrimitiveType) type).getQualifiedName().toString();
+        }
+        return type.toString();
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private void line(int indent, String text) {
+        for (int i = 0; i < indent; i++) {
+            out.append("    ");
+        }
+        out.append(text).append('\n');
+    }
+
+}
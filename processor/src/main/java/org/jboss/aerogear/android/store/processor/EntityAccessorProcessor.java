@@ -0,0 +1,357 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates an accessor for every class declaring a <code>RecordId</code>
+ * field, so the stores read ids and properties and serialize entities
+ * without reflection.
+ *
+ * Ids and filtered properties are read through the public getters and
+ * setters the reflective access uses. The generated Gson adapter reads and
+ * writes the fields directly when they are visible from the package of the
+ * model, and through their getter and setter otherwise. Models the adapter
+ * can't reproduce Gson's reflective serialization for, ie with final or
+ * inaccessible fields, no usable no-argument constructor or generic field
+ * types, only get the id and property accessors.
+ */
+@SupportedAnnotationTypes(EntityAccessorProcessor.RECORD_ID)
+public class EntityAccessorProcessor extends AbstractProcessor {
+
+    static final String RECORD_ID = "org.jboss.aerogear.android.core.RecordId";
+    static final String SUFFIX = "_EntityAccessor";
+    private static final String SERIALIZED_NAME = "com.google.gson.annotations.SerializedName";
+    private static final String JSON_ADAPTER = "com.google.gson.annotations.JsonAdapter";
+
+    private final Set<String> generated = new HashSet<String>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement recordId = processingEnv.getElementUtils().getTypeElement(RECORD_ID);
+        if (recordId == null) {
+            return false;
+        }
+
+        Set<TypeElement> models = new LinkedHashSet<TypeElement>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(recordId)) {
+            if (element.getKind() == ElementKind.FIELD) {
+                models.add((TypeElement) element.getEnclosingElement());
+            }
+        }
+        for (TypeElement model : models) {
+            String name = processingEnv.getElementUtils().getBinaryName(model).toString() + SUFFIX;
+            if (generated.add(name)) {
+                generate(model, recordId, name);
+            }
+        }
+        return false;
+    }
+
+    private void generate(TypeElement model, TypeElement recordId, String accessorName) {
+        String unsupported = unsupported(model);
+        if (unsupported != null) {
+            note(model, model.getQualifiedName() + " " + unsupported + ", its entities are accessed through reflection");
+            return;
+        }
+
+        List<ModelField> fields = fieldsOf(model);
+        ModelField id = find(fields, recordIdName(model, recordId));
+        if (!id.hasProperty()) {
+            note(model, "The record id of " + model.getQualifiedName() + " has no public getter and setter,"
+                    + " its entities are accessed through reflection");
+            return;
+        }
+
+        boolean adapter = canGenerateAdapter(model, fields);
+        try {
+            JavaFileObject source = processingEnv.getFiler().createSourceFile(accessorName, model);
+            Writer writer = source.openWriter();
+            try {
+                new AccessorWriter(processingEnv.getTypeUtils(), model, accessorName, fields, id, adapter).write(writer);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Can't write the accessor of " + model.getQualifiedName() + ": " + e.getMessage(), model);
+        }
+    }
+
+    /**
+     * @return why the generated accessor couldn't reach the model, or null
+     * if it can
+     */
+    private String unsupported(TypeElement model) {
+        if (model.getKind() != ElementKind.CLASS) {
+            return "isn't a class";
+        }
+        if (!model.getTypeParameters().isEmpty()) {
+            return "is generic";
+        }
+        Element element = model;
+        while (element.getKind().isClass()) {
+            TypeElement type = (TypeElement) element;
+            if (type.getModifiers().contains(Modifier.PRIVATE)) {
+                return "is private";
+            }
+            if (type.getNestingKind() == NestingKind.LOCAL || type.getNestingKind() == NestingKind.ANONYMOUS) {
+                return "is a local class";
+            }
+            if (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC)) {
+                return "is an inner class";
+            }
+            element = type.getEnclosingElement();
+        }
+        return null;
+    }
+
+    /**
+     * @return the first field annotated with <code>RecordId</code>, the one
+     * the reflective lookup finds
+     */
+    private String recordIdName(TypeElement model, TypeElement recordId) {
+        for (VariableElement field : ElementFilter.fieldsIn(model.getEnclosedElements())) {
+            for (AnnotationMirror annotation : field.getAnnotationMirrors()) {
+                if (annotation.getAnnotationType().asElement().equals(recordId)) {
+                    return field.getSimpleName().toString();
+                }
+            }
+        }
+        throw new IllegalStateException(model + " has no RecordId field");
+    }
+
+    /**
+     * @return the instance fields of the model and its superclasses, in the
+     * order Gson serializes them
+     */
+    private List<ModelField> fieldsOf(TypeElement model) {
+        Elements elements = processingEnv.getElementUtils();
+        Types types = processingEnv.getTypeUtils();
+        PackageElement modelPackage = elements.getPackageOf(model);
+        DeclaredType modelType = (DeclaredType) model.asType();
+        List<ExecutableElement> methods = ElementFilter.methodsIn(elements.getAllMembers(model));
+
+        List<ModelField> fields = new ArrayList<ModelField>();
+        TypeElement current = model;
+        while (current != null && !current.getQualifiedName().contentEquals("java.lang.Object")) {
+            boolean samePackage = elements.getPackageOf(current).equals(modelPackage);
+            boolean classVisible = samePackage || current.getModifiers().contains(Modifier.PUBLIC);
+            for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.STATIC)) {
+                    continue;
+                }
+                String name = field.getSimpleName().toString();
+                TypeMirror type = types.asMemberOf(modelType, field);
+                TypeMirror erasure = types.erasure(field.asType());
+
+                String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+                ExecutableElement getter = findMethod(methods,
+                        (erasure.getKind() == TypeKind.BOOLEAN ? "is" : "get") + capitalized, null);
+                ExecutableElement setter = findMethod(methods, "set" + capitalized, erasure);
+                boolean typedAccessors = getter != null && setter != null
+                        && types.isAssignable(((ExecutableType) types.asMemberOf(modelType, getter)).getReturnType(), type)
+                        && types.isAssignable(type,
+                                              ((ExecutableType) types.asMemberOf(modelType, setter)).getParameterTypes().get(0));
+
+                boolean visible = classVisible && !modifiers.contains(Modifier.PRIVATE)
+                        && (samePackage || modifiers.contains(Modifier.PUBLIC));
+                fields.add(new ModelField(name, type,
+                        getter == null ? null : getter.getSimpleName().toString(),
+                        setter == null ? null : setter.getSimpleName().toString(),
+                        visible, !modifiers.contains(Modifier.FINAL), !modifiers.contains(Modifier.TRANSIENT),
+                        serializedNames(field), hasAnnotation(field, JSON_ADAPTER), typedAccessors));
+            }
+            TypeMirror superclass = current.getSuperclass();
+            current = (superclass.getKind() == TypeKind.DECLARED) ? (TypeElement) types.asElement(superclass) : null;
+        }
+        return fields;
+    }
+
+    /**
+     * @param parameter the erased type of the only parameter, or null for a
+     * method without parameters
+     * @return the public method, as <code>Class.getMethod</code> finds it
+     */
+    private ExecutableElement findMethod(List<ExecutableElement> methods, String name, TypeMirror parameter) {
+        Types types = processingEnv.getTypeUtils();
+        for (ExecutableElement method : methods) {
+            if (!method.getSimpleName().contentEquals(name) || !method.getModifiers().contains(Modifier.PUBLIC)) {
+                continue;
+            }
+            List<? extends VariableElement> parameters = method.getParameters();
+            if (parameter == null ? parameters.isEmpty()
+                    : parameters.size() == 1 && types.isSameType(types.erasure(parameters.get(0).asType()), parameter)) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the names Gson reads the field from, the one it is written
+     * under first
+     */
+    private List<String> serializedNames(VariableElement field) {
+        List<String> names = new ArrayList<String>();
+        AnnotationMirror serializedName = annotation(field, SERIALIZED_NAME);
+        if (serializedName == null) {
+            names.add(field.getSimpleName().toString());
+            return names;
+        }
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value
+                : serializedName.getElementValues().entrySet()) {
+            values.put(value.getKey().getSimpleName().toString(), value.getValue().getValue());
+        }
+        names.add((String) values.get("value"));
+        if (values.containsKey("alternate")) {
+            for (Object alternate : (List<?>) values.get("alternate")) {
+                names.add((String) ((AnnotationValue) alternate).getValue());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Checks that the fields Gson serializes can be read and written without
+     * reflection, the model can be instantiated and no two fields share a
+     * serialized name, which makes Gson fail.
+     */
+    private boolean canGenerateAdapter(TypeElement model, List<ModelField> fields) {
+        if (model.getModifiers().contains(Modifier.ABSTRACT)) {
+            return false;
+        }
+        boolean constructor = false;
+        for (ExecutableElement candidate : ElementFilter.constructorsIn(model.getEnclosedElements())) {
+            if (candidate.getParameters().isEmpty() && !candidate.getModifiers().contains(Modifier.PRIVATE)) {
+                constructor = true;
+            }
+        }
+        if (!constructor) {
+            return false;
+        }
+
+        Set<String> names = new HashSet<String>();
+        for (ModelField field : fields) {
+            if (!field.serialized) {
+                continue;
+            }
+            if (!field.isAccessible() || field.customAdapter || !isConcrete(field.type)) {
+                return false;
+            }
+            for (String name : field.serializedNames) {
+                if (!names.add(name)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether the type names no type variable, so the adapter of the
+     * field can be resolved from its source
+     */
+    private boolean isConcrete(TypeMirror type) {
+        switch (type.getKind()) {
+            case DECLARED:
+                for (TypeMirror argument : ((DeclaredType) type).getTypeArguments()) {
+                    if (!isConcrete(argument)) {
+                        return false;
+                    }
+                }
+                return true;
+            case ARRAY:
+                return isConcrete(((ArrayType) type).getComponentType());
+            case WILDCARD:
+                WildcardType wildcard = (WildcardType) type;
+                return (wildcard.getExtendsBound() == null || isConcrete(wildcard.getExtendsBound()))
+                        && (wildcard.getSuperBound() == null || isConcrete(wildcard.getSuperBound()));
+            default:
+                return type.getKind().isPrimitive();
+        }
+    }
+
+    private static ModelField find(List<ModelField> fields, String name) {
+        for (ModelField field : fields) {
+            if (field.name.equals(name)) {
+                return field;
+            }
+        }
+        throw new IllegalStateException("No field named " + name);
+    }
+
+    private static boolean hasAnnotation(Element element, String annotationName) {
+        return annotation(element, annotationName) != null;
+    }
+
+    private static AnnotationMirror annotation(Element element, String annotationName) {
+        for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+            if (((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotationName)) {
+                return annotation;
+            }
+        }
+        return null;
+    }
+
+    private void note(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, message, element);
+    }
+
+}
@@ -0,0 +1,91 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.store.processor;
+
+import java.util.List;
+
+import javax.lang.model.type.TypeMirror;
+
+/**
+ * An instance field of a model class or of one of its superclasses.
+ */
+final class ModelField {
+
+    final String name;
+    final TypeMirror type;
+    /**
+     * The public getter and setter
+     * {@link org.jboss.aerogear.android.core.reflection.Property} looks for,
+     * or null if the model has none
+     */
+    final String getterName;
+    final String setterName;
+    /**
+     * Whether the field can be read as <code>entity.name</code> from the
+     * package of the model
+     */
+    final boolean visible;
+    /**
+     * Whether the field isn't final
+     */
+    final boolean writable;
+    /**
+     * Whether Gson serializes the field. It is written under the first of
+     * <code>serializedNames</code> and read from any of them
+     */
+    final boolean serialized;
+    final List<String> serializedNames;
+    /**
+     * Whether the field declares its own Gson adapter
+     */
+    final boolean customAdapter;
+    /**
+     * Whether the getter returns and the setter takes the type of the field
+     */
+    final boolean typedAccessors;
+
+    ModelField(String name, TypeMirror type, String getterName, String setterName, boolean visible,
+               boolean writable, boolean serialized, List<String> serializedNames, boolean customAdapter,
+               boolean typedAccessors) {
+        this.name = name;
+        this.type = type;
+        this.getterName = getterName;
+        this.setterName = setterName;
+        this.visible = visible;
+        this.writable = writable;
+        this.serialized = serialized;
+        this.serializedNames = serializedNames;
+        this.customAdapter = customAdapter;
+        this.typedAccessors = typedAccessors;
+    }
+
+    /**
+     * @return whether Property can read the field
+     */
+    boolean hasProperty() {
+        return getterName != null && setterName != null;
+    }
+
+    /**
+     * @return whether the generated adapter can read and write the field
+     * without reflection
+     */
+    boolean isAccessible() {
+        return writable && (visible || (hasProperty() && typedAccessors));
+    }
+
+}